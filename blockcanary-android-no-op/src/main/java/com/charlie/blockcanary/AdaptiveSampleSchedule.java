@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.charlie.blockcanary;
+
+/**
+ * No-op schedule.
+ */
+public class AdaptiveSampleSchedule implements SampleSchedule {
+
+    public AdaptiveSampleSchedule(long blockThresholdMillis, long sampleIntervalMillis) {
+    }
+
+    public AdaptiveSampleSchedule(long blockThresholdMillis, long sparseIntervalMillis,
+                                  long denseIntervalMillis, int maxSamples, long maxCpuMillis) {
+    }
+
+    @Override
+    public long nextDelay(long ageMillis, int sampleCount, long samplerCpuNanos) {
+        return STOP;
+    }
+}
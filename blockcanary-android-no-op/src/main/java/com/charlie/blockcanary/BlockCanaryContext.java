@@ -79,6 +79,22 @@ public class BlockCanaryContext {
         return "/blockcanary/";
     }
 
+    public int provideBlockSegmentBytes() {
+        return 256 * 1024;
+    }
+
+    public long provideBlockSegmentMillis() {
+        return 3600 * 1000L;
+    }
+
+    public int provideBlockQueueCapacity() {
+        return 0;
+    }
+
+    public BlockOverflowPolicy provideBlockOverflowPolicy() {
+        return BlockOverflowPolicy.AGGREGATE;
+    }
+
     public boolean displayNotification() {
         return false;
     }
@@ -114,4 +130,40 @@ public class BlockCanaryContext {
     public boolean stopWhenDebugging() {
         return true;
     }
+
+    public boolean useDispatchWatchdog() {
+        return true;
+    }
+
+    public SampleSchedule provideSampleSchedule(long blockThresholdMillis,
+                                                long sampleIntervalMillis) {
+        return null;
+    }
+
+    public float provideMainThreadOverheadBudget() {
+        return 0;
+    }
+
+    public float provideSamplerOverheadBudget() {
+        return 0;
+    }
+
+    public int provideTopThreadCount() {
+        return 0;
+    }
+
+    public int provideThermalSampleInterval() {
+        return 0;
+    }
+
+    public boolean useGcSampler() {
+        return false;
+    }
+
+    public boolean useIoSampler() {
+        return false;
+    }
+
+    public void registerSamplers(SamplerRegistry registry) {
+    }
 }
\ No newline at end of file
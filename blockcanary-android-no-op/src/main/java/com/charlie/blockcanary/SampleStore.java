@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.charlie.blockcanary;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * No-op sample store.
+ */
+public final class SampleStore<T> {
+
+    public SampleStore(int capacity) {
+    }
+
+    public void add(long time, T value) {
+    }
+
+    public List<Entry<T>> get(long startTime, long endTime) {
+        return Collections.emptyList();
+    }
+
+    public static final class Entry<T> {
+
+        public long getTime() {
+            return 0;
+        }
+
+        public T getValue() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.charlie.blockcanary;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * No-op sampler, never samples.
+ */
+public abstract class WindowedSampler<T> extends AbstractSampler {
+
+    private final String mName;
+
+    public WindowedSampler(String name, long sampleInterval) {
+        this(name, sampleInterval, 0);
+    }
+
+    public WindowedSampler(String name, long sampleInterval, int capacity) {
+        super(sampleInterval);
+        mName = name;
+    }
+
+    protected abstract T sample();
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<SampleStore.Entry<T>> getSamples(long startTime, long endTime) {
+        return Collections.emptyList();
+    }
+
+    protected String format(List<SampleStore.Entry<T>> samples) {
+        return "";
+    }
+
+    @Override
+    protected final void doSample() {
+    }
+}
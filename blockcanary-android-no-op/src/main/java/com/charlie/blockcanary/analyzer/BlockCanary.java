@@ -16,8 +16,16 @@
 package com.charlie.blockcanary.analyzer;
 
 import android.content.Context;
+import android.os.Looper;
 
 import com.charlie.blockcanary.BlockCanaryContext;
+import com.charlie.blockcanary.internal.DispatchSource;
+import com.charlie.blockcanary.internal.LatencySnapshot;
+import com.charlie.blockcanary.internal.OverheadSnapshot;
+import com.charlie.blockcanary.internal.WriteQueueSnapshot;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * No-op implementation.
@@ -52,6 +60,39 @@ public final class BlockCanary {
     public void stop() {
     }
 
+    public void watch(Looper looper, long blockThresholdMillis) {
+    }
+
+    public void unwatch(Looper looper) {
+    }
+
+    public LatencySnapshot getDispatchLatency(Looper looper) {
+        return null;
+    }
+
+    public LatencySnapshot getDispatchLatency() {
+        return new LatencySnapshot();
+    }
+
+    public LatencySnapshot getDispatchLatencyWindow() {
+        return new LatencySnapshot();
+    }
+
+    public List<DispatchSource> getTopDispatchSources(int count) {
+        return Collections.emptyList();
+    }
+
+    public OverheadSnapshot getOverheadStats() {
+        return new OverheadSnapshot();
+    }
+
+    public WriteQueueSnapshot getWriteQueueStats() {
+        return new WriteQueueSnapshot();
+    }
+
+    public void refreshEnvironment() {
+    }
+
     public void upload() {
     }
 
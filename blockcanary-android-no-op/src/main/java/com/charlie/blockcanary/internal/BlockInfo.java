@@ -1,4 +1,8 @@
 package com.charlie.blockcanary.internal;
 
 public class BlockInfo {
+
+    public BlockInfo addSection(String name, String text) {
+        return this;
+    }
 }
@@ -0,0 +1,28 @@
+package com.charlie.blockcanary.internal;
+
+public final class DispatchSource {
+
+    public String getHandlerClass() {
+        return "";
+    }
+
+    public String getCallbackClass() {
+        return "";
+    }
+
+    public long getCount() {
+        return 0;
+    }
+
+    public long getTotalNanos() {
+        return 0;
+    }
+
+    public long getMaxNanos() {
+        return 0;
+    }
+
+    public String getName() {
+        return "";
+    }
+}
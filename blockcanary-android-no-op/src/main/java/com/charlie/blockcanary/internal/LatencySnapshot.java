@@ -0,0 +1,44 @@
+package com.charlie.blockcanary.internal;
+
+public final class LatencySnapshot {
+
+    public long getStartTime() {
+        return 0;
+    }
+
+    public long getEndTime() {
+        return 0;
+    }
+
+    public long getTotalCount() {
+        return 0;
+    }
+
+    public long getCountAbove(long nanos) {
+        return 0;
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        return 0;
+    }
+
+    public long getP50() {
+        return 0;
+    }
+
+    public long getP90() {
+        return 0;
+    }
+
+    public long getP99() {
+        return 0;
+    }
+
+    public long getP999() {
+        return 0;
+    }
+
+    public long getMax() {
+        return 0;
+    }
+}
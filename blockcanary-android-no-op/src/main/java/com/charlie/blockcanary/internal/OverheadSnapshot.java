@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.charlie.blockcanary.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * No-op overhead report.
+ */
+public final class OverheadSnapshot {
+
+    public List<Entry> getEntries() {
+        return Collections.emptyList();
+    }
+
+    public long getElapsedNanos() {
+        return 0;
+    }
+
+    public long getMainThreadNanos() {
+        return 0;
+    }
+
+    public long getMainOverheadNanos() {
+        return 0;
+    }
+
+    public long getSamplerWakeups() {
+        return 0;
+    }
+
+    public long getTotalNanos(int threadKind) {
+        return 0;
+    }
+
+    public double getMainThreadPercent() {
+        return 0;
+    }
+
+    public double getSamplerThreadPercent() {
+        return 0;
+    }
+
+    public double getWriterThreadPercent() {
+        return 0;
+    }
+
+    public OverheadSnapshot since(OverheadSnapshot earlier) {
+        return this;
+    }
+
+    /**
+     * No-op probe totals.
+     */
+    public static final class Entry {
+
+        public String getName() {
+            return "";
+        }
+
+        public int getThreadKind() {
+            return 0;
+        }
+
+        public long getCount() {
+            return 0;
+        }
+
+        public long getTotalNanos() {
+            return 0;
+        }
+
+        public long getMaxNanos() {
+            return 0;
+        }
+
+        public long getMeanNanos() {
+            return 0;
+        }
+    }
+}
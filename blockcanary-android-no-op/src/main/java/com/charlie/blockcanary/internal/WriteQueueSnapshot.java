@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.charlie.blockcanary.internal;
+
+/**
+ * No-op write queue counters.
+ */
+public final class WriteQueueSnapshot {
+
+    public int getCapacity() {
+        return 0;
+    }
+
+    public int getDepth() {
+        return 0;
+    }
+
+    public int getMaxDepth() {
+        return 0;
+    }
+
+    public long getQueued() {
+        return 0;
+    }
+
+    public long getWritten() {
+        return 0;
+    }
+
+    public long getFailed() {
+        return 0;
+    }
+
+    public long getBatches() {
+        return 0;
+    }
+
+    public int getMaxBatchSize() {
+        return 0;
+    }
+
+    public double getMeanBatchSize() {
+        return 0;
+    }
+
+    public long getDropped() {
+        return 0;
+    }
+
+    public long getAggregated() {
+        return 0;
+    }
+}
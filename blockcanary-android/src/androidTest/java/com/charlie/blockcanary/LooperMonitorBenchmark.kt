@@ -0,0 +1,72 @@
+package com.nf.blockcanary
+
+import android.os.Looper
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.junit.Assert.*
+
+/**
+ * Per-message cost of [LooperMonitor], arming samplers on every message vs. [DispatchWatchdog].
+ */
+@RunWith(AndroidJUnit4::class)
+class LooperMonitorBenchmark {
+
+  private val listener = LooperMonitor.BlockListener { _, _, _, _, _, _, _ -> }
+
+  @Before
+  fun setUp() {
+    val blockCanaryContext = BlockCanaryContext()
+    BlockCanaryContext.init(InstrumentationRegistry.getInstrumentation().targetContext,
+        blockCanaryContext)
+    BlockCanaryInternals.setContext(blockCanaryContext)
+    BlockCanaryInternals.getInstance()
+  }
+
+  @Test
+  fun perMessageCost() {
+    val perMessage = LooperMonitor(Looper.getMainLooper(), listener, THRESHOLD, THRESHOLD, null,
+        false, false)
+    val legacyNanos = measure(perMessage)
+
+    val watched = LooperMonitor(Looper.getMainLooper(), listener, THRESHOLD, THRESHOLD, null,
+        false, true)
+    val watchdog = DispatchWatchdog(listOf(watched))
+    watchdog.start()
+    val watchdogNanos = measure(watched)
+    watchdog.stop()
+
+    Log.i(TAG, "per message: per-message arming ${legacyNanos}ns, watchdog ${watchdogNanos}ns")
+    assertTrue(watchdogNanos < legacyNanos)
+  }
+
+  private fun measure(monitor: LooperMonitor): Long {
+    for (i in 0 until WARM_UP) {
+      dispatch(monitor)
+    }
+    val start = System.nanoTime()
+    for (i in 0 until MESSAGES) {
+      dispatch(monitor)
+    }
+    return (System.nanoTime() - start) / MESSAGES
+  }
+
+  private fun dispatch(monitor: LooperMonitor) {
+    monitor.println(BEGIN)
+    monitor.println(END)
+  }
+
+  companion object {
+    private const val TAG = "LooperMonitorBenchmark"
+    private const val THRESHOLD = 1000L
+    private const val WARM_UP = 10_000
+    private const val MESSAGES = 100_000
+    private const val BEGIN = ">>>>> Dispatching to Handler (android.os.Handler) {0} null: 0"
+    private const val END = "<<<<< Finished to Handler (android.os.Handler) {0} null"
+  }
+}
@@ -0,0 +1,88 @@
+package com.nf.blockcanary
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.nf.blockcanary.internal.TimestampFormatter
+
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.junit.Assert.*
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Per-call cost of [TimestampFormatter] vs. the [SimpleDateFormat] it replaces, and agreement of
+ * both when shared between threads.
+ */
+@RunWith(AndroidJUnit4::class)
+class TimestampFormatterBenchmark {
+
+  @Test
+  fun perCallCost() {
+    for (pattern in PATTERNS) {
+      val legacy = SimpleDateFormat(pattern, Locale.US)
+      val formatter = TimestampFormatter(pattern)
+      val legacyNanos = measure { legacy.format(it).length }
+      val formatterNanos = measure { formatter.format(it).length }
+      val sb = StringBuilder()
+      val appendNanos = measure {
+        sb.setLength(0)
+        formatter.format(it, sb).length
+      }
+
+      Log.i(TAG, "$pattern: SimpleDateFormat ${legacyNanos}ns, TimestampFormatter " +
+          "${formatterNanos}ns, appending ${appendNanos}ns")
+      assertTrue(formatterNanos < legacyNanos)
+    }
+  }
+
+  @Test
+  fun sharedBetweenThreads() {
+    val formatter = TimestampFormatter(PATTERNS[0])
+    val mismatches = AtomicInteger()
+    val done = CountDownLatch(THREADS)
+    for (t in 0 until THREADS) {
+      Thread {
+        val legacy = SimpleDateFormat(PATTERNS[0], Locale.US)
+        var time = START + t * 7_919L
+        for (i in 0 until CALLS) {
+          // Crosses an hour every few hundred calls.
+          time += 10_007L
+          if (formatter.format(time) != legacy.format(time)) {
+            mismatches.incrementAndGet()
+          }
+        }
+        done.countDown()
+      }.start()
+    }
+    done.await()
+    assertEquals(0, mismatches.get())
+  }
+
+  private inline fun measure(format: (Long) -> Int): Long {
+    var sink = 0
+    for (i in 0 until WARM_UP) {
+      sink += format(START + i)
+    }
+    val start = System.nanoTime()
+    for (i in 0 until CALLS) {
+      sink += format(START + i * 3L)
+    }
+    val nanos = (System.nanoTime() - start) / CALLS
+    assertTrue(sink > 0)
+    return nanos
+  }
+
+  companion object {
+    private const val TAG = "TimestampFormatterBenchmark"
+    private const val START = 1_700_000_000_000L
+    private const val WARM_UP = 10_000
+    private const val CALLS = 100_000
+    private const val THREADS = 4
+    private val PATTERNS = arrayOf("MM-dd HH:mm:ss.SSS", "yyyy-MM-dd_HH-mm-ss.SSS",
+        "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd-HH-mm-ss")
+  }
+}
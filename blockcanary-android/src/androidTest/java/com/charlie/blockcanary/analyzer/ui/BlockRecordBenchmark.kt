@@ -0,0 +1,107 @@
+package com.nf.blockcanary.analyzer.ui
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.nf.blockcanary.internal.BlockInfo
+import com.nf.blockcanary.internal.BlockRecordReader
+import com.nf.blockcanary.internal.BlockRecordWriter
+import com.nf.blockcanary.internal.CpuSample
+
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.junit.Assert.*
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+
+/**
+ * Bytes written and parse time of one block in the binary format vs. the text logs it replaces.
+ */
+@RunWith(AndroidJUnit4::class)
+class BlockRecordBenchmark {
+
+  private val dir = InstrumentationRegistry.getInstrumentation().targetContext.cacheDir
+
+  @Test
+  fun bytesAndParseTime() {
+    val block = newBlock()
+    val text = File(dir, "benchmark.log")
+    text.writeText(block.toString(), Charsets.UTF_8)
+    val binary = File(dir, "benchmark.block")
+    BufferedOutputStream(FileOutputStream(binary)).use {
+      BlockRecordWriter(it).write(block, START)
+    }
+
+    val textMicros = measure(text)
+    val binaryMicros = measure(binary)
+    Log.i(TAG, "text ${text.length()} bytes ${textMicros}us, " +
+        "binary ${binary.length()} bytes ${binaryMicros}us")
+    assertEquals(block.toString(), parse(binary).toString())
+    assertTrue(binary.length() < text.length())
+    assertTrue(binaryMicros < textMicros)
+    text.delete()
+    binary.delete()
+  }
+
+  private fun measure(file: File): Long {
+    for (i in 0 until WARM_UP) {
+      parse(file)
+    }
+    val start = System.nanoTime()
+    for (i in 0 until PARSES) {
+      parse(file)
+    }
+    return (System.nanoTime() - start) / PARSES / 1000
+  }
+
+  private fun parse(file: File): BlockInfo {
+    val block = BlockInfo()
+    if (file.name.endsWith(".block")) {
+      BufferedInputStream(FileInputStream(file)).use { BlockRecordReader(it).read(block) }
+    } else {
+      file.bufferedReader(Charsets.UTF_8).use { block.readText(it) }
+    }
+    return block.flushString()
+  }
+
+  private fun newBlock(): BlockInfo {
+    val block = BlockInfo()
+    block.qualifier = "benchmark"
+    block.model = "model"
+    block.apiLevel = "30 11"
+    block.uid = "uid"
+    block.processName = "com.example"
+    block.looperName = "main"
+    block.network = "wifi"
+    block.freeMemory = "1024"
+    block.totalMemory = "4096"
+    block.setMainThreadTimeCost(START, START + 800, 0, 300)
+    block.setCpuSamples((0 until 8).map {
+      CpuSample(START + it * 100L, 800, 300, 200, 250, 100, 5)
+    })
+    block.setThreadStackEntries(ArrayList((0 until STACK_ENTRIES).map { entry ->
+      val sb = StringBuilder(BlockInfo.TIME_FORMATTER.format(START + entry * 40L))
+          .append(BlockInfo.SEPARATOR).append(BlockInfo.SEPARATOR)
+      for (frame in 0 until FRAMES) {
+        sb.append("com.example.Module").append(frame % 12).append(".call").append(frame)
+            .append("(Module.java:").append(100 + frame).append(')')
+            .append(BlockInfo.SEPARATOR)
+      }
+      sb.toString()
+    }))
+    return block.flushString()
+  }
+
+  companion object {
+    private const val TAG = "BlockRecordBenchmark"
+    private const val START = 1_700_000_000_000L
+    private const val STACK_ENTRIES = 20
+    private const val FRAMES = 30
+    private const val WARM_UP = 100
+    private const val PARSES = 1_000
+  }
+}
@@ -15,10 +15,20 @@
  */
 package com.nf.blockcanary;
 
+import android.os.Debug;
+import android.os.SystemClock;
+
+import com.nf.blockcanary.internal.BlockInfo;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@link AbstractSampler} sampler defines sampler work flow.
+ * <p>
+ * Samples at a fixed rate unless a {@link SampleSchedule} is given, which then decides each
+ * delay from the age of the sampled dispatch and the samples and CPU spent on it so far. Samples
+ * are taken by {@link SampleTicker}, together with those of other samplers due at the same time.
+ * </p>
  */
 public abstract class AbstractSampler {
 
@@ -27,34 +37,65 @@ public abstract class AbstractSampler {
     protected AtomicBoolean mShouldSample = new AtomicBoolean(false);
     protected long mSampleInterval;
 
-    private Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            doSample();
+    private final SampleSchedule mSchedule;
+    private volatile int mSlowdown = 1;
+    private volatile boolean mEnabled = true;
+    private volatile long mDispatchStart;
+    private volatile boolean mNewDispatch;
 
-            if (mShouldSample.get()) {
-                HandlerThreadFactory.getTimerThreadHandler()
-                        .postDelayed(mRunnable, mSampleInterval);
-            }
-        }
-    };
+    // Only touched on timer thread.
+    private int mSampleCount;
+    private long mCpuNanos;
+    private long mSampleTime;
+
+    // Guarded by SampleTicker.
+    long mDueAt;
+    long mGeneration;
 
     public AbstractSampler(long sampleInterval) {
+        this(sampleInterval, null);
+    }
+
+    /**
+     * @param sampleInterval interval used when schedule is null
+     * @param schedule       schedule of samples per dispatch, null for a fixed interval
+     */
+    public AbstractSampler(long sampleInterval, SampleSchedule schedule) {
         if (0 == sampleInterval) {
             sampleInterval = DEFAULT_SAMPLE_INTERVAL;
         }
         mSampleInterval = sampleInterval;
+        mSchedule = schedule;
     }
 
     public void start() {
-        if (mShouldSample.get()) {
+        start(BlockCanaryInternals.getInstance().getSampleDelay());
+    }
+
+    /**
+     * Start sampling after given delay.
+     *
+     * @param delayMillis delay before the first sample, 0 to sample at once
+     */
+    public void start(long delayMillis) {
+        start(delayMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Start sampling a dispatch which began earlier.
+     *
+     * @param delayMillis         delay before the first sample, 0 to sample at once
+     * @param dispatchStartMillis wall time the sampled dispatch began
+     */
+    public void start(long delayMillis, long dispatchStartMillis) {
+        if (!mEnabled || mShouldSample.get()) {
             return;
         }
+        mDispatchStart = dispatchStartMillis;
+        mNewDispatch = true;
         mShouldSample.set(true);
 
-        HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(mRunnable);
-        HandlerThreadFactory.getTimerThreadHandler().postDelayed(mRunnable,
-                BlockCanaryInternals.getInstance().getSampleDelay());
+        SampleTicker.getInstance().schedule(this, SystemClock.uptimeMillis() + delayMillis);
     }
 
     public void stop() {
@@ -62,8 +103,74 @@ public abstract class AbstractSampler {
             return;
         }
         mShouldSample.set(false);
-        HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(mRunnable);
+        SampleTicker.getInstance().cancel(this);
     }
 
-    abstract void doSample();
+    /**
+     * Take a sample for {@link SampleTicker}, on timer thread.
+     *
+     * @param sampleTime wall time shared by all samplers of the tick
+     * @return delay before the next sample, negative to stop
+     */
+    long tick(long sampleTime) {
+        if (!mShouldSample.get()) {
+            return SampleSchedule.STOP;
+        }
+        mSampleTime = sampleTime;
+        if (null == mSchedule) {
+            doSample();
+            return mSampleInterval * mSlowdown;
+        }
+
+        if (mNewDispatch) {
+            mNewDispatch = false;
+            mSampleCount = 0;
+            mCpuNanos = 0;
+        }
+        long cpuStart = Debug.threadCpuTimeNanos();
+        doSample();
+        mSampleCount++;
+        mCpuNanos += Debug.threadCpuTimeNanos() - cpuStart;
+
+        long delay = mSchedule.nextDelay(sampleTime - mDispatchStart, mSampleCount, mCpuNanos);
+        return delay < 0 ? SampleSchedule.STOP : delay * mSlowdown;
+    }
+
+    /**
+     * @return wall time of the sample being taken, shared by every sampler of the tick
+     */
+    protected final long getSampleTime() {
+        return mSampleTime;
+    }
+
+    /**
+     * Stretch every delay between samples.
+     *
+     * @param factor 1 for normal sampling
+     */
+    void setSlowdown(int factor) {
+        mSlowdown = Math.max(1, factor);
+    }
+
+    /**
+     * Disabled samplers ignore {@link #start(long)}, disabling also stops a running sampler.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            stop();
+        }
+    }
+
+    /**
+     * Take a sample, on the timer thread.
+     */
+    protected abstract void doSample();
+
+    /**
+     * Add what was sampled during a block to it, on the writer thread. Samplers registered in
+     * {@link SamplerRegistry} are asked once per block.
+     */
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+    }
 }
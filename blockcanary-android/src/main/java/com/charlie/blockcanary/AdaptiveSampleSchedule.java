@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+/**
+ * Samples sparsely until a dispatch reaches the block threshold and densely after it, so a block
+ * just past the threshold still gets several samples. Stops after a number of samples or an amount
+ * of sampler CPU per dispatch, whichever comes first.
+ */
+public class AdaptiveSampleSchedule implements SampleSchedule {
+
+    private static final int DEFAULT_MAX_SAMPLES = 64;
+    private static final long DEFAULT_MAX_CPU_MILLIS = 50;
+    private static final long MIN_DENSE_INTERVAL = 16;
+
+    private final long mBlockThresholdMillis;
+    private final long mSparseIntervalMillis;
+    private final long mDenseIntervalMillis;
+    private final int mMaxSamples;
+    private final long mMaxCpuNanos;
+
+    /**
+     * Sample every {@code sampleIntervalMillis} before the threshold and four times as often
+     * after it.
+     */
+    public AdaptiveSampleSchedule(long blockThresholdMillis, long sampleIntervalMillis) {
+        this(blockThresholdMillis, sampleIntervalMillis,
+                Math.max(MIN_DENSE_INTERVAL, sampleIntervalMillis / 4),
+                DEFAULT_MAX_SAMPLES, DEFAULT_MAX_CPU_MILLIS);
+    }
+
+    /**
+     * @param blockThresholdMillis dispatch age where sampling becomes dense
+     * @param sparseIntervalMillis interval before the threshold
+     * @param denseIntervalMillis  interval after the threshold
+     * @param maxSamples           max samples per dispatch
+     * @param maxCpuMillis         max sampler CPU time per dispatch
+     */
+    public AdaptiveSampleSchedule(long blockThresholdMillis, long sparseIntervalMillis,
+                                  long denseIntervalMillis, int maxSamples, long maxCpuMillis) {
+        mBlockThresholdMillis = blockThresholdMillis;
+        mSparseIntervalMillis = Math.max(1, sparseIntervalMillis);
+        mDenseIntervalMillis = Math.max(1, denseIntervalMillis);
+        mMaxSamples = maxSamples;
+        mMaxCpuNanos = maxCpuMillis * 1000000L;
+    }
+
+    @Override
+    public long nextDelay(long ageMillis, int sampleCount, long samplerCpuNanos) {
+        if (sampleCount >= mMaxSamples || samplerCpuNanos >= mMaxCpuNanos) {
+            return STOP;
+        }
+        if (ageMillis < mBlockThresholdMillis) {
+            // Never sleep past the threshold, the dense phase starts with a sample right at it.
+            return Math.max(1, Math.min(mSparseIntervalMillis, mBlockThresholdMillis - ageMillis));
+        }
+        return mDenseIntervalMillis;
+    }
+}
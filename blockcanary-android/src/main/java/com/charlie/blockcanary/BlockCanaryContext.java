@@ -65,7 +65,8 @@ public class BlockCanaryContext implements BlockInterceptor {
     }
 
     /**
-     * Implement in your project.
+     * Implement in your project. Read off the main thread when the environment is refreshed,
+     * call {@code BlockCanary.refreshEnvironment()} after it changes.
      *
      * @return user id
      */
@@ -74,7 +75,7 @@ public class BlockCanaryContext implements BlockInterceptor {
     }
 
     /**
-     * Network type
+     * Network type, read again on connectivity changes.
      *
      * @return {@link String} like 2G, 3G, 4G, wifi, etc.
      */
@@ -125,6 +126,45 @@ public class BlockCanaryContext implements BlockInterceptor {
         return "/blockcanary/";
     }
 
+    /**
+     * Size at which the segment file blocks are appended to is closed and a new one started.
+     * Blocks are deleted and uploaded a segment at a time.
+     *
+     * @return size in bytes
+     */
+    public int provideBlockSegmentBytes() {
+        return 256 * 1024;
+    }
+
+    /**
+     * Age at which the segment file blocks are appended to is closed and a new one started, so
+     * obsolete blocks are cleaned up in time.
+     *
+     * @return age in millis
+     */
+    public long provideBlockSegmentMillis() {
+        return 3600 * 1000L;
+    }
+
+    /**
+     * Max number of blocks waiting to be written. Blocks are written in batches, a storm of
+     * blocks beyond this is handled by {@link #provideBlockOverflowPolicy()}.
+     *
+     * @return capacity of the write queue
+     */
+    public int provideBlockQueueCapacity() {
+        return 32;
+    }
+
+    /**
+     * What to do with blocks detected while the write queue is full.
+     *
+     * @return overflow policy
+     */
+    public BlockOverflowPolicy provideBlockOverflowPolicy() {
+        return BlockOverflowPolicy.AGGREGATE;
+    }
+
     /**
      * If need notification to notice block.
      *
@@ -209,4 +249,114 @@ public class BlockCanaryContext implements BlockInterceptor {
     public boolean stopWhenDebugging() {
         return true;
     }
+
+    /**
+     * Whether to watch dispatches from one long-lived ticker on the sampler thread instead of
+     * arming samplers on every message. The looper thread then only bumps a counter per
+     * message, which is much cheaper on busy loopers.
+     * <p>
+     * The main looper is then hooked through the hidden {@code Looper.Observer} where the platform
+     * allows it, else through a {@code Printer}. Neither is free of allocations: the observer is a
+     * reflective proxy, which gets an argument array per call, and the looper builds a string per
+     * message for a printer, so dispatches still allocate a little, though the observer less.
+     * </p>
+     * <p>
+     * Where schedstat is readable, looper thread time is then only measured from the moment a
+     * dispatch is flagged slow, as {@code sched-span} and {@code sched-on-cpu}, and the
+     * {@code thread-time} of blocks is -1.
+     * </p>
+     *
+     * @return true to use the watchdog, false to arm samplers per message.
+     */
+    public boolean useDispatchWatchdog() {
+        return true;
+    }
+
+    /**
+     * Schedule of stack samples while a dispatch is sampled, by default sparse until the block
+     * threshold and dense after it, with a cap on samples and sampler CPU per dispatch.
+     *
+     * @param blockThresholdMillis threshold of the monitored looper
+     * @param sampleIntervalMillis dump interval of the monitored looper
+     * @return schedule, or null to sample at a fixed dump interval
+     */
+    public SampleSchedule provideSampleSchedule(long blockThresholdMillis,
+                                                long sampleIntervalMillis) {
+        return new AdaptiveSampleSchedule(blockThresholdMillis, sampleIntervalMillis);
+    }
+
+    /**
+     * Budget of monitoring cost on the main thread. When a 10s window goes over it, BlockCanary
+     * stops resolving the handler and callback each dispatch comes from, so blocks and
+     * attribution stats lack it, until cost stays under half the budget. Blocks are still
+     * detected and sampled.
+     *
+     * @return percent of main thread time, 0 for no limit
+     */
+    public float provideMainThreadOverheadBudget() {
+        return 1f;
+    }
+
+    /**
+     * Budget of sampling and block writing cost on BlockCanary's own threads. When a 10s window
+     * goes over it, BlockCanary steps down one level: shallower stacks, sparser sampling, no cpu
+     * sampling, then dispatch histograms only. It steps back up once cost stays under half the
+     * budget.
+     *
+     * @return percent of one core, 0 for no limit
+     */
+    public float provideSamplerOverheadBudget() {
+        return 2f;
+    }
+
+    /**
+     * Number of app threads, ranked by cpu used while a block was sampled, to attach to each
+     * block. Each sample then reads the stat file of every thread of the app.
+     *
+     * @return number of threads, 0 to not sample threads
+     */
+    public int provideTopThreadCount() {
+        return 0;
+    }
+
+    /**
+     * Interval to sample cpu cluster frequencies and thermal zone temperatures at while a block
+     * is sampled, attached to each block to spot thermal throttling. They change slowly, so a
+     * low rate is enough.
+     *
+     * @return interval in millis, 0 to not sample them
+     */
+    public int provideThermalSampleInterval() {
+        return 1000;
+    }
+
+    /**
+     * Whether to attach garbage collections which completed during each block, with java and
+     * native heap usage, to tell GC stalls from app code. GC counters need API 23.
+     *
+     * @return true to sample GC and heap usage
+     */
+    public boolean useGcSampler() {
+        return true;
+    }
+
+    /**
+     * Whether to attach storage I/O of the app, and of the blocked looper thread where its thread
+     * id is known, to each block.
+     *
+     * @return true to sample I/O counters
+     */
+    public boolean useIoSampler() {
+        return true;
+    }
+
+    /**
+     * Register samplers of the app, like frame stats, lock state or business counters. They are
+     * started and stopped with the built-in ones and add what they sampled to each block,
+     * usually as a {@link WindowedSampler}.
+     *
+     * @param registry shared samplers, built-in ones already added
+     */
+    public void registerSamplers(SamplerRegistry registry) {
+    }
 }
\ No newline at end of file
@@ -15,68 +15,158 @@
  */
 package com.nf.blockcanary;
 
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
 import android.os.Environment;
 import android.os.Looper;
+import android.os.Process;
 import com.nf.blockcanary.analyzer.ui.BlockCanaryUtils;
 import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.DispatchSource;
+import com.nf.blockcanary.internal.EnvironmentSnapshot;
+import com.nf.blockcanary.internal.LatencySnapshot;
+import com.nf.blockcanary.internal.LockContention;
+import com.nf.blockcanary.internal.OverheadSnapshot;
+import com.nf.blockcanary.internal.SelfStats;
+import com.nf.blockcanary.internal.ThreadSched;
+import com.nf.blockcanary.internal.WriteQueueSnapshot;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class BlockCanaryInternals {
 
   public LooperMonitor monitor;
   public StackSampler stackSampler;
   public CpuSampler cpuSampler;
+  public ThreadCpuSampler threadCpuSampler;
+  public ThermalSampler thermalSampler;
+  public GcSampler gcSampler;
+  public IoSampler ioSampler;
+  public DispatchWatchdog watchdog;
+
+  private static final int TOP_SOURCE_COUNT = 5;
+  private static final String CONTENTION_SECTION = "contention";
+  private static final String OVERFLOW_SECTION = "overflow";
 
   private static BlockCanaryInternals sInstance;
   private static BlockCanaryContext sContext;
 
-  private List<BlockInterceptor> mInterceptorChain = new LinkedList<>();
+  private final List<BlockInterceptor> mInterceptorChain = new CopyOnWriteArrayList<>();
+  private final List<LooperMonitor> mMonitors = new CopyOnWriteArrayList<>();
+  private boolean mMonitorStarted = false;
+  private boolean mObserverInstalled = false;
+  private OverheadGovernor mGovernor;
+  private final SamplerRegistry mSamplers = new SamplerRegistry();
+  // Loopers holding shared samplers without watchdog, guarded by mSamplers.
+  private int mSharedSamplerUsers = 0;
+  private final long mStatsStartNanos = System.nanoTime();
+  private final long mStatsStartMainThreadNanos = readMainThreadNanos();
+  private final AtomicBoolean mEnvironmentRefreshPending = new AtomicBoolean();
+  private final BlockWriteQueue mWriteQueue;
 
-  public BlockCanaryInternals() {
+  private final Runnable mRefreshEnvironment = new Runnable() {
 
-    stackSampler = new StackSampler(
-        Looper.getMainLooper().getThread(),
-        sContext.provideDumpInterval());
+    @Override
+    public void run() {
+      mEnvironmentRefreshPending.set(false);
+      EnvironmentSnapshot.refresh();
+    }
+  };
 
-    cpuSampler = new CpuSampler(sContext.provideDumpInterval());
+  private final LooperMonitor.BlockListener mBlockListener = new LooperMonitor.BlockListener() {
 
-    setMonitor(new LooperMonitor(new LooperMonitor.BlockListener() {
+    @Override
+    public void onBlockEvent(LooperMonitor blockMonitor, long realTimeStart, long realTimeEnd,
+        long threadTimeStart, long threadTimeEnd, DispatchSource source, ThreadSched sched) {
+      // Get recent thread-stack entries and cpu usage
+      ArrayList<String> threadStackEntries = blockMonitor.getStackSampler()
+          .getThreadStackEntries(realTimeStart, realTimeEnd);
+      if (!threadStackEntries.isEmpty()) {
+        BlockInfo blockInfo = BlockInfo.newInstance()
+            .setLooperName(blockMonitor.getName())
+            .setLooperThreadId(blockMonitor.getThreadId())
+            .setMainThreadTimeCost(realTimeStart, realTimeEnd, threadTimeStart, threadTimeEnd)
+            .setThreadSched(sched)
+            .setThreadStackEntries(threadStackEntries)
+            .setDispatchSources(source,
+                blockMonitor.getAttribution().getTopSources(TOP_SOURCE_COUNT));
+        LockContention contention = blockMonitor.getStackSampler()
+            .getContention(realTimeStart, realTimeEnd);
+        if (contention != null) {
+          blockInfo.addSection(CONTENTION_SECTION, contention.toString());
+        }
+        mSamplers.collect(blockInfo, realTimeStart, realTimeEnd);
 
-      @Override
-      public void onBlockEvent(long realTimeStart, long realTimeEnd,
-          long threadTimeStart, long threadTimeEnd) {
-        // Get recent thread-stack entries and cpu usage
-        ArrayList<String> threadStackEntries = stackSampler
-            .getThreadStackEntries(realTimeStart, realTimeEnd);
-        if (!threadStackEntries.isEmpty()) {
-          BlockInfo blockInfo = BlockInfo.newInstance()
-              .setMainThreadTimeCost(realTimeStart, realTimeEnd, threadTimeStart, threadTimeEnd)
-              .setCpuBusyFlag(cpuSampler.isCpuBusy(realTimeStart, realTimeEnd))
-              .setRecentCpuRate(cpuSampler.getCpuRateInfo())
-              .setThreadStackEntries(threadStackEntries)
-              .flushString();
-
-          String title = BlockCanaryUtils.concernStackString(blockInfo).toLowerCase(Locale.ROOT);
-          if (title.contains("blockcanary")) {
-            return;
-          }
-
-          LogWriter.save(blockInfo.toString());
-
-          if (mInterceptorChain.size() != 0) {
-            for (BlockInterceptor interceptor : mInterceptorChain) {
-              interceptor.onBlock(getContext().provideContext(), blockInfo);
+        String concernStack = BlockCanaryUtils.concernStackString(blockInfo);
+        if (concernStack.toLowerCase(Locale.ROOT).contains("blockcanary")) {
+          return;
+        }
+        String overflow = mWriteQueue.takeOverflow();
+        if (overflow != null) {
+          blockInfo.addSection(OVERFLOW_SECTION, overflow);
+        }
+        blockInfo.flushString();
+
+        // Blocks dropped or aggregated by the queue are not passed to interceptors either.
+        if (mWriteQueue.offer(blockInfo, concernStack) && !mInterceptorChain.isEmpty()) {
+          final BlockInfo info = blockInfo;
+          HandlerThreadFactory.getInterceptorThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+              for (BlockInterceptor interceptor : mInterceptorChain) {
+                interceptor.onBlock(getContext().provideContext(), info);
+              }
             }
-          }
+          });
         }
       }
-    }, getContext().provideBlockThreshold(), getContext().stopWhenDebugging()));
+    }
+  };
+
+  public BlockCanaryInternals() {
+
+    mWriteQueue = new BlockWriteQueue(HandlerThreadFactory.getWriteLogThreadHandler(), null,
+        sContext.provideBlockQueueCapacity(), sContext.provideBlockOverflowPolicy());
+    cpuSampler = new CpuSampler(sContext.provideDumpInterval());
+    if (sContext.provideTopThreadCount() > 0) {
+      threadCpuSampler = new ThreadCpuSampler(sContext.provideDumpInterval(),
+          sContext.provideTopThreadCount());
+    }
+    if (sContext.provideThermalSampleInterval() > 0) {
+      thermalSampler = new ThermalSampler(sContext.provideThermalSampleInterval());
+    }
+    if (sContext.useGcSampler()) {
+      gcSampler = new GcSampler(sContext.provideDumpInterval());
+    }
+    if (sContext.useIoSampler()) {
+      ioSampler = new IoSampler(sContext.provideDumpInterval());
+    }
+    registerSamplers();
 
+    if (getContext().useDispatchWatchdog()) {
+      watchdog = new DispatchWatchdog(mMonitors);
+    }
+    float mainThreadBudget = getContext().provideMainThreadOverheadBudget();
+    float samplerBudget = getContext().provideSamplerOverheadBudget();
+    if (mainThreadBudget > 0 || samplerBudget > 0) {
+      mGovernor = new OverheadGovernor(mMonitors, mainThreadBudget, samplerBudget);
+    }
+
+    setMonitor(newMonitor(Looper.getMainLooper(), getContext().provideBlockThreshold()));
+    stackSampler = monitor.getStackSampler();
+
+    refreshEnvironment();
+    listenEnvironmentChanges(sContext.provideContext());
     LogWriter.cleanObsolete();
   }
 
@@ -109,10 +199,313 @@ public final class BlockCanaryInternals {
     return sContext;
   }
 
+  /**
+   * Capture a new {@link EnvironmentSnapshot} on the writer thread, requests made while one is
+   * pending are coalesced.
+   */
+  public void refreshEnvironment() {
+    if (mEnvironmentRefreshPending.compareAndSet(false, true)) {
+      HandlerThreadFactory.getWriteLogThreadHandler().post(mRefreshEnvironment);
+    }
+  }
+
+  /**
+   * Refresh the snapshot on connectivity changes and memory pressure, its other fields only
+   * change when the app says so.
+   */
+  private void listenEnvironmentChanges(Context context) {
+    if (context == null) {
+      return;
+    }
+    context.registerReceiver(new BroadcastReceiver() {
+
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        refreshEnvironment();
+      }
+    }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null,
+        HandlerThreadFactory.getWriteLogThreadHandler());
+    context.registerComponentCallbacks(new ComponentCallbacks2() {
+
+      @Override
+      public void onTrimMemory(int level) {
+        refreshEnvironment();
+      }
+
+      @Override
+      public void onConfigurationChanged(Configuration newConfig) {
+      }
+
+      @Override
+      public void onLowMemory() {
+        refreshEnvironment();
+      }
+    });
+  }
+
   public void addBlockInterceptor(BlockInterceptor blockInterceptor) {
     mInterceptorChain.add(blockInterceptor);
   }
 
+  /**
+   * Start monitoring every watched looper. Main looper is hooked through {@code Looper.Observer}
+   * where the runtime allows it, else through message logging like other loopers.
+   */
+  public synchronized void startMonitor() {
+    if (mMonitorStarted) {
+      return;
+    }
+    mMonitorStarted = true;
+    for (LooperMonitor looperMonitor : mMonitors) {
+      install(looperMonitor);
+    }
+    if (watchdog != null) {
+      watchdog.start();
+    }
+    if (mGovernor != null) {
+      mGovernor.start();
+    }
+  }
+
+  public synchronized void stopMonitor() {
+    if (!mMonitorStarted) {
+      return;
+    }
+    mMonitorStarted = false;
+    for (LooperMonitor looperMonitor : mMonitors) {
+      uninstall(looperMonitor);
+    }
+    if (watchdog != null) {
+      watchdog.stop();
+    }
+    if (mGovernor != null) {
+      mGovernor.stop();
+    }
+    stopSharedSamplers();
+  }
+
+  /**
+   * Start samplers shared by all monitored loopers.
+   */
+  void startSharedSamplers(long delayMillis) {
+    mSamplers.start(delayMillis);
+  }
+
+  void stopSharedSamplers() {
+    mSamplers.stop();
+  }
+
+  /**
+   * Without watchdog every looper starts shared samplers on dispatch begin, they run until the
+   * last looper dispatching releases them.
+   */
+  void acquireSharedSamplers(long delayMillis) {
+    synchronized (mSamplers) {
+      if (mSharedSamplerUsers++ == 0) {
+        startSharedSamplers(delayMillis);
+      }
+    }
+  }
+
+  void releaseSharedSamplers() {
+    synchronized (mSamplers) {
+      if (mSharedSamplerUsers > 0 && --mSharedSamplerUsers == 0) {
+        stopSharedSamplers();
+      }
+    }
+  }
+
+  /**
+   * Samplers shared by all monitored loopers, built-in ones and those of the app.
+   */
+  public SamplerRegistry getSamplerRegistry() {
+    return mSamplers;
+  }
+
+  private void registerSamplers() {
+    mSamplers.add(cpuSampler);
+    for (AbstractSampler sampler : new AbstractSampler[]{
+        threadCpuSampler, thermalSampler, gcSampler, ioSampler}) {
+      if (sampler != null) {
+        mSamplers.add(sampler);
+      }
+    }
+    sContext.registerSamplers(mSamplers);
+  }
+
+  /**
+   * Enable or disable samplers reading cpu usage, disabling also stops them.
+   */
+  void setCpuSamplingEnabled(boolean enabled) {
+    cpuSampler.setEnabled(enabled);
+    if (threadCpuSampler != null) {
+      threadCpuSampler.setEnabled(enabled);
+    }
+    if (thermalSampler != null) {
+      thermalSampler.setEnabled(enabled);
+    }
+  }
+
+  /**
+   * Watch another looper, like a render, database or IPC {@code HandlerThread}, with its own
+   * monitor, sample buffer and threshold. Watching a looper twice does nothing.
+   *
+   * @param looper               looper to watch
+   * @param blockThresholdMillis dispatch over this duration is regarded as a block
+   */
+  public synchronized void watch(Looper looper, long blockThresholdMillis) {
+    if (getMonitor(looper) != null) {
+      return;
+    }
+    LooperMonitor looperMonitor = newMonitor(looper, blockThresholdMillis);
+    if (mMonitorStarted) {
+      install(looperMonitor);
+    }
+  }
+
+  /**
+   * Stop watching a looper added by {@link #watch(Looper, long)}, main looper is kept.
+   */
+  public synchronized void unwatch(Looper looper) {
+    LooperMonitor looperMonitor = getMonitor(looper);
+    if (looperMonitor == null || looperMonitor == monitor) {
+      return;
+    }
+    if (mMonitorStarted) {
+      uninstall(looperMonitor);
+    }
+    mMonitors.remove(looperMonitor);
+    if (ioSampler != null) {
+      ioSampler.removeThread(looperMonitor.getThreadId());
+    }
+    SelfStats.PRINTLN.removeCell(looperMonitor.getOverheadCell());
+    if (watchdog != null) {
+      watchdog.release(looperMonitor);
+    }
+  }
+
+  /**
+   * Called once on the looper thread when a monitor learns its thread id, which could not be read
+   * up front for loopers not run by a {@link android.os.HandlerThread}.
+   */
+  synchronized void onThreadIdKnown(LooperMonitor looperMonitor) {
+    if (ioSampler != null && mMonitors.contains(looperMonitor)) {
+      ioSampler.addThread(looperMonitor.getThreadId());
+    }
+  }
+
+  LooperMonitor getMonitor(Looper looper) {
+    for (LooperMonitor looperMonitor : mMonitors) {
+      if (looperMonitor.getLooper() == looper) {
+        return looperMonitor;
+      }
+    }
+    return null;
+  }
+
+  private LooperMonitor newMonitor(Looper looper, long blockThresholdMillis) {
+    // Keep the ratio between dump interval and threshold the context asks for main looper.
+    long sampleInterval = sContext.provideDumpInterval() * blockThresholdMillis
+        / Math.max(sContext.provideBlockThreshold(), 1);
+    LooperMonitor looperMonitor = new LooperMonitor(looper, mBlockListener, blockThresholdMillis,
+        sampleInterval, sContext.provideSampleSchedule(blockThresholdMillis, sampleInterval),
+        getContext().stopWhenDebugging(), watchdog != null);
+    looperMonitor.setWatchdog(watchdog);
+    if (mGovernor != null) {
+      mGovernor.apply(looperMonitor);
+    }
+    mMonitors.add(looperMonitor);
+    if (ioSampler != null) {
+      ioSampler.addThread(looperMonitor.getThreadId());
+    }
+    return looperMonitor;
+  }
+
+  private void install(LooperMonitor looperMonitor) {
+    if (looperMonitor == monitor && watchdog != null
+        && LooperObserverCompat.install(looperMonitor, looperMonitor.getLooper().getThread())) {
+      mObserverInstalled = true;
+    } else {
+      looperMonitor.getLooper().setMessageLogging(looperMonitor);
+    }
+  }
+
+  private void uninstall(LooperMonitor looperMonitor) {
+    if (looperMonitor == monitor && mObserverInstalled) {
+      LooperObserverCompat.uninstall();
+      mObserverInstalled = false;
+    } else {
+      looperMonitor.getLooper().setMessageLogging(null);
+    }
+    looperMonitor.stopDump();
+  }
+
+  /**
+   * Latency of every main looper dispatch since monitor creation.
+   */
+  public LatencySnapshot getDispatchLatency() {
+    return monitor.getLatencyHistogram().snapshot();
+  }
+
+  /**
+   * Latency of main looper dispatches since the previous call.
+   */
+  public LatencySnapshot getDispatchLatencyWindow() {
+    return monitor.getLatencyHistogram().windowSnapshot();
+  }
+
+  /**
+   * Latency of every dispatch of a watched looper.
+   *
+   * @return null if the looper is not watched
+   */
+  public LatencySnapshot getDispatchLatency(Looper looper) {
+    LooperMonitor looperMonitor = getMonitor(looper);
+    return looperMonitor == null ? null : looperMonitor.getLatencyHistogram().snapshot();
+  }
+
+  /**
+   * Most expensive main looper message sources by cumulative dispatch time.
+   *
+   * @param count max number of sources
+   */
+  public List<DispatchSource> getTopDispatchSources(int count) {
+    return monitor.getAttribution().getTopSources(count);
+  }
+
+  /**
+   * BlockCanary's own cost since it was created, see {@link OverheadSnapshot}.
+   */
+  public OverheadSnapshot getOverheadStats() {
+    long mainThreadNanos = -1;
+    if (mStatsStartMainThreadNanos >= 0) {
+      long now = readMainThreadNanos();
+      if (now >= 0) {
+        mainThreadNanos = now - mStatsStartMainThreadNanos;
+      }
+    }
+    return SelfStats.snapshot(Looper.getMainLooper().getThread(),
+        System.nanoTime() - mStatsStartNanos, mainThreadNanos);
+  }
+
+  /**
+   * Counters of the queue blocks wait in to be written, see {@link WriteQueueSnapshot}.
+   */
+  public WriteQueueSnapshot getWriteQueueStats() {
+    return mWriteQueue.snapshot();
+  }
+
+  private static long readMainThreadNanos() {
+    if (!SchedStatReader.isSupported()) {
+      return -1;
+    }
+    // Main thread id equals the process id.
+    SchedStatReader reader = new SchedStatReader(Process.myPid());
+    long runTime = reader.readRunTimeNanos();
+    reader.close();
+    return runTime;
+  }
+
   private void setMonitor(LooperMonitor looperPrinter) {
     monitor = looperPrinter;
   }
@@ -152,15 +545,13 @@ public final class BlockCanaryInternals {
 
   private static class BlockLogFileFilter implements FilenameFilter {
 
-    private String TYPE = ".log";
-
     BlockLogFileFilter() {
 
     }
 
     @Override
     public boolean accept(File dir, String filename) {
-      return filename.endsWith(TYPE);
+      return BlockStore.isBlockFile(filename);
     }
   }
 }
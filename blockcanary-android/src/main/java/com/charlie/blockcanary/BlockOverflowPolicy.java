@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+/**
+ * What to do with a block when blocks are detected faster than they are written and the write
+ * queue is full, see {@link BlockCanaryContext#provideBlockQueueCapacity()}.
+ */
+public enum BlockOverflowPolicy {
+
+    /**
+     * Drop the oldest queued block to queue the new one, keeping the latest blocks of a storm.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new block, keeping the first blocks of a storm.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Only count the new block, with its duration, under its concern stack. Counts are written
+     * as an "overflow" section of the next block queued.
+     */
+    AGGREGATE
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.util.Log;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.BlockRecordIndex;
+import com.nf.blockcanary.internal.BlockRecordReader;
+import com.nf.blockcanary.internal.BlockRecordWriter;
+import com.nf.blockcanary.internal.TimestampFormatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores blocks appended to segment files, each written by one {@link BlockRecordWriter}.
+ * <p>
+ * The segment blocks are appended to is closed with an index of its records once it reaches
+ * {@link BlockCanaryContext#provideBlockSegmentBytes()} or
+ * {@link BlockCanaryContext#provideBlockSegmentMillis()}, a segment left open by an ended
+ * process is read from the start. Records are never rewritten in place: deleted ones are listed
+ * in a tombstone file next to their segment until the segment is compacted or all its records
+ * are deleted. Blocks saved one file each by older versions are read and deleted as well.
+ * </p>
+ * <p>
+ * Records are identified by a key of their file name and index, stable until compaction.
+ * </p>
+ */
+public final class BlockStore {
+
+    private static final String TAG = "BlockStore";
+
+    static final String SEGMENT_FILE_SUFFIX = ".seg";
+    static final String BLOCK_FILE_SUFFIX = ".block";
+    static final String TEXT_FILE_SUFFIX = ".log";
+    private static final String TOMBSTONE_FILE_SUFFIX = ".del";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final char KEY_SEPARATOR = '#';
+    private static final int SEGMENT_BUFFER_SIZE = 16 * 1024;
+    private static final TimestampFormatter FILE_NAME_FORMATTER
+            = new TimestampFormatter("yyyy-MM-dd_HH-mm-ss.SSS");
+
+    private static BlockStore sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSegmentBytes;
+    private final long mMaxSegmentMillis;
+
+    private File mSegment;
+    private OutputStream mOut;
+    private BlockRecordWriter mWriter;
+    private long mSegmentStart;
+
+    BlockStore(File directory, long maxSegmentBytes, long maxSegmentMillis) {
+        mDirectory = directory;
+        mMaxSegmentBytes = maxSegmentBytes;
+        mMaxSegmentMillis = maxSegmentMillis;
+    }
+
+    public static synchronized BlockStore get() {
+        if (sInstance == null) {
+            BlockCanaryContext context = BlockCanaryInternals.getContext();
+            sInstance = new BlockStore(BlockCanaryInternals.detectedBlockDirectory(),
+                    context.provideBlockSegmentBytes(), context.provideBlockSegmentMillis());
+        }
+        return sInstance;
+    }
+
+    static boolean isBlockFile(String name) {
+        return name.endsWith(SEGMENT_FILE_SUFFIX)
+                || name.endsWith(BLOCK_FILE_SUFFIX)
+                || name.endsWith(TEXT_FILE_SUFFIX);
+    }
+
+    /**
+     * Append a block to the open segment, starting one if needed. The segment is flushed but not
+     * synced.
+     *
+     * @param info      block to append
+     * @param writeTime wall time of saving
+     * @return path of the segment appended to
+     */
+    public synchronized String append(BlockInfo info, long writeTime) throws IOException {
+        String path = write(info, writeTime);
+        flush();
+        return path;
+    }
+
+    /**
+     * Append blocks as one burst of writes, flushed once. Segments still roll between blocks.
+     *
+     * @param infos      blocks to append
+     * @param writeTimes wall time of saving each block
+     * @throws IOException if writing failed, blocks before the failed one may be kept
+     */
+    public synchronized void append(List<BlockInfo> infos, long[] writeTimes)
+            throws IOException {
+        for (int i = 0; i < infos.size(); i++) {
+            write(infos.get(i), writeTimes[i]);
+        }
+        flush();
+    }
+
+    /**
+     * Close the open segment with its index, the next block starts a new one.
+     */
+    public synchronized void roll() {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.finish();
+            mOut.close();
+        } catch (IOException e) {
+            Log.e(TAG, "roll: ", e);
+        }
+        mOut = null;
+        mWriter = null;
+        mSegment = null;
+    }
+
+    /**
+     * @return cursor over blocks stored now, oldest file first, blocks appended later may or may
+     * not be included
+     */
+    public synchronized Cursor query() {
+        File[] files = getFiles();
+        Arrays.sort(files);
+        return new Cursor(files);
+    }
+
+    /**
+     * @return block files stored now
+     */
+    public synchronized File[] getFiles() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return isBlockFile(name);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Delete blocks of given keys, see {@link Cursor#getKey()}.
+     */
+    public synchronized void delete(Collection<String> keys) {
+        Map<String, Set<Integer>> byFile = new HashMap<>();
+        for (String key : keys) {
+            int separator = key.lastIndexOf(KEY_SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            Set<Integer> indexes = byFile.get(key.substring(0, separator));
+            if (indexes == null) {
+                indexes = new HashSet<>();
+                byFile.put(key.substring(0, separator), indexes);
+            }
+            indexes.add(Integer.valueOf(key.substring(separator + 1)));
+        }
+        for (Map.Entry<String, Set<Integer>> entry : byFile.entrySet()) {
+            File file = new File(mDirectory, entry.getKey());
+            if (!file.getName().endsWith(SEGMENT_FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            try {
+                Set<Integer> deleted = readTombstones(file);
+                deleted.addAll(entry.getValue());
+                if (deleted.size() >= countRecords(file)) {
+                    deleteFile(file);
+                } else {
+                    writeTombstones(file, entry.getValue());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "delete: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Delete a whole block file, like one which could not be read.
+     */
+    public synchronized void deleteFile(File file) {
+        if (file.equals(mSegment)) {
+            abandon();
+        }
+        file.delete();
+        tombstoneFile(file).delete();
+    }
+
+    public synchronized void deleteAll() {
+        abandon();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (isBlockFile(name) || name.endsWith(TOMBSTONE_FILE_SUFFIX)
+                    || name.endsWith(TEMP_FILE_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete files whose newest block was written before given time, the open segment is kept.
+     */
+    public synchronized void deleteOlderThan(long time) {
+        for (File file : getFiles()) {
+            if (file.equals(mSegment)) {
+                continue;
+            }
+            long lastWriteTime = 0;
+            if (file.getName().endsWith(SEGMENT_FILE_SUFFIX)) {
+                try {
+                    BlockRecordIndex index = BlockRecordIndex.read(file);
+                    lastWriteTime = index == null ? 0 : index.getLastWriteTime();
+                } catch (IOException e) {
+                    Log.e(TAG, "deleteOlderThan: " + file, e);
+                }
+            }
+            if (lastWriteTime <= 0) {
+                lastWriteTime = file.lastModified();
+            }
+            if (lastWriteTime < time) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Close the open segment and rewrite segments with deleted blocks without them. Keys of blocks
+     * read before change, it is run once the process starts by {@link LogWriter#cleanObsolete()}.
+     */
+    public synchronized void compact() {
+        roll();
+        for (File file : getFiles()) {
+            if (file.getName().endsWith(SEGMENT_FILE_SUFFIX) && tombstoneFile(file).exists()) {
+                rewrite(file, Integer.MAX_VALUE, true);
+            }
+        }
+    }
+
+    /**
+     * Delete blocks of the file a cursor failed to read, from the one it failed at to the end of
+     * the file. Blocks read before are kept, and the open segment is left alone as its last block
+     * may just not be flushed yet.
+     *
+     * @param cursor cursor whose {@link Cursor#next(BlockInfo)} threw
+     */
+    public synchronized void deleteUnreadable(Cursor cursor) {
+        File file = cursor.getFile();
+        if (file == null || file.equals(mSegment)) {
+            return;
+        }
+        int firstIndex = cursor.getIndex() + 1;
+        if (!file.getName().endsWith(SEGMENT_FILE_SUFFIX) || firstIndex == 0) {
+            deleteFile(file);
+        } else {
+            // Indexes of blocks kept must not change, keys of them may be held by the caller.
+            rewrite(file, firstIndex, false);
+        }
+    }
+
+    /**
+     * Rewrite a closed segment without blocks from given index on, which are never parsed.
+     *
+     * @param dropDeleted whether to drop deleted blocks too, else they are kept with their
+     *                    tombstones
+     */
+    private void rewrite(File file, int limit, boolean dropDeleted) {
+        File temp = new File(mDirectory, file.getName() + TEMP_FILE_SUFFIX);
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            Set<Integer> deleted = readTombstones(file);
+            in = new BufferedInputStream(new FileInputStream(file));
+            out = new BufferedOutputStream(new FileOutputStream(temp), SEGMENT_BUFFER_SIZE);
+            BlockRecordReader reader = new BlockRecordReader(in);
+            BlockRecordWriter writer = new BlockRecordWriter(out);
+            BlockInfo info = new BlockInfo();
+            for (int i = 0; i < limit && reader.read(info); i++) {
+                if (!dropDeleted || !deleted.contains(i)) {
+                    writer.write(info, reader.getWriteTime());
+                }
+                info = new BlockInfo();
+            }
+            writer.finish();
+            out.close();
+            out = null;
+            in.close();
+            in = null;
+            if (writer.getCount() == 0 ? temp.delete() && file.delete()
+                    : temp.renameTo(file) && dropDeleted) {
+                tombstoneFile(file).delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "rewrite: " + file, e);
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    private String write(BlockInfo info, long writeTime) throws IOException {
+        if (mWriter != null && writeTime - mSegmentStart >= mMaxSegmentMillis) {
+            roll();
+        }
+        if (mWriter == null) {
+            open(writeTime);
+        }
+        String path = mSegment.getPath();
+        try {
+            mWriter.write(info, writeTime);
+        } catch (IOException e) {
+            // Records after a partly written one could not be read, start a new segment.
+            abandon();
+            throw e;
+        }
+        if (mWriter.getBytesWritten() >= mMaxSegmentBytes) {
+            roll();
+        }
+        return path;
+    }
+
+    private void flush() throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            abandon();
+            throw e;
+        }
+    }
+
+    private void open(long time) throws IOException {
+        if (!mDirectory.exists()) {
+            mDirectory.mkdirs();
+        }
+        String name = "looper-" + FILE_NAME_FORMATTER.format(time);
+        File file = new File(mDirectory, name + SEGMENT_FILE_SUFFIX);
+        // Segments started within the same millisecond, by several processes, get a file each.
+        for (int i = 1; file.exists(); i++) {
+            file = new File(mDirectory, name + "-" + i + SEGMENT_FILE_SUFFIX);
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+                SEGMENT_BUFFER_SIZE);
+        try {
+            mWriter = new BlockRecordWriter(out);
+            out.flush();
+        } catch (IOException e) {
+            mWriter = null;
+            closeQuietly(out);
+            file.delete();
+            throw e;
+        }
+        mOut = out;
+        mSegment = file;
+        mSegmentStart = time;
+    }
+
+    private void abandon() {
+        closeQuietly(mOut);
+        mOut = null;
+        mWriter = null;
+        mSegment = null;
+    }
+
+    private int countRecords(File file) throws IOException {
+        if (file.equals(mSegment)) {
+            return mWriter.getCount();
+        }
+        BlockRecordIndex index = BlockRecordIndex.read(file);
+        if (index != null) {
+            return index.getCount();
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            BlockRecordReader reader = new BlockRecordReader(in);
+            int count = 0;
+            while (reader.read(new BlockInfo())) {
+                count++;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File tombstoneFile(File segment) {
+        return new File(segment.getPath() + TOMBSTONE_FILE_SUFFIX);
+    }
+
+    private static Set<Integer> readTombstones(File segment) throws IOException {
+        File file = tombstoneFile(segment);
+        Set<Integer> indexes = new HashSet<>();
+        if (!file.exists()) {
+            return indexes;
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                try {
+                    indexes.add(Integer.valueOf(line.trim()));
+                } catch (NumberFormatException e) {
+                    // A line cut short by a crash.
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return indexes;
+    }
+
+    private static void writeTombstones(File segment, Set<Integer> indexes) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Integer index : indexes) {
+            sb.append(index).append('\n');
+        }
+        OutputStream out = new FileOutputStream(tombstoneFile(segment), true);
+        try {
+            out.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close: ", e);
+        }
+    }
+
+    /**
+     * Reads stored blocks one at a time, files are opened as they are reached. Not thread safe.
+     */
+    public static final class Cursor implements Closeable {
+
+        private final File[] mFiles;
+        private final BlockInfo mSkipped = new BlockInfo();
+        private int mFileIndex = -1;
+        private File mFile;
+        private InputStream mIn;
+        private BlockRecordReader mReader;
+        private Set<Integer> mDeleted = Collections.emptySet();
+        private int mIndex;
+        private long mWriteTime;
+
+        Cursor(File[] files) {
+            mFiles = files;
+        }
+
+        /**
+         * Read next block into given one, with text fields flushed.
+         *
+         * @return false after the last block
+         * @throws IOException if a file could not be read, {@link #getFile()} is then the file,
+         *                     and the cursor moves on to the next one
+         */
+        public boolean next(BlockInfo info) throws IOException {
+            while (true) {
+                if (mIn == null && !openNext()) {
+                    return false;
+                }
+                boolean read;
+                try {
+                    read = read(info);
+                } catch (Exception e) {
+                    closeFile();
+                    throw e instanceof IOException ? (IOException) e
+                            : new IOException("Corrupt block file " + mFile, e);
+                }
+                if (read) {
+                    info.flushString();
+                    return true;
+                }
+                closeFile();
+            }
+        }
+
+        /**
+         * @return file of the last block read
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return index of the last block read within its file, -1 if none of it was read
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * @return wall time the last block read was saved at
+         */
+        public long getWriteTime() {
+            return mWriteTime;
+        }
+
+        /**
+         * @return key of the last block read, for {@link BlockStore#delete(Collection)}
+         */
+        public String getKey() {
+            return mFile.getName() + KEY_SEPARATOR + mIndex;
+        }
+
+        @Override
+        public void close() {
+            closeFile();
+            mFileIndex = mFiles.length;
+        }
+
+        private boolean openNext() throws IOException {
+            while (++mFileIndex < mFiles.length) {
+                File file = mFiles[mFileIndex];
+                // A segment just started may not have its header yet.
+                if (file.length() == 0) {
+                    continue;
+                }
+                mFile = file;
+                mIndex = -1;
+                mReader = null;
+                mDeleted = readTombstones(file);
+                try {
+                    mIn = new BufferedInputStream(new FileInputStream(file));
+                } catch (IOException e) {
+                    // Deleted since the query.
+                    continue;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private boolean read(BlockInfo info) throws IOException {
+            if (mFile.getName().endsWith(TEXT_FILE_SUFFIX)) {
+                if (mIndex >= 0) {
+                    return false;
+                }
+                mIndex = 0;
+                mWriteTime = mFile.lastModified();
+                info.readText(new BufferedReader(new InputStreamReader(mIn, "UTF-8")));
+                return true;
+            }
+            if (mReader == null) {
+                mReader = new BlockRecordReader(mIn);
+            }
+            while (true) {
+                int index = mIndex + 1;
+                BlockInfo target = info;
+                if (mDeleted.contains(index)) {
+                    mSkipped.sections.clear();
+                    target = mSkipped;
+                }
+                if (!mReader.read(target)) {
+                    return false;
+                }
+                mIndex = index;
+                if (target == info) {
+                    mWriteTime = mReader.getWriteTime();
+                    return true;
+                }
+            }
+        }
+
+        private void closeFile() {
+            closeQuietly(mIn);
+            mIn = null;
+            mReader = null;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.SelfStats;
+import com.nf.blockcanary.internal.WriteQueueSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of blocks waiting to be written to the {@link BlockStore}. It is drained on the
+ * writer thread in batches, each appended as one burst of writes with one flush, so a storm of
+ * blocks costs a few writes rather than one per block.
+ * <p>
+ * Offering never locks. Once the queue holds its capacity, blocks are handled by the
+ * {@link BlockOverflowPolicy}; concurrent offers may exceed it by one block each.
+ * </p>
+ */
+final class BlockWriteQueue {
+
+    private static final String TAG = "BlockWriteQueue";
+
+    /**
+     * Time a drain waits for more blocks once one is queued.
+     */
+    private static final long LINGER_MILLIS = 50;
+    private static final int MAX_AGGREGATE_COUNT = 16;
+    private static final String OTHER_AGGREGATE = "other";
+
+    private final Handler mHandler;
+    private final BlockStore mStore;
+    private final int mCapacity;
+    private final BlockOverflowPolicy mPolicy;
+    private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mDepth = new AtomicInteger();
+    private final AtomicBoolean mDrainPending = new AtomicBoolean();
+
+    private final AtomicInteger mMaxDepth = new AtomicInteger();
+    private final AtomicLong mQueued = new AtomicLong();
+    private final AtomicLong mWritten = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mBatches = new AtomicLong();
+    private final AtomicInteger mMaxBatchSize = new AtomicInteger();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mAggregated = new AtomicLong();
+
+    // Counts of aggregated blocks by concern stack, guarded by itself.
+    private final Map<String, long[]> mAggregates = new LinkedHashMap<>();
+
+    // Only touched by drain.
+    private final List<BlockInfo> mBatch = new ArrayList<>();
+    private long[] mWriteTimes = new long[16];
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param handler  handler of the thread to write on, null if {@link #drain()} is called by the
+     *                 owner
+     * @param store    store to write to, null for {@link BlockStore#get()} at the first drain
+     * @param capacity max number of queued blocks
+     * @param policy   what to do with blocks offered while full
+     */
+    BlockWriteQueue(Handler handler, BlockStore store, int capacity, BlockOverflowPolicy policy) {
+        mHandler = handler;
+        mStore = store;
+        mCapacity = Math.max(1, capacity);
+        mPolicy = policy == null ? BlockOverflowPolicy.DROP_OLDEST : policy;
+    }
+
+    /**
+     * Queue a block to write, or handle it by the overflow policy if the queue is full. The block
+     * must not be changed after.
+     *
+     * @param info         block with text fields flushed
+     * @param concernStack concern stack of the block, what it is aggregated under
+     * @return whether the block was queued
+     */
+    boolean offer(BlockInfo info, String concernStack) {
+        long writeTime = System.currentTimeMillis();
+        int depth = mDepth.incrementAndGet();
+        if (depth > mCapacity) {
+            switch (mPolicy) {
+                case DROP_NEWEST:
+                    mDepth.decrementAndGet();
+                    mDropped.incrementAndGet();
+                    return false;
+                case AGGREGATE:
+                    mDepth.decrementAndGet();
+                    aggregate(concernStack, info.timeCost);
+                    mAggregated.incrementAndGet();
+                    return false;
+                default:
+                    // The drain may have taken it meanwhile, the queue then has room anyway.
+                    if (mQueue.poll() != null) {
+                        depth = mDepth.decrementAndGet();
+                        mDropped.incrementAndGet();
+                    }
+                    break;
+            }
+        }
+        mQueue.offer(new Entry(info, writeTime));
+        mQueued.incrementAndGet();
+        updateMax(mMaxDepth, depth);
+        if (mHandler != null && mDrainPending.compareAndSet(false, true)) {
+            mHandler.postDelayed(mDrain, LINGER_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * Take counts of blocks aggregated since the last call, to attach them to a block about to be
+     * offered.
+     *
+     * @return one line per concern stack, null if there are none or if the queue is full, so the
+     * block would not be queued either
+     */
+    String takeOverflow() {
+        if (mDepth.get() >= mCapacity) {
+            return null;
+        }
+        synchronized (mAggregates) {
+            if (mAggregates.isEmpty()) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, long[]> entry : mAggregates.entrySet()) {
+                long[] counts = entry.getValue();
+                if (sb.length() > 0) {
+                    sb.append(BlockInfo.SEPARATOR);
+                }
+                sb.append(String.format(Locale.US, "%d blocks, %dms total, %dms max: %s",
+                        counts[0], counts[1], counts[2], entry.getKey()));
+            }
+            mAggregates.clear();
+            return sb.toString();
+        }
+    }
+
+    WriteQueueSnapshot snapshot() {
+        return new WriteQueueSnapshot(mCapacity, Math.max(0, mDepth.get()), mMaxDepth.get(),
+                mQueued.get(), mWritten.get(), mFailed.get(), mBatches.get(),
+                mMaxBatchSize.get(), mDropped.get(), mAggregated.get());
+    }
+
+    /**
+     * Write every queued block as one batch, on the writer thread.
+     */
+    void drain() {
+        // Blocks offered from now on schedule another drain.
+        mDrainPending.set(false);
+        List<BlockInfo> batch = mBatch;
+        for (Entry entry = mQueue.poll(); entry != null; entry = mQueue.poll()) {
+            mDepth.decrementAndGet();
+            if (batch.size() == mWriteTimes.length) {
+                mWriteTimes = Arrays.copyOf(mWriteTimes, mWriteTimes.length * 2);
+            }
+            mWriteTimes[batch.size()] = entry.mWriteTime;
+            batch.add(entry.mInfo);
+        }
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            (mStore != null ? mStore : BlockStore.get()).append(batch, mWriteTimes);
+            mWritten.addAndGet(size);
+        } catch (Throwable t) {
+            mFailed.addAndGet(size);
+            Log.e(TAG, "drain: ", t);
+        }
+        SelfStats.BLOCK_WRITE.record(System.nanoTime() - start);
+        mBatches.incrementAndGet();
+        updateMax(mMaxBatchSize, size);
+        batch.clear();
+    }
+
+    private void aggregate(String concernStack, long timeCost) {
+        synchronized (mAggregates) {
+            long[] counts = mAggregates.get(concernStack);
+            if (counts == null) {
+                if (mAggregates.size() >= MAX_AGGREGATE_COUNT) {
+                    concernStack = OTHER_AGGREGATE;
+                    counts = mAggregates.get(concernStack);
+                }
+                if (counts == null) {
+                    counts = new long[3];
+                    mAggregates.put(concernStack, counts);
+                }
+            }
+            counts[0]++;
+            counts[1] += timeCost;
+            counts[2] = Math.max(counts[2], timeCost);
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        for (int current = max.get(); value > current; current = max.get()) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final BlockInfo mInfo;
+        final long mWriteTime;
+
+        Entry(BlockInfo info, long writeTime) {
+            mInfo = info;
+            mWriteTime = writeTime;
+        }
+    }
+}
@@ -15,34 +15,48 @@
  */
 package com.nf.blockcanary;
 
-import android.util.Log;
-
-
 import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.CpuSample;
+import com.nf.blockcanary.internal.SelfStats;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Dumps cpu usage.
+ * <p>
+ * Samples are kept as deltas in a preallocated ring, read without locking and only formatted when
+ * a block is written.
+ * </p>
  */
 public class CpuSampler extends AbstractSampler {
 
-    private static final String TAG = "CpuSampler";
-    private static final int BUFFER_SIZE = 1000;
+    private static final int CPU_STAT_BUFFER_SIZE = 256;
+    private static final int PID_STAT_BUFFER_SIZE = 512;
 
     /**
      * TODO: Explain how we define cpu busy in README
      */
     private final int BUSY_TIME;
-    private static final int MAX_ENTRY_COUNT = 10;
-
-    private final LinkedHashMap<Long, String> mCpuInfoEntries = new LinkedHashMap<>();
-    private int mPid = 0;
+    private static final int MAX_ENTRY_COUNT = 32;
+
+    private static final int FIELD_TOTAL = 0;
+    private static final int FIELD_IDLE = 1;
+    private static final int FIELD_APP = 2;
+    private static final int FIELD_USER = 3;
+    private static final int FIELD_SYSTEM = 4;
+    private static final int FIELD_IOWAIT = 5;
+    private static final int FIELD_COUNT = 6;
+
+    private final SampleRing mRing = new SampleRing(MAX_ENTRY_COUNT);
+    private final AtomicLongArray mSamples = new AtomicLongArray(MAX_ENTRY_COUNT * FIELD_COUNT);
+
+    // Only touched on timer thread.
+    private final ProcFile mCpuStat = new ProcFile("/proc/stat", CPU_STAT_BUFFER_SIZE);
+    private ProcFile mPidStat;
+    private final long[] mCpuValues = new long[ProcParser.CPU_VALUE_COUNT];
+    private final long[] mPidValues = new long[ProcParser.STAT_CSTIME + 1];
     private long mUserLast = 0;
     private long mSystemLast = 0;
     private long mIdleLast = 0;
@@ -56,8 +70,8 @@ public class CpuSampler extends AbstractSampler {
     }
 
     @Override
-    public void start() {
-        super.start();
+    public void start(long delayMillis) {
+        super.start(delayMillis);
         reset();
     }
 
@@ -67,77 +81,98 @@ public class CpuSampler extends AbstractSampler {
      * @return string show cpu rate information
      */
     public String getCpuRateInfo() {
+        return format(getCpuSamples(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    /**
+     * @return one line per sample, as written to block logs
+     */
+    public static String format(List<CpuSample> samples) {
         StringBuilder sb = new StringBuilder();
-        synchronized (mCpuInfoEntries) {
-            for (Map.Entry<Long, String> entry : mCpuInfoEntries.entrySet()) {
-                long time = entry.getKey();
-                sb.append(BlockInfo.TIME_FORMATTER.format(time))
-                        .append(' ')
-                        .append(entry.getValue())
-                        .append(BlockInfo.SEPARATOR);
-            }
+        for (CpuSample sample : samples) {
+            BlockInfo.TIME_FORMATTER.format(sample.getTime(), sb)
+                    .append(' ')
+                    .append(sample)
+                    .append(BlockInfo.SEPARATOR);
         }
         return sb.toString();
     }
 
+    /**
+     * @return samples covering part of given window, oldest first
+     */
+    public List<CpuSample> getCpuSamples(long startTime, long endTime) {
+        // A sample holds usage of the interval before it.
+        long to = endTime > Long.MAX_VALUE - mSampleInterval
+                ? Long.MAX_VALUE : endTime + mSampleInterval;
+        long count = mRing.count();
+        long first = mRing.firstAfter(startTime, mRing.oldest(count), count);
+        List<CpuSample> samples = new ArrayList<>((int) (count - first));
+        for (long i = first; i < count; i++) {
+            long time = mRing.timeAt(i);
+            if (time > to) {
+                break;
+            }
+            int base = mRing.slotOf(i) * FIELD_COUNT;
+            samples.add(new CpuSample(time, mSamples.get(base + FIELD_TOTAL),
+                    mSamples.get(base + FIELD_IDLE), mSamples.get(base + FIELD_APP),
+                    mSamples.get(base + FIELD_USER), mSamples.get(base + FIELD_SYSTEM),
+                    mSamples.get(base + FIELD_IOWAIT)));
+        }
+        // Skip samples the sampler overwrote while they were copied.
+        int intact = (int) Math.max(0, Math.min(samples.size(), mRing.oldestIntact() - first));
+        return intact == 0 ? samples : new ArrayList<>(samples.subList(intact, samples.size()));
+    }
+
+    /**
+     * @return usage summed over samples covering given window, e.g. average app cpu with
+     * {@link CpuSample#getAppPercent()}
+     */
+    public CpuSample getCpuUsage(long startTime, long endTime) {
+        return CpuSample.sum(getCpuSamples(startTime, endTime));
+    }
+
     public boolean isCpuBusy(long start, long end) {
         if (end - start > mSampleInterval) {
             long s = start - mSampleInterval;
             long e = start + mSampleInterval;
             long last = 0;
-            synchronized (mCpuInfoEntries) {
-                for (Map.Entry<Long, String> entry : mCpuInfoEntries.entrySet()) {
-                    long time = entry.getKey();
-                    if (s < time && time < e) {
-                        if (last != 0 && time - last > BUSY_TIME) {
-                            return true;
-                        }
-                        last = time;
-                    }
+            long count = mRing.count();
+            for (long i = mRing.firstAfter(s, mRing.oldest(count), count); i < count; i++) {
+                long time = mRing.timeAt(i);
+                if (time >= e) {
+                    break;
                 }
+                if (last != 0 && time - last > BUSY_TIME) {
+                    return true;
+                }
+                last = time;
             }
         }
         return false;
     }
 
     @Override
-    protected void doSample() {
-        BufferedReader cpuReader = null;
-        BufferedReader pidReader = null;
-
-        try {
-            cpuReader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream("/proc/stat")), BUFFER_SIZE);
-            String cpuRate = cpuReader.readLine();
-            if (cpuRate == null) {
-                cpuRate = "";
-            }
-
-            if (mPid == 0) {
-                mPid = android.os.Process.myPid();
-            }
-            pidReader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream("/proc/" + mPid + "/stat")), BUFFER_SIZE);
-            String pidCpuRate = pidReader.readLine();
-            if (pidCpuRate == null) {
-                pidCpuRate = "";
-            }
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        blockInfo.setCpuBusyFlag(isCpuBusy(startTime, endTime))
+                .setCpuSamples(getCpuSamples(startTime, endTime));
+    }
 
-            parse(cpuRate, pidCpuRate);
-        } catch (Throwable throwable) {
-            Log.e(TAG, "doSample: ", throwable);
-        } finally {
-            try {
-                if (cpuReader != null) {
-                    cpuReader.close();
-                }
-                if (pidReader != null) {
-                    pidReader.close();
-                }
-            } catch (IOException exception) {
-                Log.e(TAG, "doSample: ", exception);
-            }
+    @Override
+    protected void doSample() {
+        if (mPidStat == null) {
+            mPidStat = new ProcFile("/proc/" + android.os.Process.myPid() + "/stat",
+                    PID_STAT_BUFFER_SIZE);
+        }
+        long readStart = System.nanoTime();
+        int cpuLength = mCpuStat.read();
+        int pidLength = mPidStat.read();
+        long parseStart = System.nanoTime();
+        SelfStats.CPU_READ.record(parseStart - readStart);
+        if (cpuLength > 0 && pidLength > 0) {
+            parse(cpuLength, pidLength);
         }
+        SelfStats.CPU_PARSE.record(System.nanoTime() - parseStart);
     }
 
     private void reset() {
@@ -149,61 +184,36 @@ public class CpuSampler extends AbstractSampler {
         mAppCpuTimeLast = 0;
     }
 
-    private void parse(String cpuRate, String pidCpuRate) {
-        String[] cpuInfoArray = cpuRate.split(" ");
-        if (cpuInfoArray.length < 9) {
+    private void parse(int cpuLength, int pidLength) {
+        long[] cpu = mCpuValues;
+        if (ProcParser.parseCpuTotals(mCpuStat.buffer(), cpuLength, cpu)
+                <= ProcParser.CPU_SOFTIRQ) {
             return;
         }
-
-        long user = Long.parseLong(cpuInfoArray[2]);
-        long nice = Long.parseLong(cpuInfoArray[3]);
-        long system = Long.parseLong(cpuInfoArray[4]);
-        long idle = Long.parseLong(cpuInfoArray[5]);
-        long ioWait = Long.parseLong(cpuInfoArray[6]);
-        long total = user + nice + system + idle + ioWait
-                + Long.parseLong(cpuInfoArray[7])
-                + Long.parseLong(cpuInfoArray[8]);
-
-        String[] pidCpuInfoList = pidCpuRate.split(" ");
-        if (pidCpuInfoList.length < 17) {
+        long user = cpu[ProcParser.CPU_USER];
+        long system = cpu[ProcParser.CPU_SYSTEM];
+        long idle = cpu[ProcParser.CPU_IDLE];
+        long ioWait = cpu[ProcParser.CPU_IOWAIT];
+        long total = user + cpu[ProcParser.CPU_NICE] + system + idle + ioWait
+                + cpu[ProcParser.CPU_IRQ] + cpu[ProcParser.CPU_SOFTIRQ];
+
+        long[] stat = mPidValues;
+        if (ProcParser.parseStat(mPidStat.buffer(), pidLength, stat)
+                <= ProcParser.STAT_CSTIME) {
             return;
         }
-
-        long appCpuTime = Long.parseLong(pidCpuInfoList[13])
-                + Long.parseLong(pidCpuInfoList[14])
-                + Long.parseLong(pidCpuInfoList[15])
-                + Long.parseLong(pidCpuInfoList[16]);
+        long appCpuTime = stat[ProcParser.STAT_UTIME] + stat[ProcParser.STAT_STIME]
+                + stat[ProcParser.STAT_CUTIME] + stat[ProcParser.STAT_CSTIME];
 
         if (mTotalLast != 0) {
-            StringBuilder stringBuilder = new StringBuilder();
-            long idleTime = idle - mIdleLast;
-            long totalTime = total - mTotalLast;
-
-            stringBuilder
-                    .append("cpu:")
-                    .append((totalTime - idleTime) * 100L / totalTime)
-                    .append("% ")
-                    .append("app:")
-                    .append((appCpuTime - mAppCpuTimeLast) * 100L / totalTime)
-                    .append("% ")
-                    .append("[")
-                    .append("user:").append((user - mUserLast) * 100L / totalTime)
-                    .append("% ")
-                    .append("system:").append((system - mSystemLast) * 100L / totalTime)
-                    .append("% ")
-                    .append("ioWait:").append((ioWait - mIoWaitLast) * 100L / totalTime)
-                    .append("% ]");
-
-            synchronized (mCpuInfoEntries) {
-                mCpuInfoEntries.put(System.currentTimeMillis(), stringBuilder.toString());
-                if (mCpuInfoEntries.size() > MAX_ENTRY_COUNT) {
-                    for (Map.Entry<Long, String> entry : mCpuInfoEntries.entrySet()) {
-                        Long key = entry.getKey();
-                        mCpuInfoEntries.remove(key);
-                        break;
-                    }
-                }
-            }
+            int base = mRing.beginWrite(getSampleTime()) * FIELD_COUNT;
+            mSamples.lazySet(base + FIELD_TOTAL, total - mTotalLast);
+            mSamples.lazySet(base + FIELD_IDLE, idle - mIdleLast);
+            mSamples.lazySet(base + FIELD_APP, appCpuTime - mAppCpuTimeLast);
+            mSamples.lazySet(base + FIELD_USER, user - mUserLast);
+            mSamples.lazySet(base + FIELD_SYSTEM, system - mSystemLast);
+            mSamples.lazySet(base + FIELD_IOWAIT, ioWait - mIoWaitLast);
+            mRing.endWrite();
         }
         mUserLast = user;
         mSystemLast = system;
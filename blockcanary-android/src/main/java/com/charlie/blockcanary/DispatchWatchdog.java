@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.os.Debug;
+import android.os.Handler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Long-lived ticker on the timer thread which arms samplers only for dispatches that outlive
+ * the sample delay, so looper threads do nothing but bump {@link LooperMonitor}'s dispatch
+ * sequence per message. One watchdog serves every monitored looper.
+ * <p>
+ * While no looper is dispatching it parks instead of ticking, and the next dispatch to begin
+ * wakes it.
+ * </p>
+ */
+public final class DispatchWatchdog implements Runnable {
+
+    /**
+     * Returned by {@link #check(LooperMonitor)} when a monitor needs no tick until its next
+     * dispatch begins.
+     */
+    private static final long PARK = Long.MAX_VALUE;
+
+    private final List<LooperMonitor> mMonitors;
+
+    private volatile boolean mRunning = false;
+    private final AtomicBoolean mParked = new AtomicBoolean();
+
+    // Only touched on timer thread.
+    private int mArmedCount = 0;
+
+    /**
+     * @param monitors live list of monitors, must be safe to iterate while being modified
+     */
+    DispatchWatchdog(List<LooperMonitor> monitors) {
+        mMonitors = monitors;
+    }
+
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mParked.set(false);
+        Handler handler = HandlerThreadFactory.getTimerThreadHandler();
+        handler.removeCallbacks(this);
+        handler.post(this);
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mParked.set(false);
+        HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(this);
+        HandlerThreadFactory.getTimerThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                for (LooperMonitor monitor : mMonitors) {
+                    disarm(monitor);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop samplers of a monitor which is no longer watched.
+     */
+    void release(final LooperMonitor monitor) {
+        HandlerThreadFactory.getTimerThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                disarm(monitor);
+            }
+        });
+    }
+
+    /**
+     * Called on a looper thread once a dispatch began, after its sequence was bumped. Costs a
+     * volatile read unless the watchdog is parked.
+     */
+    void wake() {
+        if (mParked.get() && mParked.compareAndSet(true, false)) {
+            HandlerThreadFactory.getTimerThreadHandler().post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!mRunning) {
+            return;
+        }
+        boolean debuggerConnected = Debug.isDebuggerConnected();
+        long nextTick = PARK;
+        for (LooperMonitor monitor : mMonitors) {
+            monitor.setDebuggerConnected(debuggerConnected);
+            nextTick = Math.min(nextTick, check(monitor));
+        }
+        if (nextTick == PARK) {
+            mParked.set(true);
+            // A dispatch which began before the flag was set did not wake us, tick for it.
+            if (!isDispatching() || !mParked.compareAndSet(true, false)) {
+                return;
+            }
+            nextTick = 0;
+        }
+        HandlerThreadFactory.getTimerThreadHandler().postDelayed(this, Math.max(nextTick, 1));
+    }
+
+    private boolean isDispatching() {
+        for (LooperMonitor monitor : mMonitors) {
+            if (!monitor.isHistogramOnly() && (monitor.getDispatchSeq() & 1) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return delay until this monitor needs the next tick, {@link #PARK} if it is idle
+     */
+    private long check(LooperMonitor monitor) {
+        // A dispatch is noticed at most one tick after it begins, which is still before its
+        // sample delay ends, after that the next tick is scheduled right at the delay.
+        long sampleDelay = monitor.getSampleDelay();
+        long nextTick = sampleDelay;
+        long seq = monitor.getDispatchSeq();
+        long start = monitor.getDispatchStart();
+
+        long armedSeq = monitor.getArmedSeq();
+        if (armedSeq != LooperMonitor.NOT_ARMED
+                && (armedSeq != seq || monitor.isHistogramOnly())) {
+            disarm(monitor);
+        }
+        if (monitor.isHistogramOnly()) {
+            return PARK;
+        }
+
+        // Re-read the sequence, start time is only valid if no dispatch boundary passed.
+        if ((seq & 1) != 0 && seq == monitor.getDispatchSeq()) {
+            long now = System.currentTimeMillis();
+            long age = now - start;
+            if (age >= sampleDelay) {
+                if (monitor.getArmedSeq() != seq) {
+                    monitor.markSlow(seq, now);
+                    arm(monitor, seq, start);
+                }
+            } else {
+                nextTick = sampleDelay - age;
+            }
+        } else if ((seq & 1) == 0 && monitor.getArmedSeq() == LooperMonitor.NOT_ARMED) {
+            return PARK;
+        }
+        return nextTick;
+    }
+
+    private void arm(LooperMonitor monitor, long seq, long dispatchStart) {
+        monitor.setArmedSeq(seq);
+        monitor.getStackSampler().start(0, dispatchStart);
+        if (mArmedCount++ == 0) {
+            BlockCanaryInternals.getInstance().startSharedSamplers(0);
+        }
+    }
+
+    private void disarm(LooperMonitor monitor) {
+        if (monitor.getArmedSeq() == LooperMonitor.NOT_ARMED) {
+            return;
+        }
+        monitor.setArmedSeq(LooperMonitor.NOT_ARMED);
+        monitor.getStackSampler().stop();
+        if (--mArmedCount == 0) {
+            BlockCanaryInternals.getInstance().stopSharedSamplers();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+/**
+ * Interns stack frames to int ids, so samples can be kept as {@code int[]} and frames are only
+ * turned into text when a block is written.
+ * <p>
+ * {@link #intern(StackTraceElement)} must be called from one writer thread. A sample is published
+ * together with the array {@link #frames()} returned once its frames were interned, readers resolve
+ * its ids against that array from any thread.
+ * </p>
+ * <p>
+ * Once the table is about to fill it starts over empty, see {@link #ensureCapacity(int)}. Arrays of
+ * earlier tables are never written again and stay reachable through the samples holding them.
+ * </p>
+ */
+final class FrameTable {
+
+    static final int OVERFLOW = -1;
+    private static final String OVERFLOW_TEXT = "<frame table full>";
+    private static final int MAX_FRAMES = 1 << 16;
+
+    private volatile StackTraceElement[] mFrames = new StackTraceElement[256];
+
+    // Writer thread only, open addressing table of id + 1, 0 for empty.
+    private int[] mIndex = new int[512];
+    private int mSize = 0;
+
+    /**
+     * @return id of given frame, {@link #OVERFLOW} if the table is full
+     */
+    int intern(StackTraceElement frame) {
+        StackTraceElement[] frames = mFrames;
+        int mask = mIndex.length - 1;
+        int i = frame.hashCode() & mask;
+        int id;
+        while ((id = mIndex[i]) != 0) {
+            if (frames[id - 1].equals(frame)) {
+                return id - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (mSize == MAX_FRAMES) {
+            return OVERFLOW;
+        }
+
+        id = mSize;
+        if (id == frames.length) {
+            StackTraceElement[] grown = new StackTraceElement[frames.length * 2];
+            System.arraycopy(frames, 0, grown, 0, frames.length);
+            grown[id] = frame;
+            mFrames = grown;
+        } else {
+            frames[id] = frame;
+        }
+        mIndex[i] = id + 1;
+        mSize++;
+        if (mSize * 2 > mIndex.length) {
+            rehash(mIndex.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * @return frames by id of ids handed out so far, also valid for them once the table grew or
+     * started over
+     */
+    StackTraceElement[] frames() {
+        return mFrames;
+    }
+
+    /**
+     * Start over with an empty table if fewer than {@code count} ids are left, so a sample of that
+     * depth never overflows.
+     *
+     * @return whether the table started over, ids handed out before must not be compared to later
+     * ones
+     */
+    boolean ensureCapacity(int count) {
+        if (mSize + count <= MAX_FRAMES) {
+            return false;
+        }
+        mFrames = new StackTraceElement[256];
+        mIndex = new int[512];
+        mSize = 0;
+        return true;
+    }
+
+    static String textOf(StackTraceElement[] frames, int id) {
+        return id == OVERFLOW ? OVERFLOW_TEXT : frames[id].toString();
+    }
+
+    private void rehash(int capacity) {
+        StackTraceElement[] frames = mFrames;
+        int[] index = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < mSize; id++) {
+            int i = frames[id].hashCode() & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = id + 1;
+        }
+        mIndex = index;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.os.Build;
+import android.os.Debug;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.MemorySummary;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dumps ART garbage collection counters and heap usage.
+ * <p>
+ * Counters only grow when a collection completes, so one still running when sampling starts,
+ * the kind which stalls a dispatch, is counted in the block it overlapped.
+ * </p>
+ */
+public class GcSampler extends AbstractSampler {
+
+    private static final int MAX_ENTRY_COUNT = 32;
+    private static final long BYTES_PER_KB = 1024;
+
+    private static final String STAT_GC_COUNT = "art.gc.gc-count";
+    private static final String STAT_GC_TIME = "art.gc.gc-time";
+    private static final String STAT_BLOCKING_GC_COUNT = "art.gc.blocking-gc-count";
+    private static final String STAT_BLOCKING_GC_TIME = "art.gc.blocking-gc-time";
+
+    private static final int FIELD_GC_COUNT = 0;
+    private static final int FIELD_GC_TIME = 1;
+    private static final int FIELD_BLOCKING_GC_COUNT = 2;
+    private static final int FIELD_BLOCKING_GC_TIME = 3;
+    private static final int FIELD_HEAP_USED = 4;
+    private static final int FIELD_HEAP_MAX = 5;
+    private static final int FIELD_NATIVE_HEAP = 6;
+    private static final int FIELD_COUNT = 7;
+
+    private final SampleRing mRing = new SampleRing(MAX_ENTRY_COUNT);
+    private final AtomicLongArray mSamples = new AtomicLongArray(MAX_ENTRY_COUNT * FIELD_COUNT);
+
+    // Only touched on timer thread.
+    private final long[] mValues = new long[FIELD_COUNT];
+
+    public GcSampler(long sampleInterval) {
+        super(sampleInterval);
+    }
+
+    /**
+     * GC counters are taken from a sample at most one interval before the window start, else from
+     * the first one in it, up to a sample at most one interval after its end, else to now or the
+     * last sample in it.
+     *
+     * @return collections and heap usage overlapping given window, {@link MemorySummary#EMPTY}
+     * if nothing was sampled
+     */
+    public MemorySummary getSummary(long startTime, long endTime) {
+        long count = mRing.count();
+        long oldest = mRing.oldest(count);
+        long first = mRing.firstAfter(startTime, oldest, count);
+        if (first > oldest && startTime - mRing.timeAt(first - 1) <= mSampleInterval) {
+            first--;
+        }
+        long after = mRing.firstAfter(endTime, first, count);
+        if (after == first) {
+            return MemorySummary.EMPTY;
+        }
+
+        long[] begin = new long[FIELD_COUNT];
+        long[] end = new long[FIELD_COUNT];
+        long beginTime = mRing.timeAt(first);
+        copy(first, begin);
+        long now = System.currentTimeMillis();
+        long last;
+        long endSampleTime;
+        if (after < count && mRing.timeAt(after) - endTime <= mSampleInterval) {
+            last = after;
+            endSampleTime = mRing.timeAt(after);
+            copy(after, end);
+        } else if (now - endTime <= mSampleInterval) {
+            last = after - 1;
+            endSampleTime = now;
+            read(end);
+        } else {
+            last = after - 1;
+            endSampleTime = mRing.timeAt(last);
+            copy(last, end);
+        }
+        long heapUsed = end[FIELD_HEAP_USED];
+        long nativeHeap = end[FIELD_NATIVE_HEAP];
+        for (long i = first; i <= last; i++) {
+            int base = mRing.slotOf(i) * FIELD_COUNT;
+            heapUsed = Math.max(heapUsed, mSamples.get(base + FIELD_HEAP_USED));
+            nativeHeap = Math.max(nativeHeap, mSamples.get(base + FIELD_NATIVE_HEAP));
+        }
+        // Give up if the sampler overwrote the baseline while it was copied.
+        if (mRing.oldestIntact() > first) {
+            return MemorySummary.EMPTY;
+        }
+
+        long span = Math.min(endTime, endSampleTime) - Math.max(startTime, beginTime);
+        return new MemorySummary(Math.max(0, span),
+                delta(begin, end, FIELD_GC_COUNT),
+                delta(begin, end, FIELD_GC_TIME),
+                delta(begin, end, FIELD_BLOCKING_GC_COUNT),
+                delta(begin, end, FIELD_BLOCKING_GC_TIME),
+                heapUsed, end[FIELD_HEAP_MAX], nativeHeap);
+    }
+
+    @Override
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        blockInfo.setMemory(getSummary(startTime, endTime));
+    }
+
+    @Override
+    protected void doSample() {
+        long[] values = mValues;
+        read(values);
+        int base = mRing.beginWrite(getSampleTime()) * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            mSamples.lazySet(base + field, values[field]);
+        }
+        mRing.endWrite();
+    }
+
+    private void copy(long index, long[] values) {
+        int base = mRing.slotOf(index) * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            values[field] = mSamples.get(base + field);
+        }
+    }
+
+    private static long delta(long[] begin, long[] end, int field) {
+        return begin[field] < 0 || end[field] < 0 ? -1 : end[field] - begin[field];
+    }
+
+    private static void read(long[] values) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            values[FIELD_GC_COUNT] = runtimeStat(STAT_GC_COUNT);
+            values[FIELD_GC_TIME] = runtimeStat(STAT_GC_TIME);
+            values[FIELD_BLOCKING_GC_COUNT] = runtimeStat(STAT_BLOCKING_GC_COUNT);
+            values[FIELD_BLOCKING_GC_TIME] = runtimeStat(STAT_BLOCKING_GC_TIME);
+        } else {
+            values[FIELD_GC_COUNT] = -1;
+            values[FIELD_GC_TIME] = -1;
+            values[FIELD_BLOCKING_GC_COUNT] = -1;
+            values[FIELD_BLOCKING_GC_TIME] = -1;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        values[FIELD_HEAP_USED] = (runtime.totalMemory() - runtime.freeMemory()) / BYTES_PER_KB;
+        values[FIELD_HEAP_MAX] = runtime.maxMemory() / BYTES_PER_KB;
+        values[FIELD_NATIVE_HEAP] = Debug.getNativeHeapAllocatedSize() / BYTES_PER_KB;
+    }
+
+    /**
+     * @return counter of given name, -1 if the runtime does not keep it
+     */
+    private static long runtimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -22,6 +22,8 @@ public final class HandlerThreadFactory {
 
     private static HandlerThreadWrapper sLoopThread = new HandlerThreadWrapper("loop");
     private static HandlerThreadWrapper sWriteLogThread = new HandlerThreadWrapper("writer");
+    private static HandlerThreadWrapper sInterceptorThread =
+            new HandlerThreadWrapper("interceptor");
 
     private HandlerThreadFactory() {
         throw new InstantiationError("Must not instantiate this class");
@@ -35,6 +37,13 @@ public final class HandlerThreadFactory {
         return sWriteLogThread.getHandler();
     }
 
+    /**
+     * Handler of the thread {@link BlockInterceptor}s run on, so they never hold up writing.
+     */
+    public static Handler getInterceptorThreadHandler() {
+        return sInterceptorThread.getHandler();
+    }
+
     private static class HandlerThreadWrapper {
         private Handler handler = null;
 
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.IoSummary;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dumps storage I/O counters of the app from {@code /proc/self/io}, and of watched looper threads
+ * from {@code /proc/self/task/<tid>/io}.
+ * <p>
+ * Together with the iowait of {@link CpuSampler} this tells blocks stalled on a slow disk from
+ * cpu bound ones, and whether the looper thread itself did the I/O.
+ * </p>
+ */
+public class IoSampler extends AbstractSampler {
+
+    private static final String PROCESS_IO = "/proc/self/io";
+    private static final int IO_BUFFER_SIZE = 256;
+    private static final int MAX_ENTRY_COUNT = 32;
+    private static final int MAX_THREADS = 8;
+
+    private static final String KEY_RCHAR = "rchar";
+    private static final String KEY_WCHAR = "wchar";
+    private static final String KEY_SYSCR = "syscr";
+    private static final String KEY_SYSCW = "syscw";
+    private static final String KEY_READ_BYTES = "read_bytes";
+    private static final String KEY_WRITE_BYTES = "write_bytes";
+
+    private static final int FIELD_READ_BYTES = 0;
+    private static final int FIELD_WRITE_BYTES = 1;
+    private static final int FIELD_SYSCR = 2;
+    private static final int FIELD_SYSCW = 3;
+    private static final int FIELD_RCHAR = 4;
+    private static final int FIELD_WCHAR = 5;
+    private static final int PROCESS_FIELD_COUNT = 6;
+    // Followed by the tid and the first THREAD_FIELD_COUNT fields of each watched thread.
+    private static final int FIELD_THREADS = PROCESS_FIELD_COUNT;
+    private static final int THREAD_FIELD_COUNT = 4;
+    private static final int THREAD_SLOT_SIZE = 1 + THREAD_FIELD_COUNT;
+    private static final int FIELD_COUNT = FIELD_THREADS + MAX_THREADS * THREAD_SLOT_SIZE;
+
+    private final SampleRing mRing = new SampleRing(MAX_ENTRY_COUNT);
+    private final AtomicLongArray mSamples = new AtomicLongArray(MAX_ENTRY_COUNT * FIELD_COUNT);
+
+    private volatile int[] mTids = new int[0];
+
+    // Only touched on timer thread.
+    private final ProcFile mProcessIo = new ProcFile(PROCESS_IO, IO_BUFFER_SIZE);
+    private final ProcFile[] mThreadIo = new ProcFile[MAX_THREADS];
+    private final int[] mThreadIoTids = new int[MAX_THREADS];
+    private final long[] mReadings = new long[FIELD_COUNT];
+
+    public IoSampler(long sampleInterval) {
+        super(sampleInterval);
+    }
+
+    /**
+     * Also sample I/O of given thread, from the next sample on. Up to {@link #MAX_THREADS}
+     * threads are kept.
+     */
+    public synchronized void addThread(int tid) {
+        int[] tids = mTids;
+        if (tid <= 0 || tids.length >= MAX_THREADS || indexOf(tids, tid) >= 0) {
+            return;
+        }
+        int[] newTids = Arrays.copyOf(tids, tids.length + 1);
+        newTids[tids.length] = tid;
+        mTids = newTids;
+    }
+
+    public synchronized void removeThread(int tid) {
+        int[] tids = mTids;
+        int index = indexOf(tids, tid);
+        if (index < 0) {
+            return;
+        }
+        int[] newTids = new int[tids.length - 1];
+        System.arraycopy(tids, 0, newTids, 0, index);
+        System.arraycopy(tids, index + 1, newTids, index, newTids.length - index);
+        mTids = newTids;
+    }
+
+    /**
+     * Counters are taken from a sample at most one interval before the window start, else from
+     * the first one in it, up to a sample at most one interval after its end, else the last one
+     * in it.
+     *
+     * @param tid looper thread of the block, its counters are -1 if it is not sampled
+     * @return I/O overlapping given window, {@link IoSummary#EMPTY} if nothing was sampled
+     */
+    public IoSummary getSummary(long startTime, long endTime, int tid) {
+        long count = mRing.count();
+        long oldest = mRing.oldest(count);
+        long first = mRing.firstAfter(startTime, oldest, count);
+        if (first > oldest && startTime - mRing.timeAt(first - 1) <= mSampleInterval) {
+            first--;
+        }
+        long after = mRing.firstAfter(endTime, first, count);
+        if (after == first) {
+            return IoSummary.EMPTY;
+        }
+        long last = after < count && mRing.timeAt(after) - endTime <= mSampleInterval
+                ? after : after - 1;
+
+        long[] begin = new long[FIELD_COUNT];
+        long[] end = new long[FIELD_COUNT];
+        long beginTime = mRing.timeAt(first);
+        long endSampleTime = mRing.timeAt(last);
+        copy(first, begin);
+        copy(last, end);
+        // Give up if the sampler overwrote the baseline while it was copied.
+        if (mRing.oldestIntact() > first) {
+            return IoSummary.EMPTY;
+        }
+
+        int beginThread = threadFieldOf(begin, tid);
+        int endThread = threadFieldOf(end, tid);
+        long[] thread = new long[THREAD_FIELD_COUNT];
+        for (int field = 0; field < THREAD_FIELD_COUNT; field++) {
+            thread[field] = beginThread < 0 || endThread < 0 ? -1
+                    : delta(begin[beginThread + field], end[endThread + field]);
+        }
+        long span = Math.min(endTime, endSampleTime) - Math.max(startTime, beginTime);
+        return new IoSummary(Math.max(0, span),
+                delta(begin[FIELD_READ_BYTES], end[FIELD_READ_BYTES]),
+                delta(begin[FIELD_WRITE_BYTES], end[FIELD_WRITE_BYTES]),
+                delta(begin[FIELD_SYSCR], end[FIELD_SYSCR]),
+                delta(begin[FIELD_SYSCW], end[FIELD_SYSCW]),
+                delta(begin[FIELD_RCHAR], end[FIELD_RCHAR]),
+                delta(begin[FIELD_WCHAR], end[FIELD_WCHAR]),
+                thread[FIELD_READ_BYTES], thread[FIELD_WRITE_BYTES],
+                thread[FIELD_SYSCR], thread[FIELD_SYSCW]);
+    }
+
+    @Override
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        blockInfo.setIo(getSummary(startTime, endTime, blockInfo.looperThreadId));
+    }
+
+    @Override
+    protected void doSample() {
+        long[] readings = mReadings;
+        read(mProcessIo, readings, 0, PROCESS_FIELD_COUNT);
+
+        int[] tids = mTids;
+        updateThreadFiles(tids);
+        for (int i = 0; i < MAX_THREADS; i++) {
+            int base = FIELD_THREADS + i * THREAD_SLOT_SIZE;
+            if (i < tids.length) {
+                readings[base] = tids[i];
+                read(mThreadIo[i], readings, base + 1, THREAD_FIELD_COUNT);
+            } else {
+                readings[base] = 0;
+            }
+        }
+
+        int base = mRing.beginWrite(getSampleTime()) * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            mSamples.lazySet(base + field, readings[field]);
+        }
+        mRing.endWrite();
+    }
+
+    /**
+     * Keep the io file of the i-th watched thread in the i-th slot.
+     */
+    private void updateThreadFiles(int[] tids) {
+        for (int i = 0; i < MAX_THREADS; i++) {
+            int tid = i < tids.length ? tids[i] : 0;
+            if (mThreadIoTids[i] == tid) {
+                continue;
+            }
+            if (mThreadIo[i] != null) {
+                mThreadIo[i].close();
+                mThreadIo[i] = null;
+            }
+            if (tid > 0) {
+                mThreadIo[i] = new ProcFile("/proc/self/task/" + tid + "/io", IO_BUFFER_SIZE);
+            }
+            mThreadIoTids[i] = tid;
+        }
+    }
+
+    /**
+     * Read the first {@code count} of read_bytes, write_bytes, syscr, syscw, rchar and wchar.
+     */
+    private static void read(ProcFile file, long[] values, int offset, int count) {
+        int length = file.read();
+        byte[] buffer = file.buffer();
+        boolean readable = length > 0;
+        values[offset + FIELD_READ_BYTES] = readable
+                ? ProcParser.parseStatusValue(buffer, length, KEY_READ_BYTES) : -1;
+        values[offset + FIELD_WRITE_BYTES] = readable
+                ? ProcParser.parseStatusValue(buffer, length, KEY_WRITE_BYTES) : -1;
+        values[offset + FIELD_SYSCR] = readable
+                ? ProcParser.parseStatusValue(buffer, length, KEY_SYSCR) : -1;
+        values[offset + FIELD_SYSCW] = readable
+                ? ProcParser.parseStatusValue(buffer, length, KEY_SYSCW) : -1;
+        if (count > FIELD_RCHAR) {
+            values[offset + FIELD_RCHAR] = readable
+                    ? ProcParser.parseStatusValue(buffer, length, KEY_RCHAR) : -1;
+            values[offset + FIELD_WCHAR] = readable
+                    ? ProcParser.parseStatusValue(buffer, length, KEY_WCHAR) : -1;
+        }
+    }
+
+    private void copy(long index, long[] values) {
+        int base = mRing.slotOf(index) * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            values[field] = mSamples.get(base + field);
+        }
+    }
+
+    /**
+     * @return index of the first counter of given thread in a sample, -1 if not sampled
+     */
+    private static int threadFieldOf(long[] sample, int tid) {
+        for (int i = 0; i < MAX_THREADS; i++) {
+            int base = FIELD_THREADS + i * THREAD_SLOT_SIZE;
+            if (tid > 0 && sample[base] == tid) {
+                return base + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(int[] tids, int tid) {
+        for (int i = 0; i < tids.length; i++) {
+            if (tids[i] == tid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long delta(long begin, long end) {
+        return begin < 0 || end < 0 ? -1 : end - begin;
+    }
+}
@@ -19,26 +19,22 @@ import android.util.Log;
 
 
 import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.BlockRecordReader;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
+import java.io.Writer;
+import java.util.Collection;
 
 /**
- * Log writer which runs in standalone thread.
+ * Log writer which maintains the {@link BlockStore} on the writer thread, blocks are saved by
+ * {@link BlockWriteQueue}.
  */
 public class LogWriter {
 
     private static final String TAG = "LogWriter";
 
-    private static final Object SAVE_DELETE_LOCK = new Object();
-    private static final SimpleDateFormat FILE_NAME_FORMATTER
-            = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss.SSS", Locale.US);
-    private static final SimpleDateFormat TIME_FORMATTER
-            = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
     private static final long OBSOLETE_DURATION = 2 * 24 * 3600 * 1000L;
 
     private LogWriter() {
@@ -46,96 +42,83 @@ public class LogWriter {
     }
 
     /**
-     * Save log to file
-     *
-     * @param str block info string
-     * @return log file path
+     * Delete obsolete log files, which is by default 2 days, and compact segments with deleted
+     * blocks.
      */
-    public static String save(String str) {
-        String path;
-        synchronized (SAVE_DELETE_LOCK) {
-            path = save("looper", str);
-        }
-        return path;
+    public static void cleanObsolete() {
+        HandlerThreadFactory.getWriteLogThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                BlockStore store = BlockStore.get();
+                store.deleteOlderThan(System.currentTimeMillis() - OBSOLETE_DURATION);
+                store.compact();
+            }
+        });
     }
 
     /**
-     * Delete obsolete log files, which is by default 2 days.
+     * Delete blocks from the {@link BlockStore} on the writer thread.
+     *
+     * @param keys keys of blocks to delete
      */
-    public static void cleanObsolete() {
+    public static void delete(final Collection<String> keys) {
         HandlerThreadFactory.getWriteLogThreadHandler().post(new Runnable() {
             @Override
             public void run() {
-                long now = System.currentTimeMillis();
-                File[] f = BlockCanaryInternals.getLogFiles();
-                if (f != null && f.length > 0) {
-                    synchronized (SAVE_DELETE_LOCK) {
-                        for (File aF : f) {
-                            if (now - aF.lastModified() > OBSOLETE_DURATION) {
-                                aF.delete();
-                            }
-                        }
-                    }
+                try {
+                    BlockStore.get().delete(keys);
+                } catch (Throwable e) {
+                    Log.e(TAG, "delete: ", e);
                 }
             }
         });
     }
 
+    /**
+     * Delete all blocks from the {@link BlockStore} on the writer thread.
+     */
     public static void deleteAll() {
-        synchronized (SAVE_DELETE_LOCK) {
-            try {
-                File[] files = BlockCanaryInternals.getLogFiles();
-                if (files != null && files.length > 0) {
-                    for (File file : files) {
-                        file.delete();
-                    }
+        HandlerThreadFactory.getWriteLogThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BlockStore.get().deleteAll();
+                } catch (Throwable e) {
+                    Log.e(TAG, "deleteAll: ", e);
                 }
-            } catch (Throwable e) {
-                Log.e(TAG, "deleteAll: ", e);
             }
-        }
+        });
     }
 
-    private static String save(String logFileName, String str) {
-        String path = "";
-        BufferedWriter writer = null;
+    /**
+     * Render a block as a text file for sharing.
+     *
+     * @param blockInfo block read from the store, with text fields flushed
+     * @param writeTime wall time the block was saved at
+     * @param name      file name without extension
+     * @return text file, null if rendering failed
+     */
+    public static File renderText(BlockInfo blockInfo, long writeTime, String name) {
+        File text = new File(BlockCanaryInternals.getPath() + "/" + name + ".txt");
+        Writer writer = null;
         try {
-            File file = BlockCanaryInternals.detectedBlockDirectory();
-            long time = System.currentTimeMillis();
-            path = file.getAbsolutePath() + "/"
-                    + logFileName + "-"
-                    + FILE_NAME_FORMATTER.format(time) + ".log";
-
-            OutputStreamWriter out =
-                    new OutputStreamWriter(new FileOutputStream(path, true), "UTF-8");
-
-            writer = new BufferedWriter(out);
-
-            writer.write(BlockInfo.SEPARATOR);
-            writer.write("**********************");
-            writer.write(BlockInfo.SEPARATOR);
-            writer.write(TIME_FORMATTER.format(time) + "(write log time)");
-            writer.write(BlockInfo.SEPARATOR);
-            writer.write(BlockInfo.SEPARATOR);
-            writer.write(str);
-            writer.write(BlockInfo.SEPARATOR);
-
-            writer.flush();
+            writer = new OutputStreamWriter(new FileOutputStream(text), "UTF-8");
+            BlockRecordReader.render(blockInfo, writeTime, writer);
             writer.close();
             writer = null;
-
+            return text;
         } catch (Throwable t) {
-            Log.e(TAG, "save: ", t);
+            Log.e(TAG, "renderText: ", t);
+            return null;
         } finally {
             try {
                 if (writer != null) {
                     writer.close();
                 }
             } catch (Exception e) {
-                Log.e(TAG, "save: ", e);
+                Log.e(TAG, "renderText: ", e);
             }
         }
-        return path;
     }
 
     public static File generateTempZip(String filename) {
@@ -16,99 +16,412 @@
 package com.nf.blockcanary;
 
 import android.os.Debug;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Printer;
 
+import com.nf.blockcanary.internal.DispatchAttribution;
+import com.nf.blockcanary.internal.DispatchSource;
+import com.nf.blockcanary.internal.LatencyHistogram;
+import com.nf.blockcanary.internal.Probe;
+import com.nf.blockcanary.internal.SelfStats;
+import com.nf.blockcanary.internal.ThreadSched;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 class LooperMonitor implements Printer {
 
   private static final int DEFAULT_BLOCK_THRESHOLD_MILLIS = 3000;
+  static final long NOT_ARMED = -1;
+  /**
+   * Thread time passed to {@link BlockListener} when only part of the dispatch was measured.
+   */
+  static final long UNKNOWN_THREAD_TIME = -1;
 
+  private final Looper mLooper;
+  private final StackSampler mStackSampler;
   private long mBlockThresholdMillis = DEFAULT_BLOCK_THRESHOLD_MILLIS;
+  private final long mSampleDelay;
   private long mStartTimestamp = 0;
   private long mStartThreadTimestamp = 0;
+  private long mStartNanos = 0;
   private BlockListener mBlockListener = null;
   private boolean mPrintingStarted = false;
   private final boolean mStopWhenDebugging;
+  private final boolean mUseWatchdog;
+
+  /**
+   * Odd while a message is being dispatched, even otherwise. Written only by the looper thread,
+   * {@link #mStartTimestamp} is always written before the bump so readers can trust it.
+   */
+  private volatile long mDispatchSeq = 0;
+
+  /**
+   * Debugger state cached by the watchdog, so dispatches need no JNI call to read it.
+   */
+  private volatile boolean mDebuggerConnected = false;
+
+  /**
+   * Whether thread time is read on every dispatch begin, otherwise the watchdog reads schedstat
+   * once a dispatch is flagged slow and thread time of the whole dispatch is unknown.
+   */
+  private final boolean mThreadTimeAtBegin;
+  private volatile int mTid = 0;
+  private volatile long mSlowSeq = 0;
+  private volatile long mSlowTimestamp = 0;
+  // Only touched on timer thread.
+  private SchedStatReader mSchedStatReader;
+  // Written on timer thread before mSlowSeq, read on looper thread after it.
+  private final long[] mSlowSched = new long[SchedStatReader.VALUE_COUNT];
+  // Only touched on looper thread.
+  private SchedStatReader mEndSchedStatReader;
+  // Without watchdog, set while a dispatch of this looper keeps shared samplers running.
+  private final AtomicBoolean mHoldsSharedSamplers = new AtomicBoolean(false);
+  private final long[] mEndSched = new long[SchedStatReader.VALUE_COUNT];
+  private long mArmedSeq = NOT_ARMED;
+
+  private final LatencyHistogram mLatencyHistogram = new LatencyHistogram();
+  private final DispatchAttribution mAttribution = new DispatchAttribution();
+  private final Probe.Cell mPrintlnCell;
+  private volatile boolean mHistogramOnly = false;
+  private volatile boolean mAttributionEnabled = true;
+  // Set before the monitor is installed.
+  private DispatchWatchdog mWatchdog;
+  private DispatchSource mCurrentSource;
 
   public interface BlockListener {
-    void onBlockEvent(long realStartTime,
+    void onBlockEvent(LooperMonitor monitor,
+        long realStartTime,
         long realTimeEnd,
         long threadTimeStart,
-        long threadTimeEnd);
+        long threadTimeEnd,
+        DispatchSource source,
+        ThreadSched sched);
   }
 
-  public LooperMonitor(BlockListener blockListener, long blockThresholdMillis,
-      boolean stopWhenDebugging) {
+  /**
+   * @param looper               looper to monitor, its thread is sampled on blocks
+   * @param sampleIntervalMillis stack sample interval of this looper
+   * @param schedule             schedule of stack samples per dispatch, null to sample every
+   *                             {@code sampleIntervalMillis}
+   * @param useWatchdog          if true, samplers are not armed per message, a
+   *                             {@link DispatchWatchdog} reads {@link #getDispatchSeq()} instead.
+   */
+  public LooperMonitor(Looper looper, BlockListener blockListener, long blockThresholdMillis,
+      long sampleIntervalMillis, SampleSchedule schedule, boolean stopWhenDebugging,
+      boolean useWatchdog) {
     if (blockListener == null) {
       throw new IllegalArgumentException("blockListener should not be null.");
     }
+    mLooper = looper;
+    mPrintlnCell = SelfStats.PRINTLN.newCell(looper.getThread());
+    mStackSampler = new StackSampler(looper.getThread(), StackSampler.DEFAULT_MAX_ENTRY_COUNT,
+        sampleIntervalMillis, schedule);
     mBlockListener = blockListener;
     mBlockThresholdMillis = blockThresholdMillis;
+    mSampleDelay = (long) (blockThresholdMillis * 0.8f);
     mStopWhenDebugging = stopWhenDebugging;
+    mUseWatchdog = useWatchdog;
+    mThreadTimeAtBegin = !useWatchdog || !SchedStatReader.isSupported();
   }
 
   @Override
   public void println(String x) {
-    if (mStopWhenDebugging && Debug.isDebuggerConnected()) {
+    long start = System.nanoTime();
+    if (x.charAt(0) == '>') {
+      mCurrentSource = mAttributionEnabled ? mAttribution.sourceOf(x) : null;
+      dispatchBegin();
+    } else {
+      dispatchEnd();
+    }
+    recordOverhead(start);
+  }
+
+  /**
+   * Count a dispatch hook call of the looper thread in {@link SelfStats#PRINTLN}.
+   */
+  void recordOverhead(long startNanos) {
+    mPrintlnCell.record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @return cell of the looper thread in {@link SelfStats#PRINTLN}
+   */
+  Probe.Cell getOverheadCell() {
+    return mPrintlnCell;
+  }
+
+  /**
+   * Called on the looper thread before a message is dispatched. With the watchdog this makes no
+   * JNI call and allocates nothing, schedstat is then read when the dispatch is flagged slow.
+   */
+  void dispatchBegin() {
+    if (mStopWhenDebugging && isDebuggerConnected()) {
+      // The watchdog refreshes the cached debugger state only while awake.
+      wakeWatchdog();
       return;
     }
-    if (!mPrintingStarted) {
-      mStartTimestamp = System.currentTimeMillis();
+    mStartTimestamp = System.currentTimeMillis();
+    mStartNanos = System.nanoTime();
+    if (mThreadTimeAtBegin) {
       mStartThreadTimestamp = SystemClock.currentThreadTimeMillis();
-      mPrintingStarted = true;
+    }
+    if (mTid == 0) {
+      mTid = Process.myTid();
+      BlockCanaryInternals.getInstance().onThreadIdKnown(this);
+    }
+    mPrintingStarted = true;
+    mDispatchSeq++;
+    wakeWatchdog();
+    if (!mUseWatchdog && !mHistogramOnly) {
       startDump();
-    } else {
-      final long endTime = System.currentTimeMillis();
-      mPrintingStarted = false;
-      if (isBlock(endTime)) {
-        notifyBlockEvent(endTime);
-      }
+    }
+  }
+
+  /**
+   * Set the watchdog to wake when a dispatch begins, before the monitor is installed.
+   */
+  void setWatchdog(DispatchWatchdog watchdog) {
+    mWatchdog = watchdog;
+  }
+
+  private void wakeWatchdog() {
+    if (mWatchdog != null) {
+      mWatchdog.wake();
+    }
+  }
+
+  /**
+   * Called on the looper thread after a message is dispatched.
+   */
+  void dispatchEnd() {
+    if (!mPrintingStarted) {
+      return;
+    }
+    final long endTime = System.currentTimeMillis();
+    final long seq = mDispatchSeq;
+    mPrintingStarted = false;
+    mDispatchSeq = seq + 1;
+    final long nanos = System.nanoTime() - mStartNanos;
+    final DispatchSource source = mCurrentSource;
+    mCurrentSource = null;
+    mLatencyHistogram.record(nanos);
+    if (source != null) {
+      mAttribution.record(source, nanos);
+    }
+    if (!mHistogramOnly && isBlock(endTime) && !(mStopWhenDebugging && isDebuggerConnected())) {
+      notifyBlockEvent(endTime, seq, source);
+    }
+    if (!mUseWatchdog) {
       stopDump();
     }
   }
 
+  /**
+   * Attribute the current dispatch to given message, for hooks which build no dispatch string.
+   */
+  void attribute(Message message) {
+    mCurrentSource = mAttributionEnabled ? mAttribution.sourceOf(message) : null;
+  }
+
+  /**
+   * Current dispatch sequence, odd while a message is being dispatched.
+   */
+  long getDispatchSeq() {
+    return mDispatchSeq;
+  }
+
+  /**
+   * Start time of the current dispatch, only meaningful while {@link #getDispatchSeq()} is odd
+   * and unchanged after reading it.
+   */
+  long getDispatchStart() {
+    return mStartTimestamp;
+  }
+
+  /**
+   * Duration of every dispatch, blocks or not.
+   */
+  LatencyHistogram getLatencyHistogram() {
+    return mLatencyHistogram;
+  }
+
+  /**
+   * Dispatch cost per handler and callback class.
+   */
+  DispatchAttribution getAttribution() {
+    return mAttribution;
+  }
+
+  Looper getLooper() {
+    return mLooper;
+  }
+
+  /**
+   * @return linux thread id of the looper thread, 0 if not known yet
+   */
+  int getThreadId() {
+    if (mTid != 0) {
+      return mTid;
+    }
+    Thread thread = mLooper.getThread();
+    if (mLooper == Looper.getMainLooper()) {
+      return Process.myPid();
+    }
+    return thread instanceof HandlerThread ? Math.max(0, ((HandlerThread) thread).getThreadId())
+        : 0;
+  }
+
+  /**
+   * @return name of the looper thread
+   */
+  String getName() {
+    return mLooper.getThread().getName();
+  }
+
+  /**
+   * Only record latency and attribution, neither sample nor report blocks.
+   */
+  void setHistogramOnly(boolean histogramOnly) {
+    mHistogramOnly = histogramOnly;
+  }
+
+  boolean isHistogramOnly() {
+    return mHistogramOnly;
+  }
+
+  /**
+   * Whether to resolve and record the source of each dispatch, the bulk of the looper thread cost
+   * besides timing it. Blocks have no dispatch source while disabled.
+   */
+  void setAttributionEnabled(boolean attributionEnabled) {
+    mAttributionEnabled = attributionEnabled;
+  }
+
+  StackSampler getStackSampler() {
+    return mStackSampler;
+  }
+
+  long getSampleDelay() {
+    return mSampleDelay;
+  }
+
+  /**
+   * Dispatch sequence the watchdog armed samplers for, only touched on timer thread.
+   */
+  long getArmedSeq() {
+    return mArmedSeq;
+  }
+
+  void setArmedSeq(long armedSeq) {
+    mArmedSeq = armedSeq;
+  }
+
+  /**
+   * Update cached debugger state, called periodically by the watchdog.
+   */
+  void setDebuggerConnected(boolean debuggerConnected) {
+    mDebuggerConnected = debuggerConnected;
+  }
+
+  /**
+   * Called by the watchdog on timer thread once dispatch {@code seq} outlives the sample delay,
+   * records looper thread scheduling stats for it so the looper thread does not have to on every
+   * message.
+   */
+  void markSlow(long seq, long now) {
+    if (mThreadTimeAtBegin || mTid == 0) {
+      return;
+    }
+    if (mSchedStatReader == null) {
+      mSchedStatReader = new SchedStatReader(mTid);
+    }
+    if (!mSchedStatReader.read(mSlowSched)) {
+      return;
+    }
+    mSlowTimestamp = now;
+    mSlowSeq = seq;
+  }
+
+  private boolean isDebuggerConnected() {
+    return mUseWatchdog ? mDebuggerConnected : Debug.isDebuggerConnected();
+  }
+
   private boolean isBlock(long endTime) {
     return endTime - mStartTimestamp > mBlockThresholdMillis;
   }
 
-  private void notifyBlockEvent(final long endTime) {
+  private void notifyBlockEvent(final long endTime, long seq, DispatchSource source) {
     final long startTime = mStartTimestamp;
-    final long startThreadTime = mStartThreadTimestamp;
-    final long endThreadTime = SystemClock.currentThreadTimeMillis();
-
-    long cost = endTime - startTime;
-    long threadCost = endThreadTime - startThreadTime;
+    final long startThreadTime;
+    final long endThreadTime;
+    ThreadSched sched = null;
 
-    if (Math.abs(threadCost - cost) > 100) {
-      // 线程耗时与实际耗时相差太多过滤掉
-      return;
+    if (mThreadTimeAtBegin) {
+      startThreadTime = mStartThreadTimestamp;
+      endThreadTime = SystemClock.currentThreadTimeMillis();
+    } else {
+      // Thread time of the whole dispatch is unknown. If the watchdog flagged it slow, the span
+      // since then is broken down as sched, whose own span tells what it covers.
+      startThreadTime = UNKNOWN_THREAD_TIME;
+      endThreadTime = UNKNOWN_THREAD_TIME;
+      if (mSlowSeq == seq && readEndSched()) {
+        sched = newThreadSched(endTime - mSlowTimestamp);
+      }
     }
 
+    // Blocks whose thread time is far below wall time are kept: the breakdown tells whether the
+    // looper thread was starved of cpu or sleeping on a lock, I/O or binder call.
+    final DispatchSource blockSource = source == null ? null : source.copy();
+    final ThreadSched blockSched = sched;
     HandlerThreadFactory.getWriteLogThreadHandler().post(new Runnable() {
       @Override
       public void run() {
-        mBlockListener.onBlockEvent(startTime, endTime, startThreadTime, endThreadTime);
+        mBlockListener.onBlockEvent(LooperMonitor.this, startTime, endTime, startThreadTime,
+            endThreadTime, blockSource, blockSched);
       }
     });
   }
 
-  private void startDump() {
-    if (null != BlockCanaryInternals.getInstance().stackSampler) {
-      BlockCanaryInternals.getInstance().stackSampler.start();
+  private boolean readEndSched() {
+    if (mEndSchedStatReader == null) {
+      mEndSchedStatReader = new SchedStatReader(mTid);
     }
+    return mEndSchedStatReader.read(mEndSched);
+  }
 
-    if (null != BlockCanaryInternals.getInstance().cpuSampler) {
-      BlockCanaryInternals.getInstance().cpuSampler.start();
-    }
+  private ThreadSched newThreadSched(long spanMillis) {
+    long[] begin = mSlowSched;
+    long[] end = mEndSched;
+    return new ThreadSched(spanMillis,
+        (end[SchedStatReader.RUN_TIME] - begin[SchedStatReader.RUN_TIME]) / 1000000L,
+        (end[SchedStatReader.WAIT_TIME] - begin[SchedStatReader.WAIT_TIME]) / 1000000L,
+        end[SchedStatReader.TIMESLICES] - begin[SchedStatReader.TIMESLICES],
+        switchesBetween(begin, end, SchedStatReader.VOLUNTARY_SWITCHES),
+        switchesBetween(begin, end, SchedStatReader.INVOLUNTARY_SWITCHES));
+  }
+
+  private static long switchesBetween(long[] begin, long[] end, int index) {
+    return begin[index] < 0 || end[index] < 0 ? -1 : end[index] - begin[index];
   }
 
-  private void stopDump() {
-    if (null != BlockCanaryInternals.getInstance().stackSampler) {
-      BlockCanaryInternals.getInstance().stackSampler.stop();
+  private void startDump() {
+    mStackSampler.start(mSampleDelay);
+    if (mHoldsSharedSamplers.compareAndSet(false, true)) {
+      BlockCanaryInternals.getInstance().acquireSharedSamplers(mSampleDelay);
     }
+  }
 
-    if (null != BlockCanaryInternals.getInstance().cpuSampler) {
-      BlockCanaryInternals.getInstance().cpuSampler.stop();
+  /**
+   * Stop samplers of the current dispatch. Also called once the monitor is uninstalled, as the
+   * end of a dispatch in flight is then never seen.
+   */
+  void stopDump() {
+    mStackSampler.stop();
+    if (mHoldsSharedSamplers.compareAndSet(true, false)) {
+      BlockCanaryInternals.getInstance().releaseSharedSamplers();
     }
   }
 }
\ No newline at end of file
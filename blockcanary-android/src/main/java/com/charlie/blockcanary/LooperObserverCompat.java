@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.os.Build;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Hooks dispatch begin/end through the hidden {@code Looper.Observer} (API 29+), so the Looper
+ * does not build a ">>>>> Dispatching" string per message as it does for a {@code Printer}.
+ * <p>
+ * The observer is process wide and hidden API restrictions usually forbid it, callers must fall
+ * back to {@link Looper#setMessageLogging} when {@link #install} fails.
+ * </p>
+ * <p>
+ * Being a {@link Proxy}, each call still gets an argument array from the runtime, which is less
+ * than the strings the looper builds for a printer but not allocation free.
+ * </p>
+ */
+final class LooperObserverCompat implements InvocationHandler {
+
+    private static final String TAG = "LooperObserverCompat";
+    private static final String OBSERVER_CLASS = "android.os.Looper$Observer";
+    private static final String METHOD_STARTING = "messageDispatchStarting";
+    private static final String METHOD_DISPATCHED = "messageDispatched";
+    private static final String METHOD_THREW = "dispatchingThrewException";
+
+    private final LooperMonitor mMonitor;
+    private final Thread mThread;
+
+    private LooperObserverCompat(LooperMonitor monitor, Thread thread) {
+        mMonitor = monitor;
+        mThread = thread;
+    }
+
+    /**
+     * Install observer for the looper of given thread.
+     *
+     * @return true if installed, false if the printer should be used instead
+     */
+    static boolean install(LooperMonitor monitor, Thread thread) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return false;
+        }
+        try {
+            Class<?> observerClass = Class.forName(OBSERVER_CLASS);
+            Object observer = Proxy.newProxyInstance(observerClass.getClassLoader(),
+                    new Class<?>[]{observerClass}, new LooperObserverCompat(monitor, thread));
+            setObserver(observerClass, observer);
+            return true;
+        } catch (Throwable e) {
+            Log.w(TAG, "install: Looper.Observer unavailable, fall back to printer", e);
+            return false;
+        }
+    }
+
+    static void uninstall() {
+        try {
+            setObserver(Class.forName(OBSERVER_CLASS), null);
+        } catch (Throwable e) {
+            Log.w(TAG, "uninstall: ", e);
+        }
+    }
+
+    private static void setObserver(Class<?> observerClass, Object observer) throws Exception {
+        Method setObserver = Looper.class.getDeclaredMethod("setObserver", observerClass);
+        setObserver.setAccessible(true);
+        setObserver.invoke(null, observer);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (Thread.currentThread() == mThread) {
+            long start = System.nanoTime();
+            if (METHOD_STARTING.equals(name)) {
+                mMonitor.dispatchBegin();
+                mMonitor.recordOverhead(start);
+                return null;
+            } else if (METHOD_DISPATCHED.equals(name) || METHOD_THREW.equals(name)) {
+                mMonitor.attribute((Message) args[1]);
+                mMonitor.dispatchEnd();
+                mMonitor.recordOverhead(start);
+                return null;
+            }
+        }
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return TAG;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.util.Log;
+
+import com.nf.blockcanary.internal.OverheadSnapshot;
+
+import java.util.List;
+
+/**
+ * Keeps BlockCanary's own cost within the budgets of {@link BlockCanaryContext}, measured from
+ * {@link BlockCanaryInternals#getOverheadStats()} on the timer thread.
+ * <p>
+ * Every window over the sampler budget steps down one level: shallower stacks, sparser sampling,
+ * no cpu sampling and finally dispatch histograms only. After {@link #STEP_UP_WINDOWS} windows
+ * under half the budget it steps back up one level.
+ * </p>
+ * <p>
+ * Those levels leave the looper thread cost of a dispatch as is, so a window over the main thread
+ * budget only turns dispatch attribution off, back on after {@link #STEP_UP_WINDOWS} calm
+ * windows. Block detection is never turned off for main thread cost.
+ * </p>
+ */
+final class OverheadGovernor implements Runnable {
+
+    private static final String TAG = "OverheadGovernor";
+
+    static final int LEVEL_FULL = 0;
+    static final int LEVEL_SHALLOW_STACKS = 1;
+    static final int LEVEL_SPARSE_SAMPLING = 2;
+    static final int LEVEL_NO_CPU_SAMPLING = 3;
+    static final int LEVEL_HISTOGRAM_ONLY = 4;
+
+    private static final long WINDOW_MILLIS = 10 * 1000L;
+    private static final int STEP_UP_WINDOWS = 3;
+    private static final int SHALLOW_STACK_DEPTH = 32;
+    private static final int SPARSE_SLOWDOWN = 4;
+    // Main thread share is meaningless while it barely runs.
+    private static final long MIN_MAIN_THREAD_NANOS = 50 * 1000000L;
+
+    private final List<LooperMonitor> mMonitors;
+    private final float mMainThreadBudget;
+    private final float mSamplerBudget;
+
+    private volatile boolean mRunning = false;
+    private volatile int mLevel = LEVEL_FULL;
+    private volatile boolean mAttributionEnabled = true;
+
+    // Only touched on timer thread.
+    private OverheadSnapshot mLast;
+    private int mCalmWindows = 0;
+    private int mMainCalmWindows = 0;
+
+    /**
+     * @param monitors         live list of monitors
+     * @param mainThreadBudget percent of main thread time, 0 or less for no limit
+     * @param samplerBudget    percent of one core for sampling and writing, 0 or less for no
+     *                         limit
+     */
+    OverheadGovernor(List<LooperMonitor> monitors, float mainThreadBudget, float samplerBudget) {
+        mMonitors = monitors;
+        mMainThreadBudget = mainThreadBudget;
+        mSamplerBudget = samplerBudget;
+    }
+
+    void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(this);
+        HandlerThreadFactory.getTimerThreadHandler().postDelayed(this, WINDOW_MILLIS);
+    }
+
+    void stop() {
+        mRunning = false;
+        HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(this);
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    @Override
+    public void run() {
+        if (!mRunning) {
+            return;
+        }
+        OverheadSnapshot snapshot = BlockCanaryInternals.getInstance().getOverheadStats();
+        if (mLast != null) {
+            evaluate(snapshot.since(mLast));
+        }
+        mLast = snapshot;
+        HandlerThreadFactory.getTimerThreadHandler().postDelayed(this, WINDOW_MILLIS);
+    }
+
+    private void evaluate(OverheadSnapshot window) {
+        double main = window.getMainThreadNanos() >= MIN_MAIN_THREAD_NANOS
+                ? window.getMainThreadPercent() : 0;
+        if (exceeds(main, mMainThreadBudget)) {
+            mMainCalmWindows = 0;
+            if (mAttributionEnabled) {
+                setAttributionEnabled(false, window);
+            }
+        } else if (!exceeds(main * 2, mMainThreadBudget) && !mAttributionEnabled) {
+            if (++mMainCalmWindows >= STEP_UP_WINDOWS) {
+                mMainCalmWindows = 0;
+                setAttributionEnabled(true, window);
+            }
+        } else {
+            mMainCalmWindows = 0;
+        }
+
+        double sampler = window.getSamplerThreadPercent() + window.getWriterThreadPercent();
+        int level = mLevel;
+        if (exceeds(sampler, mSamplerBudget)) {
+            mCalmWindows = 0;
+            if (level < LEVEL_HISTOGRAM_ONLY) {
+                setLevel(level + 1, window);
+            }
+        } else if (!exceeds(sampler * 2, mSamplerBudget) && level > LEVEL_FULL) {
+            if (++mCalmWindows >= STEP_UP_WINDOWS) {
+                mCalmWindows = 0;
+                setLevel(level - 1, window);
+            }
+        } else {
+            mCalmWindows = 0;
+        }
+    }
+
+    private static boolean exceeds(double percent, float budget) {
+        return budget > 0 && percent > budget;
+    }
+
+    private void setAttributionEnabled(boolean enabled, OverheadSnapshot window) {
+        Log.i(TAG, "attribution " + (enabled ? "on" : "off") + ", " + window);
+        mAttributionEnabled = enabled;
+        for (LooperMonitor monitor : mMonitors) {
+            monitor.setAttributionEnabled(enabled);
+        }
+    }
+
+    private void setLevel(int level, OverheadSnapshot window) {
+        Log.i(TAG, "level " + mLevel + " -> " + level + ", " + window);
+        mLevel = level;
+        for (LooperMonitor monitor : mMonitors) {
+            apply(monitor);
+        }
+        BlockCanaryInternals.getInstance().setCpuSamplingEnabled(level < LEVEL_NO_CPU_SAMPLING);
+    }
+
+    /**
+     * Bring a monitor to the current level, also used for monitors added later.
+     */
+    void apply(LooperMonitor monitor) {
+        int level = mLevel;
+        StackSampler stackSampler = monitor.getStackSampler();
+        stackSampler.setMaxDepth(level >= LEVEL_SHALLOW_STACKS ? SHALLOW_STACK_DEPTH : 0);
+        stackSampler.setSlowdown(level >= LEVEL_SPARSE_SAMPLING ? SPARSE_SLOWDOWN : 1);
+        monitor.setHistogramOnly(level >= LEVEL_HISTOGRAM_ONLY);
+        monitor.setAttributionEnabled(mAttributionEnabled);
+    }
+}
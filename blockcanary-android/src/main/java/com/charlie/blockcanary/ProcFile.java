@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A {@code /proc} file kept open and re-read from the start into a preallocated buffer, so a
+ * sample allocates nothing. Content past the buffer size is ignored.
+ * <p>
+ * Not thread safe, keep each instance on one thread.
+ * </p>
+ */
+final class ProcFile {
+
+    private static final String TAG = "ProcFile";
+
+    private final String mPath;
+    private final byte[] mBuffer;
+    private RandomAccessFile mFile;
+    private boolean mFailing = false;
+
+    ProcFile(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return number of bytes read into {@link #buffer()}, -1 if the file is unreadable
+     */
+    int read() {
+        try {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+            }
+            mFile.seek(0);
+            int length = 0;
+            int count;
+            while (length < mBuffer.length
+                    && (count = mFile.read(mBuffer, length, mBuffer.length - length)) > 0) {
+                length += count;
+            }
+            mFailing = false;
+            return length;
+        } catch (IOException e) {
+            // Only log the first of consecutive failures, like a file of an offline cpu.
+            if (!mFailing) {
+                mFailing = true;
+                Log.e(TAG, "read: " + mPath, e);
+            }
+            close();
+            return -1;
+        }
+    }
+
+    byte[] buffer() {
+        return mBuffer;
+    }
+
+    void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close: ", e);
+            }
+            mFile = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+/**
+ * Allocation-free parsers of {@code /proc} contents read by {@link ProcFile}, numbers are parsed
+ * straight from the bytes into caller owned arrays.
+ */
+final class ProcParser {
+
+    /**
+     * Indexes of the values of {@link #parseCpuTotals(byte[], int, long[])}, in jiffies.
+     */
+    static final int CPU_USER = 0;
+    static final int CPU_NICE = 1;
+    static final int CPU_SYSTEM = 2;
+    static final int CPU_IDLE = 3;
+    static final int CPU_IOWAIT = 4;
+    static final int CPU_IRQ = 5;
+    static final int CPU_SOFTIRQ = 6;
+    static final int CPU_STEAL = 7;
+    static final int CPU_VALUE_COUNT = 8;
+
+    /**
+     * Indexes of the values of {@link #parseStat(byte[], int, long[])}, field n of proc(5) is at
+     * index n - 3. Times are in jiffies.
+     */
+    static final int STAT_STATE = 0;
+    static final int STAT_UTIME = 11;
+    static final int STAT_STIME = 12;
+    static final int STAT_CUTIME = 13;
+    static final int STAT_CSTIME = 14;
+    static final int STAT_PROCESSOR = 36;
+
+    private ProcParser() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Parse the aggregate "cpu" line which starts {@code /proc/stat}.
+     *
+     * @param values receives user, nice, system, idle, iowait, irq, softirq and steal, as far
+     *               as present
+     * @return number of values parsed, 0 if the content does not start with "cpu "
+     */
+    static int parseCpuTotals(byte[] buffer, int length, long[] values) {
+        if (length < 4 || buffer[0] != 'c' || buffer[1] != 'p' || buffer[2] != 'u'
+                || buffer[3] != ' ') {
+            return 0;
+        }
+        return parseNumbers(buffer, 4, length, values);
+    }
+
+    /**
+     * Parse {@code /proc/<pid>/stat} or {@code /proc/<pid>/task/<tid>/stat}. The command name may
+     * hold spaces and parentheses, so fields are counted from its last ')'.
+     *
+     * @param values receives fields from the state on, the state as its character
+     * @return number of fields parsed
+     */
+    static int parseStat(byte[] buffer, int length, long[] values) {
+        int nameEnd = nameEnd(buffer, length);
+        // ") S 1 ...", state is the single char after ") ".
+        int stateAt = nameEnd + 2;
+        if (nameEnd < 0 || stateAt >= length || values.length == 0) {
+            return 0;
+        }
+        values[STAT_STATE] = buffer[stateAt];
+        return 1 + parseNumbers(buffer, stateAt + 1, length, values, 1);
+    }
+
+    /**
+     * @return offset of the first byte of the command name in a stat file, -1 if malformed
+     */
+    static int nameStart(byte[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '(') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return offset of the ')' closing the command name in a stat file, -1 if malformed
+     */
+    static int nameEnd(byte[] buffer, int length) {
+        for (int i = Math.min(length, buffer.length) - 1; i >= 0; i--) {
+            if (buffer[i] == ')') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a line of space separated integers, like {@code /proc/<pid>/schedstat}.
+     *
+     * @return number of values parsed
+     */
+    static int parseValues(byte[] buffer, int length, long[] values) {
+        return parseNumbers(buffer, 0, length, values);
+    }
+
+    /**
+     * Find a "key:\tvalue" line of a status file, like {@code /proc/<pid>/status}.
+     *
+     * @return value of given key, -1 if missing
+     */
+    static long parseStatusValue(byte[] buffer, int length, String key) {
+        int keyLength = key.length();
+        int lineStart = 0;
+        while (lineStart + keyLength < length) {
+            boolean matches = buffer[lineStart + keyLength] == ':';
+            for (int i = 0; matches && i < keyLength; i++) {
+                matches = buffer[lineStart + i] == key.charAt(i);
+            }
+            if (matches) {
+                int i = lineStart + keyLength + 1;
+                while (i < length && (buffer[i] == ' ' || buffer[i] == '\t')) {
+                    i++;
+                }
+                int digitsStart = i;
+                long value = 0;
+                for (; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                    value = value * 10 + (buffer[i] - '0');
+                }
+                return i == digitsStart ? -1 : value;
+            }
+            while (lineStart < length && buffer[lineStart] != '\n') {
+                lineStart++;
+            }
+            lineStart++;
+        }
+        return -1;
+    }
+
+    private static int parseNumbers(byte[] buffer, int from, int length, long[] values) {
+        return parseNumbers(buffer, from, length, values, 0);
+    }
+
+    /**
+     * Parse space separated integers until a line end, the end of content or values are full.
+     *
+     * @return number of values parsed
+     */
+    private static int parseNumbers(byte[] buffer, int from, int length, long[] values,
+                                    int offset) {
+        int count = 0;
+        int i = from;
+        while (offset + count < values.length) {
+            while (i < length && buffer[i] == ' ') {
+                i++;
+            }
+            if (i >= length || buffer[i] == '\n') {
+                break;
+            }
+            boolean negative = buffer[i] == '-';
+            if (negative) {
+                i++;
+            }
+            int digitsStart = i;
+            long value = 0;
+            for (; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                value = value * 10 + (buffer[i] - '0');
+            }
+            // A truncated last number is dropped, as is anything which is not a number.
+            if (i == digitsStart || (i < length && buffer[i] != ' ' && buffer[i] != '\n')
+                    || i == length && length == buffer.length) {
+                break;
+            }
+            values[offset + count++] = negative ? -value : value;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated ring of sample timestamps, owners keep sample payloads in parallel arrays indexed
+ * by {@link #slotOf(long)}.
+ * <p>
+ * One writer thread appends through {@link #beginWrite(long)}/{@link #endWrite()}, any thread
+ * reads without locking: read {@link #count()}, look samples up with {@link #firstAfter}, copy
+ * them out through volatile reads, then drop those older than {@link #oldestIntact()}, which the
+ * writer may have overwritten meanwhile.
+ * </p>
+ */
+final class SampleRing {
+
+    private final int mCapacity;
+    private final AtomicLongArray mTimes;
+
+    /**
+     * Writes started, bumped before a slot is overwritten.
+     */
+    private volatile long mHead = 0;
+
+    /**
+     * Writes completed.
+     */
+    private volatile long mCount = 0;
+
+    SampleRing(int capacity) {
+        mCapacity = capacity;
+        mTimes = new AtomicLongArray(capacity);
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Start writing a sample, writer thread only.
+     *
+     * @param time sample time, not earlier than previous samples
+     * @return slot to store the payload in
+     */
+    int beginWrite(long time) {
+        long index = mHead;
+        mHead = index + 1;
+        int slot = slotOf(index);
+        mTimes.lazySet(slot, time);
+        return slot;
+    }
+
+    /**
+     * Publish the sample started by {@link #beginWrite(long)}.
+     */
+    void endWrite() {
+        mCount = mHead;
+    }
+
+    /**
+     * @return index after the latest published sample
+     */
+    long count() {
+        return mCount;
+    }
+
+    /**
+     * @return index of the oldest sample kept for given {@link #count()}
+     */
+    long oldest(long count) {
+        return Math.max(0, count - mCapacity);
+    }
+
+    /**
+     * @return oldest index whose payload is guaranteed not to be overwritten, check it after
+     * copying payloads out
+     */
+    long oldestIntact() {
+        return mHead - mCapacity;
+    }
+
+    int slotOf(long index) {
+        return (int) (index % mCapacity);
+    }
+
+    long timeAt(long index) {
+        return mTimes.get(slotOf(index));
+    }
+
+    /**
+     * Binary search the first sample later than given time.
+     *
+     * @param from first index to search
+     * @param to   index after the last one to search
+     * @return index of the first sample later than time, or {@code to} if none
+     */
+    long firstAfter(long time, long from, long to) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timeAt(mid) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+/**
+ * Decides when a sampler takes its next sample while a dispatch is being sampled.
+ * <p>
+ * Only consulted after a sample was taken, i.e. once a dispatch outlived the sample delay, so a
+ * schedule never adds cost to short messages. Called on the sampler thread.
+ * </p>
+ */
+public interface SampleSchedule {
+
+    /**
+     * Returned by {@link #nextDelay(long, int, long)} to take no more samples of this dispatch.
+     */
+    long STOP = -1;
+
+    /**
+     * @param ageMillis       time since the dispatch began
+     * @param sampleCount     samples taken of this dispatch so far
+     * @param samplerCpuNanos sampler thread CPU time spent on those samples
+     * @return delay in millis before the next sample, or {@link #STOP}
+     */
+    long nextDelay(long ageMillis, int sampleCount, long samplerCpuNanos);
+}
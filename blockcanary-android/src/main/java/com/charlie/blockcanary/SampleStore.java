@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Preallocated ring of timestamped samples, written by one sampler thread and read by time
+ * window from any thread without locking.
+ *
+ * @param <T> sample type, should be immutable once added
+ */
+public final class SampleStore<T> {
+
+    private final SampleRing mRing;
+    private final AtomicReferenceArray<T> mValues;
+
+    /**
+     * @param capacity samples kept, older ones are overwritten
+     */
+    public SampleStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive.");
+        }
+        mRing = new SampleRing(capacity);
+        mValues = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Add a sample, from the sampler thread only.
+     *
+     * @param time sample time, not earlier than previous samples
+     */
+    public void add(long time, T value) {
+        int slot = mRing.beginWrite(time);
+        mValues.lazySet(slot, value);
+        mRing.endWrite();
+    }
+
+    /**
+     * @return samples taken within given window, oldest first
+     */
+    public List<Entry<T>> get(long startTime, long endTime) {
+        long count = mRing.count();
+        long first = mRing.firstAfter(startTime - 1, mRing.oldest(count), count);
+        List<Entry<T>> entries = new ArrayList<>();
+        for (long i = first; i < count; i++) {
+            long time = mRing.timeAt(i);
+            if (time > endTime) {
+                break;
+            }
+            entries.add(new Entry<>(time, mValues.get(mRing.slotOf(i))));
+        }
+        // Skip samples the sampler overwrote while they were copied.
+        int intact = (int) Math.max(0, Math.min(entries.size(), mRing.oldestIntact() - first));
+        return intact == 0 ? entries : new ArrayList<>(entries.subList(intact, entries.size()));
+    }
+
+    /**
+     * A sample and when it was taken.
+     */
+    public static final class Entry<T> {
+
+        private final long mTime;
+        private final T mValue;
+
+        Entry(long time, T value) {
+            mTime = time;
+            mValue = value;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public T getValue() {
+            return mValue;
+        }
+    }
+}
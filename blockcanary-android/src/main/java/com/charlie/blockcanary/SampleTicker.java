@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.nf.blockcanary.internal.SelfStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Drives every running {@link AbstractSampler} from one wakeup of the timer thread.
+ * <p>
+ * Samplers due within {@link #COALESCE_MILLIS} of a tick run in it as a batch sharing one
+ * timestamp, so their samples line up. Each sampler keeps a fixed rate: its next sample is due
+ * one delay after the previous due time rather than after it ran, and samples missed while the
+ * thread was late are skipped instead of run in a burst. Wakeups are counted in
+ * {@link SelfStats#TICK}.
+ * </p>
+ */
+final class SampleTicker implements Runnable {
+
+    /**
+     * Samplers due this soon after a tick run early with it rather than wake the thread again.
+     */
+    static final long COALESCE_MILLIS = 8;
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    private static final SampleTicker sInstance = new SampleTicker();
+
+    // Guarded by this.
+    private final List<AbstractSampler> mActive = new ArrayList<>();
+    private long mWakeAt = NOT_SCHEDULED;
+
+    // Only touched on timer thread.
+    private final List<AbstractSampler> mBatch = new ArrayList<>();
+    private long[] mBatchGenerations = new long[8];
+
+    static SampleTicker getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Run given sampler from the tick at or just after given uptime on, replacing its schedule.
+     */
+    synchronized void schedule(AbstractSampler sampler, long dueAt) {
+        sampler.mGeneration++;
+        sampler.mDueAt = dueAt;
+        if (!mActive.contains(sampler)) {
+            mActive.add(sampler);
+        }
+        wakeAt(dueAt);
+    }
+
+    synchronized void cancel(AbstractSampler sampler) {
+        sampler.mGeneration++;
+        mActive.remove(sampler);
+        if (mActive.isEmpty() && mWakeAt != NOT_SCHEDULED) {
+            HandlerThreadFactory.getTimerThreadHandler().removeCallbacks(this);
+            mWakeAt = NOT_SCHEDULED;
+        }
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long now = SystemClock.uptimeMillis();
+        long sampleTime = System.currentTimeMillis();
+        List<AbstractSampler> batch = mBatch;
+        synchronized (this) {
+            mWakeAt = NOT_SCHEDULED;
+            for (AbstractSampler sampler : mActive) {
+                if (sampler.mDueAt <= now + COALESCE_MILLIS) {
+                    if (batch.size() == mBatchGenerations.length) {
+                        mBatchGenerations = Arrays.copyOf(mBatchGenerations,
+                                batch.size() * 2);
+                    }
+                    mBatchGenerations[batch.size()] = sampler.mGeneration;
+                    batch.add(sampler);
+                }
+            }
+        }
+
+        long samplingNanos = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            AbstractSampler sampler = batch.get(i);
+            long samplerStart = System.nanoTime();
+            long delay = sampler.tick(sampleTime);
+            samplingNanos += System.nanoTime() - samplerStart;
+            synchronized (this) {
+                // Started or stopped again meanwhile, its new schedule wins.
+                if (sampler.mGeneration != mBatchGenerations[i]) {
+                    continue;
+                }
+                if (delay < 0) {
+                    sampler.mGeneration++;
+                    mActive.remove(sampler);
+                } else {
+                    sampler.mDueAt = nextDue(sampler.mDueAt, delay, now);
+                }
+            }
+        }
+        batch.clear();
+
+        synchronized (this) {
+            long next = NOT_SCHEDULED;
+            for (AbstractSampler sampler : mActive) {
+                next = Math.min(next, sampler.mDueAt);
+            }
+            if (next != NOT_SCHEDULED) {
+                wakeAt(next);
+            }
+        }
+        // Samplers account for their own cost, the tick only for scheduling.
+        SelfStats.TICK.record(System.nanoTime() - start - samplingNanos);
+    }
+
+    /**
+     * @return next due time on the grid of given delay from the previous due time, at least half
+     * a delay after now so a late sampler does not run twice in a row
+     */
+    static long nextDue(long dueAt, long delay, long now) {
+        if (delay <= 0) {
+            return now;
+        }
+        long next = dueAt + delay;
+        long earliest = now + delay / 2;
+        if (next >= earliest) {
+            return next;
+        }
+        return next + delay * ((earliest - next) / delay + 1);
+    }
+
+    private void wakeAt(long dueAt) {
+        if (dueAt >= mWakeAt) {
+            return;
+        }
+        Handler handler = HandlerThreadFactory.getTimerThreadHandler();
+        if (mWakeAt != NOT_SCHEDULED) {
+            handler.removeCallbacks(this);
+        }
+        mWakeAt = dueAt;
+        handler.postAtTime(this, dueAt);
+    }
+}
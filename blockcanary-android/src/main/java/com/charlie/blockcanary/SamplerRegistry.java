@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.util.Log;
+
+import com.nf.blockcanary.internal.BlockInfo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Samplers shared by all monitored loopers: started together once a dispatch is flagged slow,
+ * stopped together when it ends, and asked in turn to add what they sampled to each block.
+ * Stack samplers are per looper and not part of it.
+ */
+public final class SamplerRegistry {
+
+    private static final String TAG = "SamplerRegistry";
+
+    private final List<AbstractSampler> mSamplers = new CopyOnWriteArrayList<>();
+
+    SamplerRegistry() {
+    }
+
+    /**
+     * Add a sampler, adding it twice does nothing.
+     */
+    public void add(AbstractSampler sampler) {
+        if (sampler == null) {
+            throw new IllegalArgumentException("sampler should not be null.");
+        }
+        if (!mSamplers.contains(sampler)) {
+            mSamplers.add(sampler);
+        }
+    }
+
+    public void remove(AbstractSampler sampler) {
+        if (mSamplers.remove(sampler)) {
+            sampler.stop();
+        }
+    }
+
+    public List<AbstractSampler> getSamplers() {
+        return Collections.unmodifiableList(mSamplers);
+    }
+
+    void start(long delayMillis) {
+        for (AbstractSampler sampler : mSamplers) {
+            sampler.start(delayMillis);
+        }
+    }
+
+    void stop() {
+        for (AbstractSampler sampler : mSamplers) {
+            sampler.stop();
+        }
+    }
+
+    /**
+     * Let every sampler add what it sampled during a block, on the writer thread.
+     */
+    void collect(BlockInfo blockInfo, long startTime, long endTime) {
+        for (AbstractSampler sampler : mSamplers) {
+            try {
+                sampler.onBlock(blockInfo, startTime, endTime);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "collect: " + sampler.getClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import java.io.File;
+
+/**
+ * Reads one thread's scheduler statistics: {@code /proc/self/task/<tid>/schedstat}, whose fields
+ * are time on cpu, time runnable but waiting on a run queue and timeslices run, and the context
+ * switch counts of {@code /proc/self/task/<tid>/status}. Run time is the same clock as
+ * {@link android.os.SystemClock#currentThreadTimeMillis()}, but readable from any thread.
+ * <p>
+ * Not thread safe, keep each reader on one thread.
+ * </p>
+ */
+final class SchedStatReader {
+
+    static final int RUN_TIME = 0;
+    static final int WAIT_TIME = 1;
+    static final int TIMESLICES = 2;
+    static final int VOLUNTARY_SWITCHES = 3;
+    static final int INVOLUNTARY_SWITCHES = 4;
+    static final int VALUE_COUNT = 5;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int SCHEDSTAT_BUFFER_SIZE = 128;
+    private static final int STATUS_BUFFER_SIZE = 4096;
+    private static final String KEY_VOLUNTARY = "voluntary_ctxt_switches";
+    private static final String KEY_INVOLUNTARY = "nonvoluntary_ctxt_switches";
+
+    private final String mTaskPath;
+    private final ProcFile mSchedStat;
+    private final long[] mSchedValues = new long[TIMESLICES + 1];
+    private ProcFile mStatus;
+
+    SchedStatReader(int tid) {
+        mTaskPath = "/proc/self/task/" + tid;
+        mSchedStat = new ProcFile(mTaskPath + "/schedstat", SCHEDSTAT_BUFFER_SIZE);
+    }
+
+    static boolean isSupported() {
+        return new File("/proc/self/schedstat").canRead();
+    }
+
+    /**
+     * @return cpu time of the thread in millis, -1 if unavailable
+     */
+    long readRunTimeMillis() {
+        long runTime = readRunTimeNanos();
+        return runTime < 0 ? -1 : runTime / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return cpu time of the thread in nanos, -1 if unavailable
+     */
+    long readRunTimeNanos() {
+        int length = mSchedStat.read();
+        if (length <= 0 || ProcParser.parseValues(mSchedStat.buffer(), length, mSchedValues) < 1) {
+            return -1;
+        }
+        return mSchedValues[RUN_TIME];
+    }
+
+    /**
+     * Read everything, times in nanos. Context switches are -1 if status is unreadable.
+     *
+     * @param values receives {@link #VALUE_COUNT} values indexed by {@link #RUN_TIME} etc.
+     * @return false if schedstat is unavailable
+     */
+    boolean read(long[] values) {
+        int length = mSchedStat.read();
+        if (length <= 0
+                || ProcParser.parseValues(mSchedStat.buffer(), length, mSchedValues) <= TIMESLICES) {
+            return false;
+        }
+        values[RUN_TIME] = mSchedValues[RUN_TIME];
+        values[WAIT_TIME] = mSchedValues[WAIT_TIME];
+        values[TIMESLICES] = mSchedValues[TIMESLICES];
+
+        if (mStatus == null) {
+            mStatus = new ProcFile(mTaskPath + "/status", STATUS_BUFFER_SIZE);
+        }
+        length = mStatus.read();
+        byte[] buffer = mStatus.buffer();
+        values[VOLUNTARY_SWITCHES] = ProcParser.parseStatusValue(buffer, length, KEY_VOLUNTARY);
+        values[INVOLUNTARY_SWITCHES] =
+                ProcParser.parseStatusValue(buffer, length, KEY_INVOLUNTARY);
+        return true;
+    }
+
+    void close() {
+        mSchedStat.close();
+        if (mStatus != null) {
+            mStatus.close();
+        }
+    }
+}
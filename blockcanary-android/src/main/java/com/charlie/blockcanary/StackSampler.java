@@ -17,61 +17,409 @@ package com.nf.blockcanary;
 
 
 import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.LockContention;
+import com.nf.blockcanary.internal.SelfStats;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.AbstractOwnableSynchronizer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Dumps thread stack.
+ * <p>
+ * Frames are interned into a {@link FrameTable} and each sample is kept as an {@code int[]} of
+ * frame ids, with the table array they resolve against, in a preallocated ring, window queries
+ * binary search it without locking. Consecutive identical stacks collapse into one entry with a
+ * repeat count and first/last time, text is only built when a block is written.
+ * </p>
+ * <p>
+ * Each sample records the thread state too. The first time a run finds the thread blocked on a
+ * monitor or waiting, the stacks of other threads are captured once as a {@link LockContention}.
+ * </p>
  */
 public class StackSampler extends AbstractSampler {
 
-    private static final int DEFAULT_MAX_ENTRY_COUNT = 100;
-    private static final LinkedHashMap<Long, String> sStackMap = new LinkedHashMap<>();
+    static final int DEFAULT_MAX_ENTRY_COUNT = 100;
+    static final int CONTENTION_THREAD_COUNT = 8;
+    static final int CONTENTION_DEPTH = 24;
 
-    private int mMaxEntryCount = DEFAULT_MAX_ENTRY_COUNT;
+    private static final Thread.State[] STATES = Thread.State.values();
+    private static Method sOwnerMethod;
+    private static boolean sOwnerMethodResolved;
+
+    private final SampleRing mRing;
+    private final AtomicReferenceArray<int[]> mStacks;
+    // Frame table arrays the ids of each stack resolve against.
+    private final AtomicReferenceArray<StackTraceElement[]> mFrames;
+    private final AtomicLongArray mLastTimes;
+    private final AtomicIntegerArray mRepeats;
+    private final AtomicIntegerArray mStates;
+    private final FrameTable mFrameTable = new FrameTable();
     private Thread mCurrentThread;
 
+    // Sampler thread only.
+    private int[] mScratch = new int[64];
+    private volatile boolean mNewRun = true;
+    private volatile int mMaxDepth = 0;
+    private volatile boolean mCaptureContention = true;
+    private volatile LockContention mContention;
+
     public StackSampler(Thread thread, long sampleIntervalMillis) {
         this(thread, DEFAULT_MAX_ENTRY_COUNT, sampleIntervalMillis);
     }
 
     public StackSampler(Thread thread, int maxEntryCount, long sampleIntervalMillis) {
-        super(sampleIntervalMillis);
+        this(thread, maxEntryCount, sampleIntervalMillis, null);
+    }
+
+    /**
+     * @param schedule schedule of samples per dispatch, null to sample every
+     *                 {@code sampleIntervalMillis}
+     */
+    public StackSampler(Thread thread, int maxEntryCount, long sampleIntervalMillis,
+                        SampleSchedule schedule) {
+        super(sampleIntervalMillis, schedule);
         mCurrentThread = thread;
-        mMaxEntryCount = maxEntryCount;
+        if (maxEntryCount <= 0) {
+            maxEntryCount = DEFAULT_MAX_ENTRY_COUNT;
+        }
+        mRing = new SampleRing(maxEntryCount);
+        mStacks = new AtomicReferenceArray<>(maxEntryCount);
+        mFrames = new AtomicReferenceArray<>(maxEntryCount);
+        mLastTimes = new AtomicLongArray(maxEntryCount);
+        mRepeats = new AtomicIntegerArray(maxEntryCount);
+        mStates = new AtomicIntegerArray(maxEntryCount);
+    }
+
+    /**
+     * Keep at most given number of innermost frames per sample.
+     *
+     * @param maxDepth 0 for no limit
+     */
+    void setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    @Override
+    public void start(long delayMillis, long dispatchStartMillis) {
+        // Never collapse into a stack sampled during an earlier run.
+        mNewRun = true;
+        mCaptureContention = true;
+        super.start(delayMillis, dispatchStartMillis);
     }
 
     public ArrayList<String> getThreadStackEntries(long startTime, long endTime) {
-        ArrayList<String> result = new ArrayList<>();
-        synchronized (sStackMap) {
-            for (Long entryTime : sStackMap.keySet()) {
-                if (startTime < entryTime && entryTime < endTime) {
-                    result.add(BlockInfo.TIME_FORMATTER.format(entryTime)
-                            + BlockInfo.SEPARATOR
-                            + BlockInfo.SEPARATOR
-                            + sStackMap.get(entryTime));
-                }
+        long formatStart = System.nanoTime();
+        long count = mRing.count();
+        long oldest = mRing.oldest(count);
+        long first = mRing.firstAfter(startTime, oldest, count);
+        // A collapsed entry may begin before the window and last into it.
+        if (first > oldest && mLastTimes.get(mRing.slotOf(first - 1)) > startTime) {
+            first--;
+        }
+
+        int size = 0;
+        long[] times = new long[(int) (count - first)];
+        long[] lastTimes = new long[times.length];
+        int[] repeats = new int[times.length];
+        int[] states = new int[times.length];
+        int[][] stacks = new int[times.length][];
+        StackTraceElement[][] frames = new StackTraceElement[times.length][];
+        for (long i = first; i < count; i++) {
+            long time = mRing.timeAt(i);
+            if (time >= endTime) {
+                break;
             }
+            int slot = mRing.slotOf(i);
+            times[size] = time;
+            lastTimes[size] = mLastTimes.get(slot);
+            repeats[size] = mRepeats.get(slot);
+            states[size] = mStates.get(slot);
+            stacks[size] = mStacks.get(slot);
+            frames[size] = mFrames.get(slot);
+            size++;
         }
+
+        // Skip samples the sampler overwrote while they were copied.
+        int intact = (int) Math.max(0, Math.min(size, mRing.oldestIntact() - first));
+        ArrayList<String> result = new ArrayList<>(size - intact);
+        for (int i = intact; i < size; i++) {
+            StringBuilder sb = new StringBuilder();
+            BlockInfo.TIME_FORMATTER.format(times[i], sb);
+            if (repeats[i] > 1) {
+                BlockInfo.TIME_FORMATTER.format(lastTimes[i], sb.append(" ~ "))
+                        .append(" x")
+                        .append(repeats[i]);
+            }
+            if (STATES[states[i]] != Thread.State.RUNNABLE) {
+                sb.append(' ').append(STATES[states[i]]);
+            }
+            sb.append(BlockInfo.SEPARATOR).append(BlockInfo.SEPARATOR);
+            for (int frame : stacks[i]) {
+                sb.append(FrameTable.textOf(frames[i], frame)).append(BlockInfo.SEPARATOR);
+            }
+            result.add(sb.toString());
+        }
+        SelfStats.STACK_FORMAT.record(System.nanoTime() - formatStart);
         return result;
     }
 
+    /**
+     * @return threads captured while the sampled thread was contended within given window, null
+     * if there were none
+     */
+    public LockContention getContention(long startTime, long endTime) {
+        LockContention contention = mContention;
+        return contention != null && contention.getTime() >= startTime
+                && contention.getTime() < endTime ? contention : null;
+    }
+
     @Override
     protected void doSample() {
-        StringBuilder stringBuilder = new StringBuilder();
+        long traceStart = System.nanoTime();
+        Thread.State state = mCurrentThread.getState();
+        StackTraceElement[] trace = mCurrentThread.getStackTrace();
+        long internStart = System.nanoTime();
+        SelfStats.STACK_TRACE.record(internStart - traceStart);
+        int maxDepth = mMaxDepth;
+        int depth = maxDepth > 0 ? Math.min(maxDepth, trace.length) : trace.length;
+        if (mScratch.length < depth) {
+            mScratch = new int[depth];
+        }
+        if (mFrameTable.ensureCapacity(depth)) {
+            // Ids of the last entry belong to the old table.
+            mNewRun = true;
+        }
+        for (int i = 0; i < depth; i++) {
+            mScratch[i] = mFrameTable.intern(trace[i]);
+        }
+        long now = getSampleTime();
+        if (mCaptureContention && isContended(state)) {
+            mCaptureContention = false;
+            long captureStart = System.nanoTime();
+            mContention = captureContention(state, trace, now);
+            SelfStats.STACK_TRACE.record(System.nanoTime() - captureStart);
+        }
+
+        long count = mRing.count();
+        if (!mNewRun && count > 0) {
+            int lastSlot = mRing.slotOf(count - 1);
+            if (mStates.get(lastSlot) == state.ordinal()
+                    && isSameStack(mStacks.get(lastSlot), mScratch, depth)) {
+                mLastTimes.lazySet(lastSlot, now);
+                mRepeats.lazySet(lastSlot, mRepeats.get(lastSlot) + 1);
+                SelfStats.STACK_INTERN.record(System.nanoTime() - internStart);
+                return;
+            }
+        }
+        mNewRun = false;
+
+        int slot = mRing.beginWrite(now);
+        mStacks.lazySet(slot, Arrays.copyOf(mScratch, depth));
+        mFrames.lazySet(slot, mFrameTable.frames());
+        mLastTimes.lazySet(slot, now);
+        mRepeats.lazySet(slot, 1);
+        mStates.lazySet(slot, state.ordinal());
+        mRing.endWrite();
+        SelfStats.STACK_INTERN.record(System.nanoTime() - internStart);
+    }
+
+    private static boolean isContended(Thread.State state) {
+        return state == Thread.State.BLOCKED || state == Thread.State.WAITING
+                || state == Thread.State.TIMED_WAITING;
+    }
+
+    /**
+     * Capture other threads, capped in count and depth. A {@code java.util.concurrent} lock names
+     * its owner, a monitor does not, so threads running code of the class the sampled thread is
+     * stuck in are listed first as suspects. Threads are ranked by state before any stack is taken,
+     * stacks are only walked until {@link #CONTENTION_THREAD_COUNT} threads are listed.
+     */
+    private LockContention captureContention(Thread.State state, StackTraceElement[] trace,
+                                             long now) {
+        Object blocker = LockSupport.getBlocker(mCurrentThread);
+        Thread owner = ownerOf(blocker);
+        String contendedClass = contendedClassOf(trace);
+        String description;
+        if (blocker != null) {
+            description = blocker.getClass().getName() + '@'
+                    + Integer.toHexString(System.identityHashCode(blocker));
+        } else if (trace.length > 0) {
+            description = trace[0].toString();
+        } else {
+            description = null;
+        }
+
+        // Rank threads by state alone, stacks are only taken of those which can be listed.
+        Thread self = Thread.currentThread();
+        final List<Thread> candidates = new ArrayList<>();
+        final List<Thread.State> candidateStates = new ArrayList<>();
+        for (Thread thread : liveThreads()) {
+            if (thread != mCurrentThread && thread != self) {
+                candidates.add(thread);
+                candidateStates.add(thread.getState());
+            }
+        }
+        final int[] ranks = new int[candidates.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = rankOf(candidates.get(i) == owner ? "holder" : null, candidateStates.get(i));
+        }
+        Integer[] order = indexes(ranks.length);
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return ranks[a] - ranks[b];
+            }
+        });
+
+        final List<Thread> threads = new ArrayList<>(CONTENTION_THREAD_COUNT);
+        final List<StackTraceElement[]> traces = new ArrayList<>(CONTENTION_THREAD_COUNT);
+        final List<String> roles = new ArrayList<>(CONTENTION_THREAD_COUNT);
+        final List<Thread.State> states = new ArrayList<>(CONTENTION_THREAD_COUNT);
+        for (int i = 0; i < order.length && threads.size() < CONTENTION_THREAD_COUNT; i++) {
+            Thread thread = candidates.get(order[i]);
+            StackTraceElement[] frames = thread.getStackTrace();
+            if (frames.length == 0) {
+                continue;
+            }
+            String role = null;
+            if (thread == owner) {
+                role = "holder";
+            } else if (owner == null && runsClass(frames, contendedClass)) {
+                role = "suspect";
+            }
+            threads.add(thread);
+            traces.add(frames);
+            roles.add(role);
+            states.add(candidateStates.get(order[i]));
+        }
+
+        order = indexes(threads.size());
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return rankOf(roles.get(a), states.get(a)) - rankOf(roles.get(b), states.get(b));
+            }
+        });
+
+        int maxDepth = mMaxDepth > 0 ? Math.min(mMaxDepth, CONTENTION_DEPTH) : CONTENTION_DEPTH;
+        List<LockContention.ThreadDump> dumps = new ArrayList<>(order.length);
+        for (int index : order) {
+            StackTraceElement[] frames = traces.get(index);
+            dumps.add(new LockContention.ThreadDump(threads.get(index).getName(),
+                    states.get(index), roles.get(index),
+                    Arrays.copyOf(frames, Math.min(maxDepth, frames.length))));
+        }
+        return new LockContention(now, state, description,
+                owner == null ? null : owner.getName(), dumps);
+    }
 
-        for (StackTraceElement stackTraceElement : mCurrentThread.getStackTrace()) {
-            stringBuilder
-                    .append(stackTraceElement.toString())
-                    .append(BlockInfo.SEPARATOR);
+    /**
+     * @return live threads of all groups, without taking their stacks
+     */
+    private static Thread[] liveThreads() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
         }
+        Thread[] threads = new Thread[group.activeCount() + CONTENTION_THREAD_COUNT];
+        int count;
+        while ((count = group.enumerate(threads)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        return Arrays.copyOf(threads, count);
+    }
+
+    private static Integer[] indexes(int size) {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    private static int rankOf(String role, Thread.State state) {
+        if ("holder".equals(role)) {
+            return 0;
+        }
+        if (role != null) {
+            return 1;
+        }
+        return state == Thread.State.RUNNABLE ? 2 : state == Thread.State.BLOCKED ? 3 : 4;
+    }
 
-        synchronized (sStackMap) {
-            if (sStackMap.size() == mMaxEntryCount && mMaxEntryCount > 0) {
-                sStackMap.remove(sStackMap.keySet().iterator().next());
+    /**
+     * @return class of the innermost frame outside the platform, null if there is none
+     */
+    private static String contendedClassOf(StackTraceElement[] trace) {
+        for (StackTraceElement frame : trace) {
+            String className = frame.getClassName();
+            if (!className.startsWith("java.") && !className.startsWith("dalvik.")
+                    && !className.startsWith("libcore.") && !className.startsWith("sun.")
+                    && !className.startsWith("jdk.")) {
+                return className;
+            }
+        }
+        return null;
+    }
+
+    private static boolean runsClass(StackTraceElement[] trace, String className) {
+        if (className == null) {
+            return false;
+        }
+        for (StackTraceElement frame : trace) {
+            if (className.equals(frame.getClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return exclusive owner of a {@code java.util.concurrent} lock, null for anything else
+     */
+    private static Thread ownerOf(Object blocker) {
+        if (!(blocker instanceof AbstractOwnableSynchronizer)) {
+            return null;
+        }
+        synchronized (StackSampler.class) {
+            if (!sOwnerMethodResolved) {
+                sOwnerMethodResolved = true;
+                try {
+                    sOwnerMethod = AbstractOwnableSynchronizer.class
+                            .getDeclaredMethod("getExclusiveOwnerThread");
+                    sOwnerMethod.setAccessible(true);
+                } catch (Exception e) {
+                    sOwnerMethod = null;
+                }
+            }
+        }
+        if (sOwnerMethod == null) {
+            return null;
+        }
+        try {
+            return (Thread) sOwnerMethod.invoke(blocker);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static boolean isSameStack(int[] stack, int[] frames, int length) {
+        if (stack == null || stack.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (stack[i] != frames[i]) {
+                return false;
             }
-            sStackMap.put(System.currentTimeMillis(), stringBuilder.toString());
         }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.ThermalSummary;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dumps the frequency of each cpu cluster and the temperature of thermal zones, from
+ * {@code /sys/devices/system/cpu/cpuN/cpufreq} and {@code /sys/class/thermal}.
+ * <p>
+ * Clusters and zones are found once, then every sample re-reads a few small files kept open, so
+ * it is cheap enough at a low rate even when the device is loaded. Zones the app may not read
+ * are left out.
+ * </p>
+ */
+public class ThermalSampler extends AbstractSampler {
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String THERMAL_DIR = "/sys/class/thermal";
+    private static final String ZONE_PREFIX = "thermal_zone";
+    private static final int VALUE_BUFFER_SIZE = 32;
+    private static final int LIST_BUFFER_SIZE = 128;
+    private static final int MAX_CPUS = 32;
+    private static final int MAX_CLUSTERS = 8;
+    private static final int MAX_ZONES = 32;
+    private static final int MAX_ENTRY_COUNT = 16;
+
+    private static final int FIELD_TEMP = 0;
+    private static final int FIELD_ZONE = 1;
+    private static final int FIELD_CPU_TEMP = 2;
+    // Followed by current frequency and frequency limit of each cluster.
+    private static final int FIELD_CLUSTERS = 3;
+    private static final int FIELD_COUNT = FIELD_CLUSTERS + 2 * MAX_CLUSTERS;
+
+    private final SampleRing mRing = new SampleRing(MAX_ENTRY_COUNT);
+    private final AtomicLongArray mSamples = new AtomicLongArray(MAX_ENTRY_COUNT * FIELD_COUNT);
+
+    // Published once found, immutable but for the files only touched on timer thread.
+    private volatile Cluster[] mClusters = new Cluster[0];
+    private volatile Zone[] mZones = new Zone[0];
+
+    // Only touched on timer thread.
+    private boolean mDiscovered = false;
+    private final long[] mValues = new long[MAX_CPUS];
+    private final long[] mReadings = new long[FIELD_COUNT];
+
+    public ThermalSampler(long sampleInterval) {
+        super(sampleInterval);
+    }
+
+    /**
+     * @return frequencies and temperatures sampled during given window, or the latest sample
+     * before it if none was
+     */
+    public ThermalSummary getSummary(long startTime, long endTime) {
+        Cluster[] clusters = mClusters;
+        Zone[] zones = mZones;
+        long count = mRing.count();
+        long first = mRing.firstAfter(startTime - mSampleInterval, mRing.oldest(count), count);
+        long last = mRing.firstAfter(endTime, first, count);
+        if (first == last) {
+            return ThermalSummary.EMPTY;
+        }
+        if (last - first > 1 && mRing.timeAt(first) < startTime) {
+            first++;
+        }
+
+        int size = (int) (last - first);
+        long[] samples = new long[size * FIELD_COUNT];
+        for (long i = first; i < last; i++) {
+            int base = mRing.slotOf(i) * FIELD_COUNT;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                samples[(int) (i - first) * FIELD_COUNT + field] = mSamples.get(base + field);
+            }
+        }
+        // Skip samples the sampler overwrote while they were copied.
+        int intact = (int) Math.max(0, Math.min(size, mRing.oldestIntact() - first));
+        if (intact == size) {
+            return ThermalSummary.EMPTY;
+        }
+
+        long maxTemp = -1;
+        long hottestZone = -1;
+        long maxCpuTemp = -1;
+        for (int s = intact; s < size; s++) {
+            int base = s * FIELD_COUNT;
+            if (samples[base + FIELD_TEMP] > maxTemp) {
+                maxTemp = samples[base + FIELD_TEMP];
+                hottestZone = samples[base + FIELD_ZONE];
+            }
+            maxCpuTemp = Math.max(maxCpuTemp, samples[base + FIELD_CPU_TEMP]);
+        }
+
+        List<ThermalSummary.Cluster> summaries = new ArrayList<>(clusters.length);
+        for (int c = 0; c < clusters.length; c++) {
+            long min = -1;
+            long max = -1;
+            long sum = 0;
+            int valid = 0;
+            long cap = -1;
+            for (int s = intact; s < size; s++) {
+                int base = s * FIELD_COUNT + FIELD_CLUSTERS + 2 * c;
+                long cur = samples[base];
+                if (cur >= 0) {
+                    min = min < 0 ? cur : Math.min(min, cur);
+                    max = Math.max(max, cur);
+                    sum += cur;
+                    valid++;
+                }
+                long limit = samples[base + 1];
+                if (limit >= 0) {
+                    cap = cap < 0 ? limit : Math.min(cap, limit);
+                }
+            }
+            summaries.add(new ThermalSummary.Cluster(clusters[c].mCpus,
+                    clusters[c].mHardwareMaxKhz, min, valid == 0 ? -1 : sum / valid, max, cap));
+        }
+        String zone = hottestZone >= 0 && hottestZone < zones.length
+                ? zones[(int) hottestZone].mType : null;
+        return new ThermalSummary(summaries, maxTemp, zone, maxCpuTemp);
+    }
+
+    @Override
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        blockInfo.setThermal(getSummary(startTime, endTime));
+    }
+
+    @Override
+    protected void doSample() {
+        if (!mDiscovered) {
+            mDiscovered = true;
+            discover();
+        }
+        Cluster[] clusters = mClusters;
+        Zone[] zones = mZones;
+        if (clusters.length == 0 && zones.length == 0) {
+            return;
+        }
+
+        long[] readings = mReadings;
+        long maxTemp = -1;
+        long hottestZone = -1;
+        long maxCpuTemp = -1;
+        for (int i = 0; i < zones.length; i++) {
+            long temp = toMilliCelsius(readValue(zones[i].mTemp));
+            if (temp > maxTemp) {
+                maxTemp = temp;
+                hottestZone = i;
+            }
+            if (zones[i].mCpu) {
+                maxCpuTemp = Math.max(maxCpuTemp, temp);
+            }
+        }
+        readings[FIELD_TEMP] = maxTemp;
+        readings[FIELD_ZONE] = hottestZone;
+        readings[FIELD_CPU_TEMP] = maxCpuTemp;
+        for (int c = 0; c < clusters.length; c++) {
+            readings[FIELD_CLUSTERS + 2 * c] = readValue(clusters[c].mCurrent);
+            readings[FIELD_CLUSTERS + 2 * c + 1] = readValue(clusters[c].mLimit);
+        }
+
+        int base = mRing.beginWrite(getSampleTime()) * FIELD_COUNT;
+        int fieldCount = FIELD_CLUSTERS + 2 * clusters.length;
+        for (int field = 0; field < fieldCount; field++) {
+            mSamples.lazySet(base + field, readings[field]);
+        }
+        mRing.endWrite();
+    }
+
+    /**
+     * Group cpus by frequency policy and find readable thermal zones.
+     */
+    private void discover() {
+        String[] names = new File(CPU_DIR).list();
+        int[] cpus = new int[MAX_CPUS];
+        int cpuCount = 0;
+        if (names != null) {
+            for (String name : names) {
+                int cpu = cpuNumber(name);
+                if (cpu >= 0 && cpu < MAX_CPUS) {
+                    cpus[cpuCount++] = cpu;
+                }
+            }
+        }
+        Arrays.sort(cpus, 0, cpuCount);
+
+        List<Cluster> clusters = new ArrayList<>();
+        boolean[] grouped = new boolean[MAX_CPUS];
+        for (int i = 0; i < cpuCount && clusters.size() < MAX_CLUSTERS; i++) {
+            int cpu = cpus[i];
+            if (grouped[cpu]) {
+                continue;
+            }
+            String dir = CPU_DIR + "/cpu" + cpu + "/cpufreq/";
+            long hardwareMax = readOnce(dir + "cpuinfo_max_freq", mValues) > 0
+                    ? mValues[0] : -1;
+            if (hardwareMax < 0) {
+                // Offline or no cpufreq, its cluster is found through another cpu.
+                continue;
+            }
+            int related = readOnce(dir + "related_cpus", mValues);
+            if (related <= 0) {
+                mValues[0] = cpu;
+                related = 1;
+            }
+            for (int r = 0; r < related; r++) {
+                if (mValues[r] >= 0 && mValues[r] < MAX_CPUS) {
+                    grouped[(int) mValues[r]] = true;
+                }
+            }
+            clusters.add(new Cluster(formatCpus(mValues, related), hardwareMax,
+                    new ProcFile(dir + "scaling_cur_freq", VALUE_BUFFER_SIZE),
+                    new ProcFile(dir + "scaling_max_freq", VALUE_BUFFER_SIZE)));
+        }
+        mClusters = clusters.toArray(new Cluster[0]);
+
+        List<Zone> zones = new ArrayList<>();
+        String[] zoneNames = new File(THERMAL_DIR).list();
+        if (zoneNames != null) {
+            Arrays.sort(zoneNames);
+            for (String name : zoneNames) {
+                if (!name.startsWith(ZONE_PREFIX) || zones.size() >= MAX_ZONES) {
+                    continue;
+                }
+                String dir = THERMAL_DIR + "/" + name + "/";
+                ProcFile temp = new ProcFile(dir + "temp", VALUE_BUFFER_SIZE);
+                if (toMilliCelsius(readValue(temp)) < 0) {
+                    temp.close();
+                    continue;
+                }
+                String type = readText(dir + "type");
+                zones.add(new Zone(type == null ? name : type, temp));
+            }
+        }
+        mZones = zones.toArray(new Zone[0]);
+    }
+
+    private static int cpuNumber(String name) {
+        if (!name.startsWith("cpu") || name.length() == 3) {
+            return -1;
+        }
+        int cpu = 0;
+        for (int i = 3; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            cpu = cpu * 10 + (c - '0');
+        }
+        return cpu;
+    }
+
+    /**
+     * @return cpus like "0-3", or "0,2" if not contiguous
+     */
+    private static String formatCpus(long[] cpus, int count) {
+        boolean contiguous = true;
+        for (int i = 1; i < count; i++) {
+            contiguous &= cpus[i] == cpus[i - 1] + 1;
+        }
+        if (contiguous) {
+            return count == 1 ? String.valueOf(cpus[0]) : cpus[0] + "-" + cpus[count - 1];
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "" : ",").append(cpus[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Zones report millidegrees, some older kernels degrees or tenths of a degree.
+     *
+     * @return temperature in millidegrees Celsius, -1 if unknown or implausible
+     */
+    private static long toMilliCelsius(long raw) {
+        if (raw <= 0) {
+            return -1;
+        }
+        if (raw < 200) {
+            return raw * 1000;
+        }
+        if (raw < 2000) {
+            return raw * 100;
+        }
+        return raw < 200000 ? raw : -1;
+    }
+
+    /**
+     * @return first number of given file, -1 if unreadable
+     */
+    private long readValue(ProcFile file) {
+        int length = file.read();
+        if (length <= 0 || ProcParser.parseValues(file.buffer(), length, mValues) <= 0) {
+            return -1;
+        }
+        return mValues[0];
+    }
+
+    /**
+     * Read a file of numbers without keeping it open.
+     *
+     * @return number of values parsed
+     */
+    private static int readOnce(String path, long[] values) {
+        ProcFile file = new ProcFile(path, LIST_BUFFER_SIZE);
+        int length = file.read();
+        file.close();
+        return length <= 0 ? 0 : ProcParser.parseValues(file.buffer(), length, values);
+    }
+
+    private static String readText(String path) {
+        ProcFile file = new ProcFile(path, LIST_BUFFER_SIZE);
+        int length = file.read();
+        file.close();
+        if (length <= 0) {
+            return null;
+        }
+        return new String(file.buffer(), 0, length, StandardCharsets.UTF_8).trim();
+    }
+
+    private static final class Cluster {
+
+        final String mCpus;
+        final long mHardwareMaxKhz;
+        final ProcFile mCurrent;
+        final ProcFile mLimit;
+
+        Cluster(String cpus, long hardwareMaxKhz, ProcFile current, ProcFile limit) {
+            mCpus = cpus;
+            mHardwareMaxKhz = hardwareMaxKhz;
+            mCurrent = current;
+            mLimit = limit;
+        }
+    }
+
+    private static final class Zone {
+
+        final String mType;
+        final boolean mCpu;
+        final ProcFile mTemp;
+
+        Zone(String type, ProcFile temp) {
+            mType = type;
+            mCpu = type.toLowerCase(Locale.US).contains("cpu");
+            mTemp = temp;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.ThreadCpu;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dumps cpu usage of every thread of the app while a block is sampled, from
+ * {@code /proc/self/task/<tid>/stat}, and keeps the threads which used most.
+ * <p>
+ * Stat files stay open between samples, the task directory is only listed every
+ * {@link #LIST_INTERVAL} samples and a thread name is only decoded again when it changed.
+ * </p>
+ */
+public class ThreadCpuSampler extends AbstractSampler {
+
+    private static final String TASK_DIR = "/proc/self/task";
+    private static final int STAT_BUFFER_SIZE = 512;
+    private static final int LIST_INTERVAL = 8;
+    private static final int MAX_THREADS = 256;
+    // USER_HZ, the unit of utime and stime, is 100 on Android.
+    private static final long MILLIS_PER_JIFFY = 10;
+
+    // Only touched on timer thread.
+    private final Map<String, ThreadStat> mThreads = new HashMap<>();
+    private final Set<String> mAlive = new HashSet<>();
+    private final ThreadStat[] mTop;
+    private final long[] mValues = new long[ProcParser.STAT_PROCESSOR + 1];
+    private int mSamplesSinceList = LIST_INTERVAL;
+    private long mRunStart;
+
+    private volatile boolean mNewRun = true;
+    private volatile List<ThreadCpu> mTopThreads = Collections.emptyList();
+    private volatile long mTopStart;
+    private volatile long mTopEnd;
+
+    /**
+     * @param topCount number of threads kept per sample
+     */
+    public ThreadCpuSampler(long sampleInterval, int topCount) {
+        super(sampleInterval);
+        mTop = new ThreadStat[topCount];
+    }
+
+    @Override
+    public void start(long delayMillis, long dispatchStartMillis) {
+        mNewRun = true;
+        super.start(delayMillis, dispatchStartMillis);
+    }
+
+    /**
+     * @return threads which used most cpu since sampling started, if the latest sample overlaps
+     * given window, most expensive first
+     */
+    public List<ThreadCpu> getTopThreads(long startTime, long endTime) {
+        List<ThreadCpu> topThreads = mTopThreads;
+        if (mTopStart > endTime || mTopEnd < startTime) {
+            return Collections.emptyList();
+        }
+        return topThreads;
+    }
+
+    @Override
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        blockInfo.setTopThreads(getTopThreads(startTime, endTime));
+    }
+
+    @Override
+    protected void doSample() {
+        long now = getSampleTime();
+        boolean newRun = mNewRun;
+        if (newRun) {
+            mNewRun = false;
+            mRunStart = now;
+        }
+        if (newRun || ++mSamplesSinceList >= LIST_INTERVAL) {
+            mSamplesSinceList = 0;
+            list();
+        }
+
+        ThreadStat[] top = mTop;
+        int topSize = 0;
+        for (ThreadStat thread : mThreads.values()) {
+            if (!thread.read(mValues)) {
+                continue;
+            }
+            if (newRun || !thread.mHasBase) {
+                thread.mBase = thread.mTime;
+                thread.mHasBase = true;
+                continue;
+            }
+            long delta = thread.mTime - thread.mBase;
+            if (delta <= 0 || (topSize == top.length && delta <= top[topSize - 1].delta())) {
+                continue;
+            }
+            int i = topSize < top.length ? topSize++ : topSize - 1;
+            while (i > 0 && top[i - 1].delta() < delta) {
+                top[i] = top[i - 1];
+                i--;
+            }
+            top[i] = thread;
+        }
+
+        if (!newRun) {
+            List<ThreadCpu> topThreads = new ArrayList<>(topSize);
+            for (int i = 0; i < topSize; i++) {
+                ThreadStat thread = top[i];
+                topThreads.add(new ThreadCpu(thread.mTid, thread.mName,
+                        thread.delta() * MILLIS_PER_JIFFY, thread.mState, thread.mProcessor));
+            }
+            mTopStart = mRunStart;
+            mTopEnd = now;
+            mTopThreads = topThreads;
+        }
+    }
+
+    private void list() {
+        String[] tids = new File(TASK_DIR).list();
+        if (tids == null) {
+            return;
+        }
+        Set<String> alive = mAlive;
+        alive.clear();
+        for (String tid : tids) {
+            alive.add(tid);
+            if (!mThreads.containsKey(tid) && mThreads.size() < MAX_THREADS) {
+                try {
+                    mThreads.put(tid, new ThreadStat(Integer.parseInt(tid)));
+                } catch (NumberFormatException ignored) {
+                    // not a thread
+                }
+            }
+        }
+        Iterator<Map.Entry<String, ThreadStat>> iterator = mThreads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ThreadStat> entry = iterator.next();
+            if (!alive.contains(entry.getKey())) {
+                entry.getValue().mFile.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class ThreadStat {
+
+        final int mTid;
+        final ProcFile mFile;
+        byte[] mNameBytes = new byte[0];
+        String mName = "";
+        long mBase;
+        boolean mHasBase;
+        long mTime;
+        char mState;
+        int mProcessor;
+
+        ThreadStat(int tid) {
+            mTid = tid;
+            mFile = new ProcFile(TASK_DIR + "/" + tid + "/stat", STAT_BUFFER_SIZE);
+        }
+
+        long delta() {
+            return mTime - mBase;
+        }
+
+        /**
+         * @return false if the thread is gone or its stat unreadable
+         */
+        boolean read(long[] values) {
+            int length = mFile.read();
+            if (length <= 0) {
+                mHasBase = false;
+                return false;
+            }
+            byte[] buffer = mFile.buffer();
+            if (ProcParser.parseStat(buffer, length, values) <= ProcParser.STAT_PROCESSOR) {
+                return false;
+            }
+            mTime = values[ProcParser.STAT_UTIME] + values[ProcParser.STAT_STIME];
+            mState = (char) values[ProcParser.STAT_STATE];
+            mProcessor = (int) values[ProcParser.STAT_PROCESSOR];
+            updateName(buffer, length);
+            return true;
+        }
+
+        private void updateName(byte[] buffer, int length) {
+            int start = ProcParser.nameStart(buffer, length);
+            int end = ProcParser.nameEnd(buffer, length);
+            if (start < 0 || end < start) {
+                return;
+            }
+            int nameLength = end - start;
+            boolean same = nameLength == mNameBytes.length;
+            for (int i = 0; same && i < nameLength; i++) {
+                same = mNameBytes[i] == buffer[start + i];
+            }
+            if (!same) {
+                mNameBytes = new byte[nameLength];
+                System.arraycopy(buffer, start, mNameBytes, 0, nameLength);
+                mName = new String(mNameBytes, StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
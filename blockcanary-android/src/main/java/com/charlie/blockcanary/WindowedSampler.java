@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary;
+
+import android.util.Log;
+
+import com.nf.blockcanary.internal.BlockInfo;
+
+import java.util.List;
+
+/**
+ * Base of app defined samplers, like frame stats, lock state or a business counter. Each sample
+ * is kept in a {@link SampleStore} and those taken during a block are written to its log as a
+ * section of given name.
+ * <p>
+ * Register instances through {@link BlockCanaryContext#registerSamplers(SamplerRegistry)}. Like
+ * built-in samplers they run on the timer thread while a slow dispatch is sampled.
+ * </p>
+ *
+ * @param <T> sample type, should be immutable
+ */
+public abstract class WindowedSampler<T> extends AbstractSampler {
+
+    private static final String TAG = "WindowedSampler";
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private final String mName;
+    private final SampleStore<T> mStore;
+
+    public WindowedSampler(String name, long sampleInterval) {
+        this(name, sampleInterval, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param name     section name in block logs, a single line without " = "
+     * @param capacity samples kept
+     */
+    public WindowedSampler(String name, long sampleInterval, int capacity) {
+        super(sampleInterval);
+        if (name == null || name.isEmpty() || name.contains(BlockInfo.KV)
+                || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("name should be a single line without \""
+                    + BlockInfo.KV + "\".");
+        }
+        mName = name;
+        mStore = new SampleStore<>(capacity);
+    }
+
+    /**
+     * Take a sample, on the timer thread.
+     *
+     * @return sample to keep, null to skip this one
+     */
+    protected abstract T sample();
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return samples taken within given window, oldest first
+     */
+    public List<SampleStore.Entry<T>> getSamples(long startTime, long endTime) {
+        return mStore.get(startTime, endTime);
+    }
+
+    /**
+     * Format samples of a block as the lines of its section. Lines should not be blank, a blank
+     * line ends the section.
+     */
+    protected String format(List<SampleStore.Entry<T>> samples) {
+        StringBuilder sb = new StringBuilder();
+        for (SampleStore.Entry<T> sample : samples) {
+            BlockInfo.TIME_FORMATTER.format(sample.getTime(), sb)
+                    .append(' ')
+                    .append(sample.getValue())
+                    .append(BlockInfo.SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    protected final void doSample() {
+        T value;
+        try {
+            value = sample();
+        } catch (RuntimeException e) {
+            // An app sampler must not take the timer thread down.
+            Log.e(TAG, "sample: " + mName, e);
+            return;
+        }
+        if (value != null) {
+            mStore.add(getSampleTime(), value);
+        }
+    }
+
+    @Override
+    protected void onBlock(BlockInfo blockInfo, long startTime, long endTime) {
+        List<SampleStore.Entry<T>> samples = getSamples(startTime, endTime);
+        if (!samples.isEmpty()) {
+            blockInfo.addSection(mName, format(samples));
+        }
+    }
+}
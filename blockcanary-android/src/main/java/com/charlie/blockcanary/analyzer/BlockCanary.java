@@ -23,6 +23,11 @@ import android.preference.PreferenceManager;
 import com.nf.blockcanary.BlockCanaryContext;
 import com.nf.blockcanary.BlockCanaryInternals;
 import com.nf.blockcanary.analyzer.ui.DisplayActivity;
+import com.nf.blockcanary.internal.DispatchSource;
+import com.nf.blockcanary.internal.LatencySnapshot;
+import com.nf.blockcanary.internal.OverheadSnapshot;
+import com.nf.blockcanary.internal.WriteQueueSnapshot;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -84,7 +89,7 @@ public final class BlockCanary {
     public void start() {
         if (!mMonitorStarted) {
             mMonitorStarted = true;
-            Looper.getMainLooper().setMessageLogging(mBlockCanaryCore.monitor);
+            mBlockCanaryCore.startMonitor();
         }
     }
 
@@ -94,12 +99,96 @@ public final class BlockCanary {
     public void stop() {
         if (mMonitorStarted) {
             mMonitorStarted = false;
-            Looper.getMainLooper().setMessageLogging(null);
-            mBlockCanaryCore.stackSampler.stop();
-            mBlockCanaryCore.cpuSampler.stop();
+            mBlockCanaryCore.stopMonitor();
         }
     }
 
+    /**
+     * Watch another looper besides main looper, like a render, database or IPC
+     * {@code HandlerThread}. Each watched looper gets its own monitor, stack samples and
+     * threshold, blocks record which looper they came from.
+     *
+     * @param looper               looper to watch
+     * @param blockThresholdMillis dispatch over this duration is regarded as a block
+     */
+    public void watch(Looper looper, long blockThresholdMillis) {
+        mBlockCanaryCore.watch(looper, blockThresholdMillis);
+    }
+
+    /**
+     * Stop watching a looper added by {@link #watch(Looper, long)}.
+     */
+    public void unwatch(Looper looper) {
+        mBlockCanaryCore.unwatch(looper);
+    }
+
+    /**
+     * Latency distribution of every dispatch of a watched looper since it is watched.
+     *
+     * @return {@link LatencySnapshot} with percentiles in nanoseconds, null if not watched
+     */
+    public LatencySnapshot getDispatchLatency(Looper looper) {
+        return mBlockCanaryCore.getDispatchLatency(looper);
+    }
+
+    /**
+     * Latency distribution of every main thread dispatch since install, not only blocks.
+     *
+     * @return {@link LatencySnapshot} with percentiles in nanoseconds
+     */
+    public LatencySnapshot getDispatchLatency() {
+        return mBlockCanaryCore.getDispatchLatency();
+    }
+
+    /**
+     * Latency distribution of main thread dispatches since the previous call, call it
+     * periodically to report main thread health per time window.
+     *
+     * @return {@link LatencySnapshot} with percentiles in nanoseconds
+     */
+    public LatencySnapshot getDispatchLatencyWindow() {
+        return mBlockCanaryCore.getDispatchLatencyWindow();
+    }
+
+    /**
+     * Most expensive message sources (target Handler class and callback class) on main thread,
+     * by cumulative dispatch time since install.
+     *
+     * @param count max number of sources
+     * @return copies of sources, most expensive first
+     */
+    public List<DispatchSource> getTopDispatchSources(int count) {
+        return mBlockCanaryCore.getTopDispatchSources(count);
+    }
+
+    /**
+     * BlockCanary's own cost since install: time spent in its hooks on the main thread, and in
+     * sampling and block writing on its own threads, as totals and percentages.
+     *
+     * @return snapshot of overhead counters
+     */
+    public OverheadSnapshot getOverheadStats() {
+        return mBlockCanaryCore.getOverheadStats();
+    }
+
+    /**
+     * Counters of the queue blocks wait in to be written: depth, batch sizes, and blocks dropped
+     * or aggregated by {@link BlockCanaryContext#provideBlockOverflowPolicy()} during storms.
+     *
+     * @return snapshot of write queue counters
+     */
+    public WriteQueueSnapshot getWriteQueueStats() {
+        return mBlockCanaryCore.getWriteQueueStats();
+    }
+
+    /**
+     * Capture uid, network and memory again for later blocks, call it after the uid changes.
+     * Connectivity changes and memory pressure refresh them already.
+     */
+    public void refreshEnvironment() {
+        mBlockCanaryCore.refreshEnvironment();
+    }
+
     /**
      * Zip and upload log files, will user context's zip and log implementation.
      */
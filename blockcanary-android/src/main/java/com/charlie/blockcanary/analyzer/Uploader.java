@@ -18,34 +18,37 @@ package com.nf.blockcanary.analyzer;
 import android.util.Log;
 
 import com.nf.blockcanary.BlockCanaryInternals;
+import com.nf.blockcanary.BlockStore;
 import com.nf.blockcanary.HandlerThreadFactory;
 import com.nf.blockcanary.LogWriter;
+import com.nf.blockcanary.internal.BlockInfo;
+import com.nf.blockcanary.internal.TimestampFormatter;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 final class Uploader {
 
   private static final String TAG = "Uploader";
-  private static final SimpleDateFormat FORMAT =
-      new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+  private static final TimestampFormatter FORMAT =
+      new TimestampFormatter("yyyy-MM-dd-HH-mm-ss");
 
   private Uploader() {
     throw new InstantiationError("Must not instantiate this class");
   }
 
   private static File zip() {
-    String timeString = Long.toString(System.currentTimeMillis());
-    try {
-      timeString = FORMAT.format(new Date());
-    } catch (Throwable e) {
-      Log.e(TAG, "zip: ", e);
-    }
+    String timeString = FORMAT.format(System.currentTimeMillis());
     File zippedFile = LogWriter.generateTempZip("BlockCanary-" + timeString);
-    boolean success =
-        BlockCanaryInternals.getContext().zip(BlockCanaryInternals.getLogFiles(), zippedFile);
+    // Blocks are zipped as text logs, the layout receivers of earlier versions parse.
+    List<File> texts = renderBlocks();
+    boolean success = BlockCanaryInternals.getContext()
+        .zip(texts.toArray(new File[texts.size()]), zippedFile);
+    for (File text : texts) {
+      text.delete();
+    }
     if (!success) {
       return null;
     }
@@ -53,6 +56,36 @@ final class Uploader {
     return zippedFile;
   }
 
+  /**
+   * Render every stored block as a text file, skipping files which could not be read.
+   */
+  private static List<File> renderBlocks() {
+    List<File> texts = new ArrayList<>();
+    BlockStore.Cursor cursor = BlockStore.get().query();
+    try {
+      while (true) {
+        BlockInfo blockInfo = new BlockInfo();
+        try {
+          if (!cursor.next(blockInfo)) {
+            break;
+          }
+        } catch (IOException e) {
+          Log.w(TAG, "renderBlocks: skipped " + cursor.getFile(), e);
+          continue;
+        }
+        String name = cursor.getFile().getName();
+        File text = LogWriter.renderText(blockInfo, cursor.getWriteTime(),
+            name.substring(0, name.lastIndexOf('.')) + "-" + cursor.getIndex());
+        if (text != null) {
+          texts.add(text);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return texts;
+  }
+
   public static void zipAndUpload() {
     HandlerThreadFactory.getWriteLogThreadHandler().post(new Runnable() {
       @Override
@@ -10,7 +10,7 @@ public class BlockInfoCorruptException extends Exception {
 
     public BlockInfoCorruptException(BlockInfoEx blockInfo) {
         this(String.format(Locale.US,
-                "BlockInfo (%s) is corrupt.", blockInfo.logFile.getName()));
+                "BlockInfo (%s) is corrupt.", blockInfo.key));
     }
 
     public BlockInfoCorruptException(String detailMessage) {
@@ -42,11 +42,12 @@ import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import com.nf.blockcanary.BlockCanaryContext;
-import com.nf.blockcanary.BlockCanaryInternals;
+import com.nf.blockcanary.BlockStore;
 import com.nf.blockcanary.LogWriter;
 import com.nf.blockcanary.R;
 import com.nf.blockcanary.internal.BlockInfo;
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -161,8 +162,7 @@ public class DisplayActivity extends Activity {
               @Override
               public int compare(BlockInfoEx lhs, BlockInfoEx rhs) {
                 if (sortByTime) {
-                  return Long.valueOf(rhs.logFile.lastModified())
-                      .compareTo(lhs.logFile.lastModified());
+                  return Long.valueOf(rhs.writeTime).compareTo(lhs.writeTime);
                 } else {
                   return Long.valueOf(rhs.timeCost).compareTo(lhs.timeCost);
                 }
@@ -205,7 +205,11 @@ public class DisplayActivity extends Activity {
   }
 
   private void shareHeapDump(BlockInfoEx blockInfo) {
-    File heapDumpFile = blockInfo.logFile;
+    File heapDumpFile = LogWriter.renderText(blockInfo, blockInfo.writeTime,
+        blockInfo.getShareName());
+    if (heapDumpFile == null) {
+      return;
+    }
 
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
       heapDumpFile.setReadable(true, false);
@@ -295,13 +299,13 @@ public class DisplayActivity extends Activity {
     super.onActivityResult(requestCode, resultCode, data);
 
     if (requestCode == 0 && resultCode == RESULT_OK) {
-      String logName = data.getStringExtra("details_result");
-      if (TextUtils.isEmpty(logName)) {
+      String key = data.getStringExtra("details_result");
+      if (TextUtils.isEmpty(key)) {
         return;
       }
       BlockInfo info = null;
       for (int i = 0; i < mBlockInfoEntries.size(); i++) {
-        if (Objects.equals(mBlockInfoEntries.get(i).logFile.getName(), logName)) {
+        if (Objects.equals(mBlockInfoEntries.get(i).key, key)) {
           info = mBlockInfoEntries.get(i);
         }
       }
@@ -351,7 +355,7 @@ public class DisplayActivity extends Activity {
           getString(R.string.block_canary_class_has_blocked, blockInfo.timeCost);
       titleView.setText(title);
       String time = DateUtils.formatDateTime(DisplayActivity.this,
-          blockInfo.logFile.lastModified(), FORMAT_SHOW_TIME | FORMAT_SHOW_DATE);
+          blockInfo.writeTime, FORMAT_SHOW_TIME | FORMAT_SHOW_DATE);
       timeView.setText(time);
       return convertView;
     }
@@ -385,50 +389,64 @@ public class DisplayActivity extends Activity {
     @Override
     public void run() {
       final List<BlockInfoEx> blockInfoList = new ArrayList<>();
-      File[] files = BlockCanaryInternals.getLogFiles();
-      if (files != null) {
-        for (File blockFile : files) {
+      List<String> deletedKeys = new ArrayList<>();
+      BlockStore store = BlockStore.get();
+      BlockStore.Cursor cursor = store.query();
+      try {
+        while (true) {
+          BlockInfoEx blockInfo;
           try {
-            BlockInfoEx blockInfo = BlockInfoEx.newInstance(blockFile);
-            if (!BlockCanaryUtils.isBlockInfoValid(blockInfo)) {
-              throw new BlockInfoCorruptException(blockInfo);
-            }
-
-            boolean needAddToList = true;
+            blockInfo = BlockInfoEx.newInstance(cursor);
+          } catch (IOException e) {
+            // Probably blockFile corrupts or format changes, drop blocks from the failed one.
+            store.deleteUnreadable(cursor);
+            Log.e(TAG, "Could not read block log file from block " + (cursor.getIndex() + 1)
+                + " :" + cursor.getFile(), e);
+            continue;
+          }
+          if (blockInfo == null) {
+            break;
+          }
+          if (!BlockCanaryUtils.isBlockInfoValid(blockInfo)) {
+            deletedKeys.add(blockInfo.key);
+            Log.e(TAG, "Could not read block, deleted :" + blockInfo.key,
+                new BlockInfoCorruptException(blockInfo));
+            continue;
+          }
 
-            if (BlockCanaryUtils.isInWhiteList(blockInfo)) {
-              if (BlockCanaryContext.get().deleteFilesInWhiteList()) {
-                blockFile.delete();
-                blockFile = null;
-              }
-              needAddToList = false;
-            }
+          boolean needAddToList = true;
 
-            blockInfo.concernStackString = BlockCanaryUtils.concernStackString(blockInfo);
-            if (BlockCanaryContext.get().filterNonConcernStack() &&
-                TextUtils.isEmpty(blockInfo.concernStackString)) {
-              needAddToList = false;
+          if (BlockCanaryUtils.isInWhiteList(blockInfo)) {
+            if (BlockCanaryContext.get().deleteFilesInWhiteList()) {
+              deletedKeys.add(blockInfo.key);
             }
+            needAddToList = false;
+          }
 
-            if (needAddToList && blockFile != null) {
-              blockInfoList.add(blockInfo);
-            }
-          } catch (Exception e) {
-            // Probably blockFile corrupts or format changes, just delete it.
-            blockFile.delete();
-            Log.e(TAG, "Could not read block log file, deleted :" + blockFile, e);
+          blockInfo.concernStackString = BlockCanaryUtils.concernStackString(blockInfo);
+          if (BlockCanaryContext.get().filterNonConcernStack() &&
+              TextUtils.isEmpty(blockInfo.concernStackString)) {
+            needAddToList = false;
           }
-        }
-        Collections.sort(blockInfoList, new Comparator<BlockInfoEx>() {
-          @Override
-          public int compare(BlockInfoEx lhs, BlockInfoEx rhs) {
-            //return Long.valueOf(rhs.logFile.lastModified())
-            //        .compareTo(lhs.logFile.lastModified());
 
-            return Long.valueOf(rhs.timeCost).compareTo(lhs.timeCost);
+          if (needAddToList) {
+            blockInfoList.add(blockInfo);
           }
-        });
+        }
+      } finally {
+        cursor.close();
+      }
+      if (!deletedKeys.isEmpty()) {
+        store.delete(deletedKeys);
       }
+      Collections.sort(blockInfoList, new Comparator<BlockInfoEx>() {
+        @Override
+        public int compare(BlockInfoEx lhs, BlockInfoEx rhs) {
+          //return Long.valueOf(rhs.writeTime).compareTo(lhs.writeTime);
+
+          return Long.valueOf(rhs.timeCost).compareTo(lhs.timeCost);
+        }
+      });
       mainHandler.post(new Runnable() {
         @Override
         public void run() {
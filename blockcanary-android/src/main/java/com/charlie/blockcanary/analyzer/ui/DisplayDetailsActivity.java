@@ -42,10 +42,11 @@ import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import com.nf.blockcanary.BlockCanaryContext;
-import com.nf.blockcanary.BlockCanaryInternals;
+import com.nf.blockcanary.BlockStore;
 import com.nf.blockcanary.LogWriter;
 import com.nf.blockcanary.R;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -190,7 +191,11 @@ public class DisplayDetailsActivity extends Activity {
   }
 
   private void shareHeapDump(BlockInfoEx blockInfo) {
-    File heapDumpFile = blockInfo.logFile;
+    File heapDumpFile = LogWriter.renderText(blockInfo, blockInfo.writeTime,
+        blockInfo.getShareName());
+    if (heapDumpFile == null) {
+      return;
+    }
 
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
       heapDumpFile.setReadable(true, false);
@@ -245,8 +250,8 @@ public class DisplayDetailsActivity extends Activity {
       public void onClick(View v) {
         if (blockInfo != null) {
           Intent intent = new Intent();
-          intent.putExtra("details_result", blockInfo.logFile.getName());
-          blockInfo.logFile.delete();
+          intent.putExtra("details_result", blockInfo.key);
+          LogWriter.delete(Collections.singletonList(blockInfo.key));
           setResult(RESULT_OK, intent);
           finish();
         }
@@ -296,50 +301,64 @@ public class DisplayDetailsActivity extends Activity {
     @Override
     public void run() {
       final List<BlockInfoEx> blockInfoList = new ArrayList<>();
-      File[] files = BlockCanaryInternals.getLogFiles();
-      if (files != null) {
-        for (File blockFile : files) {
+      List<String> deletedKeys = new ArrayList<>();
+      BlockStore store = BlockStore.get();
+      BlockStore.Cursor cursor = store.query();
+      try {
+        while (true) {
+          BlockInfoEx blockInfo;
           try {
-            BlockInfoEx blockInfo = BlockInfoEx.newInstance(blockFile);
-            if (!BlockCanaryUtils.isBlockInfoValid(blockInfo)) {
-              throw new BlockInfoCorruptException(blockInfo);
-            }
-
-            boolean needAddToList = true;
+            blockInfo = BlockInfoEx.newInstance(cursor);
+          } catch (IOException e) {
+            // Probably blockFile corrupts or format changes, drop blocks from the failed one.
+            store.deleteUnreadable(cursor);
+            Log.e(TAG, "Could not read block log file from block " + (cursor.getIndex() + 1)
+                + " :" + cursor.getFile(), e);
+            continue;
+          }
+          if (blockInfo == null) {
+            break;
+          }
+          if (!BlockCanaryUtils.isBlockInfoValid(blockInfo)) {
+            deletedKeys.add(blockInfo.key);
+            Log.e(TAG, "Could not read block, deleted :" + blockInfo.key,
+                new BlockInfoCorruptException(blockInfo));
+            continue;
+          }
 
-            if (BlockCanaryUtils.isInWhiteList(blockInfo)) {
-              if (BlockCanaryContext.get().deleteFilesInWhiteList()) {
-                blockFile.delete();
-                blockFile = null;
-              }
-              needAddToList = false;
-            }
+          boolean needAddToList = true;
 
-            blockInfo.concernStackString = BlockCanaryUtils.concernStackString(blockInfo);
-            if (BlockCanaryContext.get().filterNonConcernStack() &&
-                TextUtils.isEmpty(blockInfo.concernStackString)) {
-              needAddToList = false;
+          if (BlockCanaryUtils.isInWhiteList(blockInfo)) {
+            if (BlockCanaryContext.get().deleteFilesInWhiteList()) {
+              deletedKeys.add(blockInfo.key);
             }
+            needAddToList = false;
+          }
 
-            if (needAddToList && blockFile != null) {
-              blockInfoList.add(blockInfo);
-            }
-          } catch (Exception e) {
-            // Probably blockFile corrupts or format changes, just delete it.
-            blockFile.delete();
-            Log.e(TAG, "Could not read block log file, deleted :" + blockFile, e);
+          blockInfo.concernStackString = BlockCanaryUtils.concernStackString(blockInfo);
+          if (BlockCanaryContext.get().filterNonConcernStack() &&
+              TextUtils.isEmpty(blockInfo.concernStackString)) {
+            needAddToList = false;
           }
-        }
-        Collections.sort(blockInfoList, new Comparator<BlockInfoEx>() {
-          @Override
-          public int compare(BlockInfoEx lhs, BlockInfoEx rhs) {
-            //return Long.valueOf(rhs.logFile.lastModified())
-            //        .compareTo(lhs.logFile.lastModified());
 
-            return Long.valueOf(rhs.timeCost).compareTo(lhs.timeCost);
+          if (needAddToList) {
+            blockInfoList.add(blockInfo);
           }
-        });
+        }
+      } finally {
+        cursor.close();
+      }
+      if (!deletedKeys.isEmpty()) {
+        store.delete(deletedKeys);
       }
+      Collections.sort(blockInfoList, new Comparator<BlockInfoEx>() {
+        @Override
+        public int compare(BlockInfoEx lhs, BlockInfoEx rhs) {
+          //return Long.valueOf(rhs.writeTime).compareTo(lhs.writeTime);
+
+          return Long.valueOf(rhs.timeCost).compareTo(lhs.timeCost);
+        }
+      });
       mainHandler.post(new Runnable() {
         @Override
         public void run() {
@@ -16,27 +16,22 @@
 package com.nf.blockcanary.internal;
 
 
-import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.os.Build;
-import android.telephony.TelephonyManager;
-import android.util.Log;
+import com.nf.blockcanary.CpuSampler;
 
-import com.nf.blockcanary.BlockCanaryInternals;
-
-import java.text.SimpleDateFormat;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Locale;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Information to trace a block.
  */
 public class BlockInfo {
 
-    private static final String TAG = "BlockInfo";
-
-    public static final SimpleDateFormat TIME_FORMATTER =
-            new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    public static final TimestampFormatter TIME_FORMATTER =
+            new TimestampFormatter("MM-dd HH:mm:ss.SSS");
 
     public static final String SEPARATOR = "\r\n";
     public static final String KV = " = ";
@@ -61,91 +56,161 @@ public class BlockInfo {
     public static final String KEY_VERSION_CODE = "versionCode";
     public static final String KEY_NETWORK = "network";
     public static final String KEY_TOTAL_MEMORY = "totalMemory";
+    public static final String KEY_GC_SPAN = "gc-span";
+    public static final String KEY_GC_COUNT = "gc-count";
+    public static final String KEY_GC_TIME = "gc-time";
+    public static final String KEY_GC_BLOCKING_COUNT = "gc-blocking-count";
+    public static final String KEY_GC_BLOCKING_TIME = "gc-blocking-time";
+    public static final String KEY_HEAP_USED = "heap-used";
+    public static final String KEY_HEAP_MAX = "heap-max";
+    public static final String KEY_NATIVE_HEAP = "native-heap";
     public static final String KEY_FREE_MEMORY = "freeMemory";
+    public static final String KEY_ENVIRONMENT = "env-id";
+    public static final String KEY_LOOPER = "looper";
+    public static final String KEY_DISPATCH_SOURCE = "dispatch-source";
+    public static final String KEY_TOP_SOURCES = "top-sources";
+    public static final String KEY_SECTION = "section";
+    public static final String KEY_TOP_THREADS = "top-threads";
+    public static final String KEY_CPU_FREQ = "cpu-freq";
+    public static final String KEY_THERMAL = "thermal";
+    public static final String KEY_IO_SPAN = "io-span";
+    public static final String KEY_IO_READ_BYTES = "io-read-bytes";
+    public static final String KEY_IO_WRITE_BYTES = "io-write-bytes";
+    public static final String KEY_IO_SYSCR = "io-syscr";
+    public static final String KEY_IO_SYSCW = "io-syscw";
+    public static final String KEY_IO_RCHAR = "io-rchar";
+    public static final String KEY_IO_WCHAR = "io-wchar";
+    public static final String KEY_IO_THREAD_READ_BYTES = "io-thread-read-bytes";
+    public static final String KEY_IO_THREAD_WRITE_BYTES = "io-thread-write-bytes";
+    public static final String KEY_IO_THREAD_SYSCR = "io-thread-syscr";
+    public static final String KEY_IO_THREAD_SYSCW = "io-thread-syscw";
+    public static final String KEY_SCHED_SPAN = "sched-span";
+    public static final String KEY_SCHED_ON_CPU = "sched-on-cpu";
+    public static final String KEY_SCHED_RUNNABLE = "sched-runnable";
+    public static final String KEY_SCHED_SLEEPING = "sched-sleeping";
+    public static final String KEY_SCHED_SLICES = "sched-slices";
+    public static final String KEY_SCHED_VOLUNTARY = "sched-voluntary";
+    public static final String KEY_SCHED_INVOLUNTARY = "sched-involuntary";
 
-    public static String sQualifier;
-    public static String sModel;
-    public static String sApiLevel = "";
+    public String qualifier;
+    public String model;
+    public String apiLevel = "";
     /**
      * The International Mobile Equipment Identity or IMEI /aɪˈmiː/ is a number,
      * usually unique, to identify 3GPP and iDEN mobile phones
      */
-    public static String sImei = "";
-    public static int sCpuCoreNum = -1;
-
-    public String qualifier;
-    public String model;
-    public String apiLevel = "";
     public String imei = "";
     public int cpuCoreNum = -1;
 
     // Per Block Info fields
     public String uid;
     public String processName;
+    public String looperName = "";
+    /**
+     * Linux thread id of the looper thread, 0 if unknown. Not written to logs.
+     */
+    public int looperThreadId;
     public String versionName = "";
     public int versionCode;
     public String network;
     public String freeMemory;
     public String totalMemory;
+    /**
+     * Id of the {@link EnvironmentSnapshot} the fields above came from, 0 if unknown.
+     */
+    public int environmentId;
+    /**
+     * Collections during the block and heap usage in KB, -1 when unknown.
+     */
+    public long gcSpan = -1;
+    public long gcCount = -1;
+    public long gcTime = -1;
+    public long gcBlockingCount = -1;
+    public long gcBlockingTime = -1;
+    public long heapUsed = -1;
+    public long heapMax = -1;
+    public long nativeHeap = -1;
     public long timeCost;
+    /**
+     * Thread time of the whole dispatch, -1 if unknown, as when only the span since the dispatch
+     * was flagged slow was measured. That span is in {@link #schedSpan} and {@link #schedOnCpu}.
+     */
     public long threadTimeCost;
     public String timeStart;
+    /**
+     * Wall time the block started at, 0 if unknown as in text logs. Not written to text logs.
+     */
+    public long realTimeStart;
     public String timeEnd;
+    /**
+     * Scheduling breakdown of the looper thread, -1 when unknown.
+     */
+    public long schedSpan = -1;
+    public long schedOnCpu = -1;
+    public long schedRunnable = -1;
+    public long schedSleeping = -1;
+    public long schedSlices = -1;
+    public long schedVoluntary = -1;
+    public long schedInvoluntary = -1;
     public boolean cpuBusy;
     public String cpuRateInfo;
+    public List<CpuSample> cpuSamples = new ArrayList<>();
+    public String topThreadsInfo = "";
+    public String cpuFreqInfo = "";
+    public String thermalInfo = "";
+    /**
+     * Storage I/O during the block, of the app and of the looper thread, -1 when unknown.
+     */
+    public long ioSpan = -1;
+    public long ioReadBytes = -1;
+    public long ioWriteBytes = -1;
+    public long ioReadCalls = -1;
+    public long ioWriteCalls = -1;
+    public long ioReadChars = -1;
+    public long ioWriteChars = -1;
+    public long ioThreadReadBytes = -1;
+    public long ioThreadWriteBytes = -1;
+    public long ioThreadReadCalls = -1;
+    public long ioThreadWriteCalls = -1;
+    public String dispatchSource = "";
+    public String topSourcesInfo = "";
     public ArrayList<String> threadStackEntries = new ArrayList<>();
+    /**
+     * Sections added by app samplers, by name.
+     */
+    public Map<String, String> sections = new LinkedHashMap<>();
 
     private StringBuilder basicSb = new StringBuilder();
     private StringBuilder cpuSb = new StringBuilder();
     private StringBuilder timeSb = new StringBuilder();
     private StringBuilder stackSb = new StringBuilder();
-    private static final String EMPTY_IMEI = "empty_imei";
-
-    static {
-        sCpuCoreNum = PerformanceUtils.getNumCores();
-        sModel = Build.MODEL;
-        sApiLevel = Build.VERSION.SDK_INT + " " + Build.VERSION.RELEASE;
-        sQualifier = BlockCanaryInternals.getContext().provideQualifier();
-        try {
-            TelephonyManager telephonyManager = (TelephonyManager) BlockCanaryInternals
-                    .getContext()
-                    .provideContext()
-                    .getSystemService(Context.TELEPHONY_SERVICE);
-            sImei = telephonyManager.getDeviceId();
-        } catch (Exception exception) {
-            Log.e(TAG, NEW_INSTANCE_METHOD, exception);
-            sImei = EMPTY_IMEI;
-        }
-    }
 
     public BlockInfo() {
     }
 
+    /**
+     * Create a block with fields of {@link EnvironmentSnapshot#current()}, no binder calls are
+     * made once a snapshot exists.
+     */
     public static BlockInfo newInstance() {
-        BlockInfo blockInfo = new BlockInfo();
-        Context context = BlockCanaryInternals.getContext().provideContext();
-        if (blockInfo.versionName == null || blockInfo.versionName.length() == 0) {
-            try {
-                PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
-                blockInfo.versionCode = info.versionCode;
-                blockInfo.versionName = info.versionName;
-            } catch (Throwable e) {
-                Log.e(TAG, NEW_INSTANCE_METHOD, e);
-            }
-        }
-
-        blockInfo.cpuCoreNum = sCpuCoreNum;
-        blockInfo.model = sModel;
-        blockInfo.apiLevel = sApiLevel;
-        blockInfo.qualifier = sQualifier;
-        blockInfo.imei = sImei;
-        blockInfo.uid = BlockCanaryInternals.getContext().provideUid();
-        blockInfo.processName = ProcessUtils.myProcessName();
-        blockInfo.network = BlockCanaryInternals.getContext().provideNetworkType();
-        blockInfo.freeMemory = String.valueOf(PerformanceUtils.getFreeMemory());
-        blockInfo.totalMemory = String.valueOf(PerformanceUtils.getTotalMemory());
+        return new BlockInfo().setEnvironment(EnvironmentSnapshot.current());
+    }
 
-        return blockInfo;
+    public BlockInfo setEnvironment(EnvironmentSnapshot environment) {
+        environmentId = environment.getId();
+        qualifier = environment.getQualifier();
+        model = environment.getModel();
+        apiLevel = environment.getApiLevel();
+        imei = environment.getImei();
+        cpuCoreNum = environment.getCpuCoreNum();
+        versionName = environment.getVersionName();
+        versionCode = environment.getVersionCode();
+        uid = environment.getUid();
+        processName = environment.getProcessName();
+        network = environment.getNetwork();
+        freeMemory = String.valueOf(environment.getFreeMemory());
+        totalMemory = String.valueOf(environment.getTotalMemory());
+        return this;
     }
 
     public BlockInfo setCpuBusyFlag(boolean busy) {
@@ -158,20 +223,333 @@ public class BlockInfo {
         return this;
     }
 
+    /**
+     * @param samples cpu samples of the block window, formatted by {@link #flushString()}
+     */
+    public BlockInfo setCpuSamples(List<CpuSample> samples) {
+        cpuSamples = samples;
+        cpuRateInfo = null;
+        return this;
+    }
+
+    /**
+     * @param topThreads threads which used most cpu during the block
+     */
+    public BlockInfo setTopThreads(List<ThreadCpu> topThreads) {
+        StringBuilder sb = new StringBuilder();
+        for (ThreadCpu thread : topThreads) {
+            sb.append(thread).append(SEPARATOR);
+        }
+        topThreadsInfo = sb.toString();
+        return this;
+    }
+
+    /**
+     * @param thermal cpu cluster frequencies and temperatures during the block
+     */
+    public BlockInfo setThermal(ThermalSummary thermal) {
+        StringBuilder sb = new StringBuilder();
+        for (ThermalSummary.Cluster cluster : thermal.getClusters()) {
+            sb.append(cluster).append(SEPARATOR);
+        }
+        cpuFreqInfo = sb.toString();
+        thermalInfo = thermal.getTemperatureString();
+        return this;
+    }
+
+    /**
+     * @param memory garbage collections and heap usage during the block
+     */
+    public BlockInfo setMemory(MemorySummary memory) {
+        gcSpan = memory.getSpanMillis();
+        gcCount = memory.getGcCount();
+        gcTime = memory.getGcTimeMillis();
+        gcBlockingCount = memory.getBlockingGcCount();
+        gcBlockingTime = memory.getBlockingGcTimeMillis();
+        heapUsed = memory.getHeapUsedKb();
+        heapMax = memory.getHeapMaxKb();
+        nativeHeap = memory.getNativeHeapKb();
+        return this;
+    }
+
+    /**
+     * @param io storage I/O during the block
+     */
+    public BlockInfo setIo(IoSummary io) {
+        ioSpan = io.getSpanMillis();
+        ioReadBytes = io.getReadBytes();
+        ioWriteBytes = io.getWriteBytes();
+        ioReadCalls = io.getReadCalls();
+        ioWriteCalls = io.getWriteCalls();
+        ioReadChars = io.getReadChars();
+        ioWriteChars = io.getWriteChars();
+        ioThreadReadBytes = io.getThreadReadBytes();
+        ioThreadWriteBytes = io.getThreadWriteBytes();
+        ioThreadReadCalls = io.getThreadReadCalls();
+        ioThreadWriteCalls = io.getThreadWriteCalls();
+        return this;
+    }
+
     public BlockInfo setThreadStackEntries(ArrayList<String> threadStackEntries) {
         this.threadStackEntries = threadStackEntries;
         return this;
     }
 
+    /**
+     * @param name name of the looper thread which blocked
+     */
+    public BlockInfo setLooperName(String name) {
+        looperName = name;
+        return this;
+    }
+
+    /**
+     * @param threadId linux thread id of the looper thread which blocked
+     */
+    public BlockInfo setLooperThreadId(int threadId) {
+        looperThreadId = threadId;
+        return this;
+    }
+
+    /**
+     * Add a section, written after the cpu section.
+     *
+     * @param name single line name, a section of the same name is replaced
+     * @param text lines of the section, a blank line would end it early
+     */
+    public BlockInfo addSection(String name, String text) {
+        sections.put(name, text);
+        return this;
+    }
+
+    /**
+     * @param source     source of the blocking message, may be null
+     * @param topSources most expensive sources across all messages
+     */
+    public BlockInfo setDispatchSources(DispatchSource source, List<DispatchSource> topSources) {
+        dispatchSource = source == null ? "" : source.getName();
+        StringBuilder sb = new StringBuilder();
+        for (DispatchSource topSource : topSources) {
+            sb.append(topSource).append(SEPARATOR);
+        }
+        topSourcesInfo = sb.toString();
+        return this;
+    }
+
     public BlockInfo setMainThreadTimeCost(long realTimeStart, long realTimeEnd, long threadTimeStart, long threadTimeEnd) {
+        this.realTimeStart = realTimeStart;
         timeCost = realTimeEnd - realTimeStart;
-        threadTimeCost = threadTimeEnd - threadTimeStart;
+        threadTimeCost = threadTimeStart < 0 || threadTimeEnd < 0 ? -1
+                : threadTimeEnd - threadTimeStart;
         timeStart = TIME_FORMATTER.format(realTimeStart);
         timeEnd = TIME_FORMATTER.format(realTimeEnd);
         return this;
     }
 
+    /**
+     * @param sched where the looper thread spent the block, null if schedstat was unavailable
+     */
+    public BlockInfo setThreadSched(ThreadSched sched) {
+        if (sched != null) {
+            schedSpan = sched.getSpanMillis();
+            schedOnCpu = sched.getOnCpuMillis();
+            schedRunnable = sched.getRunnableMillis();
+            schedSleeping = sched.getSleepingMillis();
+            schedSlices = sched.getTimeslices();
+            schedVoluntary = sched.getVoluntarySwitches();
+            schedInvoluntary = sched.getInvoluntarySwitches();
+        }
+        return this;
+    }
+
+    /**
+     * Read a block from a text log as older versions wrote it, text fields are left for
+     * {@link #flushString()}.
+     */
+    public BlockInfo readText(BufferedReader reader) throws IOException {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.startsWith(KEY_QUA)) {
+                qualifier = line.split(KV)[1];
+            } else if (line.startsWith(KEY_MODEL)) {
+                model = line.split(KV)[1];
+            } else if (line.startsWith(KEY_API)) {
+                apiLevel = line.split(KV)[1];
+            } else if (line.startsWith(KEY_IMEI)) {
+                imei = line.split(KV)[1];
+            } else if (line.startsWith(KEY_CPU_CORE)) {
+                cpuCoreNum = Integer.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_UID)) {
+                uid = line.split(KV)[1];
+            } else if (line.startsWith(KEY_TIME_COST_START)) {
+                timeStart = line.split(KV)[1];
+            } else if (line.startsWith(KEY_TIME_COST_END)) {
+                timeEnd = line.split(KV)[1];
+            } else if (line.startsWith(KEY_TIME_COST)) {
+                timeCost = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_THREAD_TIME_COST)) {
+                threadTimeCost = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_SPAN)) {
+                schedSpan = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_ON_CPU)) {
+                schedOnCpu = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_RUNNABLE)) {
+                schedRunnable = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_SLEEPING)) {
+                schedSleeping = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_SLICES)) {
+                schedSlices = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_VOLUNTARY)) {
+                schedVoluntary = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SCHED_INVOLUNTARY)) {
+                schedInvoluntary = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_PROCESS)) {
+                processName = line.split(KV)[1];
+            } else if (line.startsWith(KEY_LOOPER)) {
+                String[] split = line.split(KV);
+                looperName = split.length > 1 ? split[1] : "";
+            } else if (line.startsWith(KEY_VERSION_NAME)) {
+                versionName = line.split(KV)[1];
+            } else if (line.startsWith(KEY_VERSION_CODE)) {
+                versionCode = Integer.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_NETWORK)) {
+                network = line.split(KV)[1];
+            } else if (line.startsWith(KEY_TOTAL_MEMORY)) {
+                totalMemory = line.split(KV)[1];
+            } else if (line.startsWith(KEY_FREE_MEMORY)) {
+                freeMemory = line.split(KV)[1];
+            } else if (line.startsWith(KEY_ENVIRONMENT)) {
+                environmentId = Integer.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_GC_SPAN)) {
+                gcSpan = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_GC_COUNT)) {
+                gcCount = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_GC_TIME)) {
+                gcTime = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_GC_BLOCKING_COUNT)) {
+                gcBlockingCount = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_GC_BLOCKING_TIME)) {
+                gcBlockingTime = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_HEAP_USED)) {
+                heapUsed = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_HEAP_MAX)) {
+                heapMax = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_NATIVE_HEAP)) {
+                nativeHeap = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_DISPATCH_SOURCE)) {
+                String[] split = line.split(KV);
+                dispatchSource = split.length > 1 ? split[1] : "";
+            } else if (line.startsWith(KEY_TOP_SOURCES)) {
+                StringBuilder topSourcesSb = new StringBuilder();
+                line = reader.readLine();
+
+                // read until SEPARATOR appears
+                while (line != null && !line.equals("")) {
+                    topSourcesSb.append(line).append(SEPARATOR);
+                    line = reader.readLine();
+                }
+                topSourcesInfo = topSourcesSb.toString();
+            } else if (line.startsWith(KEY_TOP_THREADS)) {
+                StringBuilder topThreadsSb = new StringBuilder();
+                line = reader.readLine();
+
+                // read until SEPARATOR appears
+                while (line != null && !line.equals("")) {
+                    topThreadsSb.append(line).append(SEPARATOR);
+                    line = reader.readLine();
+                }
+                topThreadsInfo = topThreadsSb.toString();
+            } else if (line.startsWith(KEY_CPU_FREQ)) {
+                StringBuilder cpuFreqSb = new StringBuilder();
+                line = reader.readLine();
+
+                // read until SEPARATOR appears
+                while (line != null && !line.equals("")) {
+                    cpuFreqSb.append(line).append(SEPARATOR);
+                    line = reader.readLine();
+                }
+                cpuFreqInfo = cpuFreqSb.toString();
+            } else if (line.startsWith(KEY_THERMAL)) {
+                String[] split = line.split(KV);
+                thermalInfo = split.length > 1 ? split[1] : "";
+            } else if (line.startsWith(KEY_IO_SPAN)) {
+                ioSpan = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_READ_BYTES)) {
+                ioReadBytes = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_WRITE_BYTES)) {
+                ioWriteBytes = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_SYSCR)) {
+                ioReadCalls = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_SYSCW)) {
+                ioWriteCalls = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_RCHAR)) {
+                ioReadChars = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_WCHAR)) {
+                ioWriteChars = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_THREAD_READ_BYTES)) {
+                ioThreadReadBytes = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_THREAD_WRITE_BYTES)) {
+                ioThreadWriteBytes = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_THREAD_SYSCR)) {
+                ioThreadReadCalls = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_IO_THREAD_SYSCW)) {
+                ioThreadWriteCalls = Long.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_SECTION)) {
+                String[] split = line.split(KV);
+                StringBuilder sectionSb = new StringBuilder();
+                line = reader.readLine();
+
+                // read until SEPARATOR appears
+                while (line != null && !line.equals("")) {
+                    sectionSb.append(line).append(SEPARATOR);
+                    line = reader.readLine();
+                }
+                sections.put(split.length > 1 ? split[1] : "",
+                        sectionSb.toString());
+            } else if (line.startsWith(KEY_CPU_BUSY)) {
+                cpuBusy = Boolean.valueOf(line.split(KV)[1]);
+            } else if (line.startsWith(KEY_CPU_RATE)) {
+                String[] split = line.split(KV);
+                if (split.length > 1) {
+                    StringBuilder cpuRateSb = new StringBuilder();
+                    line = split[1];
+
+                    // read until SEPARATOR appears
+                    while (line != null) {
+                        if (!line.equals("")) {
+                            cpuRateSb.append(line).append(SEPARATOR);
+                            CpuSample sample = CpuSample.parse(line);
+                            if (sample != null) {
+                                cpuSamples.add(sample);
+                            }
+                        } else {
+                            break;
+                        }
+                        line = reader.readLine();
+                    }
+                    cpuRateInfo = cpuRateSb.toString();
+                }
+            } else if (line.startsWith(KEY_STACK)) {
+                StringBuilder stackSb = new StringBuilder(line.split(KV)[1]);
+                line = reader.readLine();
+
+                // read until file ends
+                while (line != null) {
+                    if (!line.equals("")) {
+                        stackSb.append(line).append(SEPARATOR);
+                    } else if (stackSb.length() > 0) {
+                        // ignore continual blank lines
+                        threadStackEntries.add(stackSb.toString());
+                        stackSb = new StringBuilder();
+                    }
+                    line = reader.readLine();
+                }
+            }
+        }
+        return this;
+    }
+
     public BlockInfo flushString() {
+        long start = System.nanoTime();
         String separator = SEPARATOR;
         basicSb.append(KEY_QUA).append(KV).append(qualifier).append(separator);
         basicSb.append(KEY_VERSION_NAME).append(KV).append(versionName).append(separator);
@@ -183,16 +561,80 @@ public class BlockInfo {
         basicSb.append(KEY_API).append(KV).append(apiLevel).append(separator);
         basicSb.append(KEY_CPU_CORE).append(KV).append(cpuCoreNum).append(separator);
         basicSb.append(KEY_PROCESS).append(KV).append(processName).append(separator);
+        basicSb.append(KEY_LOOPER).append(KV).append(looperName).append(separator);
         basicSb.append(KEY_FREE_MEMORY).append(KV).append(freeMemory).append(separator);
         basicSb.append(KEY_TOTAL_MEMORY).append(KV).append(totalMemory).append(separator);
+        if (environmentId > 0) {
+            basicSb.append(KEY_ENVIRONMENT).append(KV).append(environmentId).append(separator);
+        }
+        if (gcSpan >= 0) {
+            basicSb.append(KEY_GC_SPAN).append(KV).append(gcSpan).append(separator);
+            basicSb.append(KEY_GC_COUNT).append(KV).append(gcCount).append(separator);
+            basicSb.append(KEY_GC_TIME).append(KV).append(gcTime).append(separator);
+            basicSb.append(KEY_GC_BLOCKING_COUNT).append(KV).append(gcBlockingCount)
+                    .append(separator);
+            basicSb.append(KEY_GC_BLOCKING_TIME).append(KV).append(gcBlockingTime)
+                    .append(separator);
+            basicSb.append(KEY_HEAP_USED).append(KV).append(heapUsed).append(separator);
+            basicSb.append(KEY_HEAP_MAX).append(KV).append(heapMax).append(separator);
+            basicSb.append(KEY_NATIVE_HEAP).append(KV).append(nativeHeap).append(separator);
+        }
 
         timeSb.append(KEY_TIME_COST).append(KV).append(timeCost).append(separator);
         timeSb.append(KEY_THREAD_TIME_COST).append(KV).append(threadTimeCost).append(separator);
         timeSb.append(KEY_TIME_COST_START).append(KV).append(timeStart).append(separator);
         timeSb.append(KEY_TIME_COST_END).append(KV).append(timeEnd).append(separator);
+        if (schedSpan >= 0) {
+            timeSb.append(KEY_SCHED_SPAN).append(KV).append(schedSpan).append(separator);
+            timeSb.append(KEY_SCHED_ON_CPU).append(KV).append(schedOnCpu).append(separator);
+            timeSb.append(KEY_SCHED_RUNNABLE).append(KV).append(schedRunnable).append(separator);
+            timeSb.append(KEY_SCHED_SLEEPING).append(KV).append(schedSleeping).append(separator);
+            timeSb.append(KEY_SCHED_SLICES).append(KV).append(schedSlices).append(separator);
+            timeSb.append(KEY_SCHED_VOLUNTARY).append(KV).append(schedVoluntary)
+                    .append(separator);
+            timeSb.append(KEY_SCHED_INVOLUNTARY).append(KV).append(schedInvoluntary)
+                    .append(separator);
+        }
+        timeSb.append(KEY_DISPATCH_SOURCE).append(KV).append(dispatchSource).append(separator);
+        timeSb.append(KEY_TOP_SOURCES).append(KV).append(separator)
+                .append(topSourcesInfo).append(separator);
 
+        if (cpuRateInfo == null) {
+            cpuRateInfo = CpuSampler.format(cpuSamples);
+        }
         cpuSb.append(KEY_CPU_BUSY).append(KV).append(cpuBusy).append(separator);
         cpuSb.append(KEY_CPU_RATE).append(KV).append(cpuRateInfo).append(separator);
+        cpuSb.append(KEY_TOP_THREADS).append(KV).append(separator)
+                .append(topThreadsInfo).append(separator);
+        cpuSb.append(KEY_CPU_FREQ).append(KV).append(separator)
+                .append(cpuFreqInfo).append(separator);
+        cpuSb.append(KEY_THERMAL).append(KV).append(thermalInfo).append(separator);
+        if (ioSpan >= 0) {
+            cpuSb.append(KEY_IO_SPAN).append(KV).append(ioSpan).append(separator);
+            cpuSb.append(KEY_IO_READ_BYTES).append(KV).append(ioReadBytes).append(separator);
+            cpuSb.append(KEY_IO_WRITE_BYTES).append(KV).append(ioWriteBytes).append(separator);
+            cpuSb.append(KEY_IO_SYSCR).append(KV).append(ioReadCalls).append(separator);
+            cpuSb.append(KEY_IO_SYSCW).append(KV).append(ioWriteCalls).append(separator);
+            cpuSb.append(KEY_IO_RCHAR).append(KV).append(ioReadChars).append(separator);
+            cpuSb.append(KEY_IO_WCHAR).append(KV).append(ioWriteChars).append(separator);
+            cpuSb.append(KEY_IO_THREAD_READ_BYTES).append(KV).append(ioThreadReadBytes)
+                    .append(separator);
+            cpuSb.append(KEY_IO_THREAD_WRITE_BYTES).append(KV).append(ioThreadWriteBytes)
+                    .append(separator);
+            cpuSb.append(KEY_IO_THREAD_SYSCR).append(KV).append(ioThreadReadCalls)
+                    .append(separator);
+            cpuSb.append(KEY_IO_THREAD_SYSCW).append(KV).append(ioThreadWriteCalls)
+                    .append(separator);
+        }
+        for (Map.Entry<String, String> section : sections.entrySet()) {
+            String text = section.getValue();
+            cpuSb.append(KEY_SECTION).append(KV).append(section.getKey()).append(separator)
+                    .append(text);
+            if (!text.isEmpty() && !text.endsWith(separator)) {
+                cpuSb.append(separator);
+            }
+            cpuSb.append(separator);
+        }
 
         if (threadStackEntries != null && !threadStackEntries.isEmpty()) {
             StringBuilder temp = new StringBuilder();
@@ -202,6 +644,7 @@ public class BlockInfo {
             }
             stackSb.append(KEY_STACK).append(KV).append(temp.toString()).append(separator);
         }
+        SelfStats.FLUSH_STRING.record(System.nanoTime() - start);
         return this;
     }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+/**
+ * Layout of binary block files, version {@link #VERSION}.
+ * <p>
+ * A file starts with {@link #MAGIC} and a version byte, followed by records, each a varint byte
+ * length and a body. Integers in bodies are varints, signed ones zigzag encoded. Times are deltas:
+ * write time from the previous record of the file, block start from write time, samples from the
+ * previous sample. Strings are entries of a table kept per file: the first use of a string defines
+ * it inline and later uses refer to it by index, so stack frames repeated across samples and
+ * records are stored once. Texts of several lines are stored as a line count and one string per
+ * line.
+ * </p>
+ * <p>
+ * A writer may end the records with a zero length, followed by an index of them: a varint count
+ * and per record its offset, write time and block duration, each a signed delta from the previous
+ * record. A file ends with the index offset as four big endian bytes and {@link #INDEX_MAGIC}.
+ * Files without it, such as one cut short by a crash, are read from the start.
+ * </p>
+ */
+final class BlockRecordFormat {
+
+    static final byte[] MAGIC = {'B', 'C', 'R', 'F'};
+    static final int VERSION = 1;
+    static final byte[] INDEX_MAGIC = {'B', 'C', 'I', 'X'};
+    static final int TRAILER_LENGTH = 8;
+    /**
+     * Longest record body accepted, far above any real block, so a corrupt length is rejected.
+     */
+    static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    static final int FLAG_RAW_TIME = 1;
+    static final int FLAG_SCHED = 1 << 1;
+    static final int FLAG_GC = 1 << 2;
+    static final int FLAG_IO = 1 << 3;
+    /**
+     * Cpu usage is stored as text too, as samples parsed from text logs have no time.
+     */
+    static final int FLAG_CPU_TEXT = 1 << 4;
+
+    /**
+     * String reference for null. Odd references define a string of {@code ref >> 1} utf-8 bytes,
+     * other even ones point at table entry {@code (ref >> 1) - 1}.
+     */
+    static final int NULL_STRING = 0;
+
+    private BlockRecordFormat() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+}
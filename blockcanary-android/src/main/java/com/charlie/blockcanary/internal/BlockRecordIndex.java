@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Index at the end of a finished block file, see {@link BlockRecordFormat}. Lists records without
+ * decoding them.
+ */
+public final class BlockRecordIndex {
+
+    private final long[] mOffsets;
+    private final long[] mWriteTimes;
+    private final long[] mTimeCosts;
+
+    private BlockRecordIndex(long[] offsets, long[] writeTimes, long[] timeCosts) {
+        mOffsets = offsets;
+        mWriteTimes = writeTimes;
+        mTimeCosts = timeCosts;
+    }
+
+    /**
+     * @return index of given file, null if it was not finished or is not a block file
+     */
+    public static BlockRecordIndex read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            if (length < BlockRecordFormat.MAGIC.length + BlockRecordFormat.TRAILER_LENGTH) {
+                return null;
+            }
+            in.seek(length - BlockRecordFormat.TRAILER_LENGTH);
+            long indexOffset = in.readInt() & 0xFFFFFFFFL;
+            for (byte b : BlockRecordFormat.INDEX_MAGIC) {
+                if (in.read() != (b & 0xFF)) {
+                    return null;
+                }
+            }
+            long indexLength = length - BlockRecordFormat.TRAILER_LENGTH - indexOffset;
+            if (indexOffset < BlockRecordFormat.MAGIC.length || indexLength <= 0
+                    || indexLength > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt index offset " + indexOffset);
+            }
+            byte[] bytes = new byte[(int) indexLength];
+            in.seek(indexOffset);
+            in.readFully(bytes);
+
+            int[] position = {0};
+            long count = getVarint(bytes, position);
+            // Each record takes at least three bytes.
+            if (count < 0 || count > (bytes.length - position[0]) / 3) {
+                throw new IOException("Corrupt index count " + count);
+            }
+            long[] offsets = new long[(int) count];
+            long[] writeTimes = new long[(int) count];
+            long[] timeCosts = new long[(int) count];
+            long offset = 0;
+            long writeTime = 0;
+            long timeCost = 0;
+            for (int i = 0; i < count; i++) {
+                offset += getSigned(bytes, position);
+                writeTime += getSigned(bytes, position);
+                timeCost += getSigned(bytes, position);
+                offsets[i] = offset;
+                writeTimes[i] = writeTime;
+                timeCosts[i] = timeCost;
+            }
+            return new BlockRecordIndex(offsets, writeTimes, timeCosts);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long getSigned(byte[] bytes, int[] position) throws IOException {
+        long value = getVarint(bytes, position);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long getVarint(byte[] bytes, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IOException("Corrupt index");
+            }
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint");
+    }
+
+    public int getCount() {
+        return mOffsets.length;
+    }
+
+    /**
+     * @return file offset of given record
+     */
+    public long getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    public long getWriteTime(int index) {
+        return mWriteTimes[index];
+    }
+
+    public long getTimeCost(int index) {
+        return mTimeCosts[index];
+    }
+
+    /**
+     * @return write time of the newest record, 0 if there are none
+     */
+    public long getLastWriteTime() {
+        return mWriteTimes.length == 0 ? 0 : mWriteTimes[mWriteTimes.length - 1];
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads blocks written by {@link BlockRecordWriter}, and renders them as text logs. Not thread
+ * safe.
+ */
+public final class BlockRecordReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final TimestampFormatter WRITE_TIME_FORMATTER =
+            new TimestampFormatter("yyyy-MM-dd HH:mm:ss");
+
+    private final InputStream mIn;
+    private final List<String> mStrings = new ArrayList<>();
+    private final StringBuilder mLines = new StringBuilder();
+    private byte[] mBuffer = new byte[4096];
+    private int mPosition;
+    private int mLength;
+    private long mWriteTime;
+
+    /**
+     * Read file header from given stream.
+     *
+     * @throws IOException if the stream does not start with a supported header
+     */
+    public BlockRecordReader(InputStream in) throws IOException {
+        mIn = in;
+        byte[] magic = BlockRecordFormat.MAGIC;
+        for (byte b : magic) {
+            if (in.read() != (b & 0xFF)) {
+                throw new IOException("Not a block record file");
+            }
+        }
+        int version = in.read();
+        if (version != BlockRecordFormat.VERSION) {
+            throw new IOException("Unsupported block record version " + version);
+        }
+    }
+
+    /**
+     * @return whether given file head is of a binary block file
+     */
+    public static boolean isBlockRecordFile(byte[] head, int length) {
+        byte[] magic = BlockRecordFormat.MAGIC;
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return wall time the last record read was written at
+     */
+    public long getWriteTime() {
+        return mWriteTime;
+    }
+
+    /**
+     * Read next record into given block, text fields are left for {@link BlockInfo#flushString()}.
+     *
+     * @return false at end of records, or at a record cut short by a crash while writing
+     */
+    public boolean read(BlockInfo info) throws IOException {
+        long length = readStreamVarint();
+        if (length == 0 || length == -1) {
+            return false;
+        }
+        if (length < 0 || length > BlockRecordFormat.MAX_RECORD_LENGTH) {
+            throw new IOException("Corrupt record length " + length);
+        }
+        mLength = (int) length;
+        for (int read = 0; read < mLength; ) {
+            // Grow as bytes arrive, a corrupt length must not allocate before the stream ends.
+            if (read == mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.min(mLength, mBuffer.length * 2));
+            }
+            int count = mIn.read(mBuffer, read, Math.min(mLength, mBuffer.length) - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        mPosition = 0;
+        try {
+            parse(info);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt record", e);
+        }
+        return true;
+    }
+
+    private void parse(BlockInfo info) throws IOException {
+        int flags = (int) getVarint();
+        mWriteTime += getSigned();
+        info.timeCost = getSigned();
+        info.threadTimeCost = getSigned();
+        long sampleBase = mWriteTime;
+        if ((flags & BlockRecordFormat.FLAG_RAW_TIME) != 0) {
+            info.realTimeStart = mWriteTime + getSigned();
+            info.timeStart = BlockInfo.TIME_FORMATTER.format(info.realTimeStart);
+            info.timeEnd = BlockInfo.TIME_FORMATTER.format(info.realTimeStart + info.timeCost);
+            sampleBase = info.realTimeStart;
+        } else {
+            info.timeStart = getString();
+            info.timeEnd = getString();
+        }
+
+        info.qualifier = getString();
+        info.versionName = getString();
+        info.versionCode = (int) getSigned();
+        info.imei = getString();
+        info.uid = getString();
+        info.network = getString();
+        info.model = getString();
+        info.apiLevel = getString();
+        info.cpuCoreNum = (int) getSigned();
+        info.processName = getString();
+        info.looperName = getString();
+        info.freeMemory = getString();
+        info.totalMemory = getString();
+        info.environmentId = (int) getVarint();
+
+        if ((flags & BlockRecordFormat.FLAG_SCHED) != 0) {
+            info.schedSpan = getSigned();
+            info.schedOnCpu = getSigned();
+            info.schedRunnable = getSigned();
+            info.schedSleeping = getSigned();
+            info.schedSlices = getSigned();
+            info.schedVoluntary = getSigned();
+            info.schedInvoluntary = getSigned();
+        }
+        if ((flags & BlockRecordFormat.FLAG_GC) != 0) {
+            info.gcSpan = getSigned();
+            info.gcCount = getSigned();
+            info.gcTime = getSigned();
+            info.gcBlockingCount = getSigned();
+            info.gcBlockingTime = getSigned();
+            info.heapUsed = getSigned();
+            info.heapMax = getSigned();
+            info.nativeHeap = getSigned();
+        }
+        info.dispatchSource = getString();
+        info.topSourcesInfo = getLines();
+
+        info.cpuBusy = getVarint() != 0;
+        info.cpuRateInfo = (flags & BlockRecordFormat.FLAG_CPU_TEXT) != 0 ? getLines() : null;
+        int sampleCount = getCount();
+        List<CpuSample> samples = new ArrayList<>(sampleCount);
+        long lastTime = sampleBase;
+        for (int i = 0; i < sampleCount; i++) {
+            lastTime += getSigned();
+            samples.add(new CpuSample(lastTime, getSigned(), getSigned(), getSigned(),
+                    getSigned(), getSigned(), getSigned()));
+        }
+        info.cpuSamples = samples;
+        info.topThreadsInfo = getLines();
+        info.cpuFreqInfo = getLines();
+        info.thermalInfo = getString();
+        if ((flags & BlockRecordFormat.FLAG_IO) != 0) {
+            info.ioSpan = getSigned();
+            info.ioReadBytes = getSigned();
+            info.ioWriteBytes = getSigned();
+            info.ioReadCalls = getSigned();
+            info.ioWriteCalls = getSigned();
+            info.ioReadChars = getSigned();
+            info.ioWriteChars = getSigned();
+            info.ioThreadReadBytes = getSigned();
+            info.ioThreadWriteBytes = getSigned();
+            info.ioThreadReadCalls = getSigned();
+            info.ioThreadWriteCalls = getSigned();
+        }
+        int sectionCount = getCount();
+        for (int i = 0; i < sectionCount; i++) {
+            String name = getString();
+            info.sections.put(name, getLines());
+        }
+        int entryCount = getCount();
+        ArrayList<String> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            entries.add(getLines());
+        }
+        info.threadStackEntries = entries;
+    }
+
+    /**
+     * Render every remaining record as a text log, in the layout older versions wrote.
+     */
+    public void render(Appendable out) throws IOException {
+        while (true) {
+            BlockInfo info = new BlockInfo();
+            if (!read(info)) {
+                return;
+            }
+            info.flushString();
+            render(info, mWriteTime, out);
+        }
+    }
+
+    /**
+     * Render a block, with text fields flushed, as a text log.
+     */
+    public static void render(BlockInfo info, long writeTime, Appendable out) throws IOException {
+        out.append(BlockInfo.SEPARATOR)
+                .append("**********************")
+                .append(BlockInfo.SEPARATOR)
+                .append(WRITE_TIME_FORMATTER.format(writeTime))
+                .append("(write log time)")
+                .append(BlockInfo.SEPARATOR)
+                .append(BlockInfo.SEPARATOR)
+                .append(info.toString())
+                .append(BlockInfo.SEPARATOR);
+    }
+
+    private String getLines() throws IOException {
+        int count = getCount();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1) {
+            return getString();
+        }
+        StringBuilder sb = mLines;
+        sb.setLength(0);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(BlockInfo.SEPARATOR);
+            }
+            sb.append(getString());
+        }
+        return sb.toString();
+    }
+
+    private String getString() throws IOException {
+        long ref = getVarint();
+        if (ref == BlockRecordFormat.NULL_STRING) {
+            return null;
+        }
+        if ((ref & 1) == 0) {
+            long index = (ref >>> 1) - 1;
+            if (index < 0 || index >= mStrings.size()) {
+                throw new IOException("Corrupt string reference " + index);
+            }
+            return mStrings.get((int) index);
+        }
+        long length = ref >>> 1;
+        if (length > mLength - mPosition) {
+            throw new EOFException();
+        }
+        String value = new String(mBuffer, mPosition, (int) length, UTF_8);
+        mPosition += (int) length;
+        mStrings.add(value);
+        return value;
+    }
+
+    /**
+     * @return count of items which follow, each at least one byte
+     */
+    private int getCount() throws IOException {
+        long count = getVarint();
+        if (count < 0 || count > mLength - mPosition) {
+            throw new IOException("Corrupt count " + count);
+        }
+        return (int) count;
+    }
+
+    private long getSigned() throws IOException {
+        long value = getVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long getVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (mPosition >= mLength) {
+                throw new EOFException();
+            }
+            byte b = mBuffer[mPosition++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint");
+    }
+
+    /**
+     * @return varint read from the stream, -1 at end of stream
+     */
+    private long readStreamVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = mIn.read();
+            if (b < 0) {
+                return -1;
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint");
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes blocks to a stream in the binary format of {@link BlockRecordFormat}. Not thread safe,
+ * each file needs its own writer as the string table is per file.
+ */
+public final class BlockRecordWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream mOut;
+    private final Map<String, Integer> mStrings = new HashMap<>();
+    private final byte[] mPrefix = new byte[10];
+    private byte[] mBuffer = new byte[4096];
+    private int mLength;
+    private long mLastWriteTime;
+    private long mBytesWritten;
+    private int mCount;
+    private long[] mOffsets = new long[16];
+    private long[] mWriteTimes = new long[16];
+    private long[] mTimeCosts = new long[16];
+
+    /**
+     * Write file header to given stream, which should be empty.
+     */
+    public BlockRecordWriter(OutputStream out) throws IOException {
+        mOut = out;
+        putBytes(BlockRecordFormat.MAGIC, 0, BlockRecordFormat.MAGIC.length);
+        putVarint(BlockRecordFormat.VERSION);
+        mOut.write(mBuffer, 0, mLength);
+        mBytesWritten = mLength;
+        mLength = 0;
+    }
+
+    /**
+     * @return bytes written to the stream, header included
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return records written
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * End the records with an index of them, nothing may be written after.
+     */
+    public void finish() throws IOException {
+        mLength = 0;
+        putVarint(0);
+        long indexOffset = mBytesWritten + mLength;
+        putVarint(mCount);
+        long lastOffset = 0;
+        long lastWriteTime = 0;
+        long lastTimeCost = 0;
+        for (int i = 0; i < mCount; i++) {
+            putSigned(mOffsets[i] - lastOffset);
+            putSigned(mWriteTimes[i] - lastWriteTime);
+            putSigned(mTimeCosts[i] - lastTimeCost);
+            lastOffset = mOffsets[i];
+            lastWriteTime = mWriteTimes[i];
+            lastTimeCost = mTimeCosts[i];
+        }
+        ensure(BlockRecordFormat.TRAILER_LENGTH);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            mBuffer[mLength++] = (byte) (indexOffset >>> shift);
+        }
+        putBytes(BlockRecordFormat.INDEX_MAGIC, 0, BlockRecordFormat.INDEX_MAGIC.length);
+        mOut.write(mBuffer, 0, mLength);
+        mBytesWritten += mLength;
+        mLength = 0;
+    }
+
+    /**
+     * @return bytes of last record, the stream is not flushed
+     */
+    public int write(BlockInfo info, long writeTime) throws IOException {
+        int flags = 0;
+        if (info.realTimeStart > 0) {
+            flags |= BlockRecordFormat.FLAG_RAW_TIME;
+        }
+        if (info.schedSpan >= 0) {
+            flags |= BlockRecordFormat.FLAG_SCHED;
+        }
+        if (info.gcSpan >= 0) {
+            flags |= BlockRecordFormat.FLAG_GC;
+        }
+        if (info.ioSpan >= 0) {
+            flags |= BlockRecordFormat.FLAG_IO;
+        }
+        List<CpuSample> samples = info.cpuSamples;
+        int sampleCount = samples == null ? 0 : samples.size();
+        if (sampleCount == 0) {
+            flags |= BlockRecordFormat.FLAG_CPU_TEXT;
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            if (samples.get(i).getTime() < 0) {
+                flags |= BlockRecordFormat.FLAG_CPU_TEXT;
+                break;
+            }
+        }
+        mLength = 0;
+        putVarint(flags);
+        putSigned(writeTime - mLastWriteTime);
+        mLastWriteTime = writeTime;
+        putSigned(info.timeCost);
+        putSigned(info.threadTimeCost);
+        long sampleBase = writeTime;
+        if ((flags & BlockRecordFormat.FLAG_RAW_TIME) != 0) {
+            putSigned(info.realTimeStart - writeTime);
+            sampleBase = info.realTimeStart;
+        } else {
+            putString(info.timeStart);
+            putString(info.timeEnd);
+        }
+
+        putString(info.qualifier);
+        putString(info.versionName);
+        putSigned(info.versionCode);
+        putString(info.imei);
+        putString(info.uid);
+        putString(info.network);
+        putString(info.model);
+        putString(info.apiLevel);
+        putSigned(info.cpuCoreNum);
+        putString(info.processName);
+        putString(info.looperName);
+        putString(info.freeMemory);
+        putString(info.totalMemory);
+        putVarint(info.environmentId);
+
+        if ((flags & BlockRecordFormat.FLAG_SCHED) != 0) {
+            putSigned(info.schedSpan);
+            putSigned(info.schedOnCpu);
+            putSigned(info.schedRunnable);
+            putSigned(info.schedSleeping);
+            putSigned(info.schedSlices);
+            putSigned(info.schedVoluntary);
+            putSigned(info.schedInvoluntary);
+        }
+        if ((flags & BlockRecordFormat.FLAG_GC) != 0) {
+            putSigned(info.gcSpan);
+            putSigned(info.gcCount);
+            putSigned(info.gcTime);
+            putSigned(info.gcBlockingCount);
+            putSigned(info.gcBlockingTime);
+            putSigned(info.heapUsed);
+            putSigned(info.heapMax);
+            putSigned(info.nativeHeap);
+        }
+        putString(info.dispatchSource);
+        putLines(info.topSourcesInfo);
+
+        putVarint(info.cpuBusy ? 1 : 0);
+        if ((flags & BlockRecordFormat.FLAG_CPU_TEXT) != 0) {
+            putLines(info.cpuRateInfo);
+        }
+        putVarint(sampleCount);
+        long lastTime = sampleBase;
+        for (int i = 0; i < sampleCount; i++) {
+            CpuSample sample = samples.get(i);
+            putSigned(sample.getTime() - lastTime);
+            lastTime = sample.getTime();
+            putSigned(sample.getTotal());
+            putSigned(sample.getIdle());
+            putSigned(sample.getApp());
+            putSigned(sample.getUser());
+            putSigned(sample.getSystem());
+            putSigned(sample.getIoWait());
+        }
+        putLines(info.topThreadsInfo);
+        putLines(info.cpuFreqInfo);
+        putString(info.thermalInfo);
+        if ((flags & BlockRecordFormat.FLAG_IO) != 0) {
+            putSigned(info.ioSpan);
+            putSigned(info.ioReadBytes);
+            putSigned(info.ioWriteBytes);
+            putSigned(info.ioReadCalls);
+            putSigned(info.ioWriteCalls);
+            putSigned(info.ioReadChars);
+            putSigned(info.ioWriteChars);
+            putSigned(info.ioThreadReadBytes);
+            putSigned(info.ioThreadWriteBytes);
+            putSigned(info.ioThreadReadCalls);
+            putSigned(info.ioThreadWriteCalls);
+        }
+        putVarint(info.sections.size());
+        for (Map.Entry<String, String> section : info.sections.entrySet()) {
+            putString(section.getKey());
+            putLines(section.getValue());
+        }
+        List<String> entries = info.threadStackEntries;
+        int entryCount = entries == null ? 0 : entries.size();
+        putVarint(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            putLines(entries.get(i));
+        }
+
+        if (mLength > BlockRecordFormat.MAX_RECORD_LENGTH) {
+            // Nothing was written yet, readers would reject it.
+            throw new IOException("Record too long " + mLength);
+        }
+        if (mCount == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+            mWriteTimes = Arrays.copyOf(mWriteTimes, mCount * 2);
+            mTimeCosts = Arrays.copyOf(mTimeCosts, mCount * 2);
+        }
+        mOffsets[mCount] = mBytesWritten;
+        mWriteTimes[mCount] = writeTime;
+        mTimeCosts[mCount] = info.timeCost;
+        mCount++;
+
+        int prefixLength = encodeVarint(mLength, mPrefix, 0);
+        mOut.write(mPrefix, 0, prefixLength);
+        mOut.write(mBuffer, 0, mLength);
+        mBytesWritten += prefixLength + mLength;
+        return prefixLength + mLength;
+    }
+
+    private void putLines(String text) {
+        if (text == null) {
+            putVarint(0);
+            return;
+        }
+        int count = 1;
+        int from = 0;
+        int index;
+        while ((index = text.indexOf(BlockInfo.SEPARATOR, from)) >= 0) {
+            count++;
+            from = index + BlockInfo.SEPARATOR.length();
+        }
+        // Count 0 is null, 1 is a single line, including an empty text.
+        putVarint(count);
+        from = 0;
+        while ((index = text.indexOf(BlockInfo.SEPARATOR, from)) >= 0) {
+            putString(text.substring(from, index));
+            from = index + BlockInfo.SEPARATOR.length();
+        }
+        putString(text.substring(from));
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putVarint(BlockRecordFormat.NULL_STRING);
+            return;
+        }
+        Integer index = mStrings.get(value);
+        if (index != null) {
+            putVarint((index + 1) << 1);
+            return;
+        }
+        mStrings.put(value, mStrings.size());
+        byte[] bytes = value.getBytes(UTF_8);
+        putVarint((bytes.length << 1) | 1);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    private void putSigned(long value) {
+        putVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void putVarint(long value) {
+        ensure(10);
+        mLength = encodeVarint(value, mBuffer, mLength);
+    }
+
+    /**
+     * @return offset after encoded value
+     */
+    private static int encodeVarint(long value, byte[] buffer, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private void putBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, mBuffer, mLength, length);
+        mLength += length;
+    }
+
+    private void ensure(int extra) {
+        if (mLength + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + extra));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.List;
+
+/**
+ * Cpu usage between two samples of {@code /proc/stat} and {@code /proc/<pid>/stat}, as deltas
+ * in jiffies, formatted only when a block is written.
+ */
+public final class CpuSample {
+
+    private final long mTime;
+    private final long mTotal;
+    private final long mIdle;
+    private final long mApp;
+    private final long mUser;
+    private final long mSystem;
+    private final long mIoWait;
+
+    /**
+     * @param time wall time of the sample, -1 if unknown
+     */
+    public CpuSample(long time, long total, long idle, long app, long user, long system,
+                     long ioWait) {
+        mTime = time;
+        mTotal = total;
+        mIdle = idle;
+        mApp = app;
+        mUser = user;
+        mSystem = system;
+        mIoWait = ioWait;
+    }
+
+    /**
+     * @return usage over all given samples, timed as the last one
+     */
+    public static CpuSample sum(List<CpuSample> samples) {
+        long time = -1;
+        long total = 0;
+        long idle = 0;
+        long app = 0;
+        long user = 0;
+        long system = 0;
+        long ioWait = 0;
+        for (CpuSample sample : samples) {
+            time = sample.mTime;
+            total += sample.mTotal;
+            idle += sample.mIdle;
+            app += sample.mApp;
+            user += sample.mUser;
+            system += sample.mSystem;
+            ioWait += sample.mIoWait;
+        }
+        return new CpuSample(time, total, idle, app, user, system, ioWait);
+    }
+
+    /**
+     * Rebuild a sample from its {@link #toString()} form, percentages become deltas of a total
+     * of 100.
+     *
+     * @return sample with unknown time, null if text holds no cpu usage
+     */
+    public static CpuSample parse(String text) {
+        long cpu = valueOf(text, "cpu:");
+        if (cpu < 0) {
+            return null;
+        }
+        return new CpuSample(-1, 100, 100 - cpu, Math.max(0, valueOf(text, "app:")),
+                Math.max(0, valueOf(text, "user:")), Math.max(0, valueOf(text, "system:")),
+                Math.max(0, valueOf(text, "ioWait:")));
+    }
+
+    private static long valueOf(String text, String key) {
+        int start = text.indexOf(key);
+        if (start < 0) {
+            return -1;
+        }
+        long value = 0;
+        int i = start + key.length();
+        int digitsStart = i;
+        for (; i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return i == digitsStart ? -1 : value;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public long getIdle() {
+        return mIdle;
+    }
+
+    public long getApp() {
+        return mApp;
+    }
+
+    public long getUser() {
+        return mUser;
+    }
+
+    public long getSystem() {
+        return mSystem;
+    }
+
+    public long getIoWait() {
+        return mIoWait;
+    }
+
+    /**
+     * @return device cpu usage in percent of all cores
+     */
+    public long getCpuPercent() {
+        return percent(mTotal - mIdle);
+    }
+
+    /**
+     * @return this app's cpu usage in percent of all cores
+     */
+    public long getAppPercent() {
+        return percent(mApp);
+    }
+
+    public long getUserPercent() {
+        return percent(mUser);
+    }
+
+    public long getSystemPercent() {
+        return percent(mSystem);
+    }
+
+    public long getIoWaitPercent() {
+        return percent(mIoWait);
+    }
+
+    private long percent(long value) {
+        return mTotal <= 0 ? 0 : value * 100L / mTotal;
+    }
+
+    @Override
+    public String toString() {
+        return "cpu:" + getCpuPercent() + "% "
+                + "app:" + getAppPercent() + "% "
+                + "[user:" + getUserPercent() + "% "
+                + "system:" + getSystemPercent() + "% "
+                + "ioWait:" + getIoWaitPercent() + "% ]";
+    }
+}
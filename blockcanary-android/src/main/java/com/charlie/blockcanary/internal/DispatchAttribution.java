@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import android.os.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Aggregates dispatch cost per {@link DispatchSource}, parsed from the looper's
+ * ">>>>> Dispatching to Handler (class) {hash} callback: what" string.
+ * <p>
+ * Sources are interned in an open addressing table keyed by the characters of the handler and
+ * callback class, so a source seen before is found without allocating. Lookups and recording must
+ * happen on one thread, {@link #getTopSources(int)} may be called from any thread.
+ * </p>
+ */
+public final class DispatchAttribution {
+
+    private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+    private static final String HANDLER_PREFIX = "Handler (";
+    private static final String WHAT_SEPARATOR = ": ";
+    private static final String OTHER = "other";
+
+    private static final int CAPACITY = 1024;
+    private static final int MAX_SOURCES = CAPACITY / 2;
+
+    private final DispatchSource[] mTable = new DispatchSource[CAPACITY];
+    private final DispatchSource mOther = new DispatchSource(OTHER, OTHER, 0);
+    private int mSize = 0;
+
+    /**
+     * @param dispatching string passed to the looper's printer on dispatch begin
+     * @return interned source, never null
+     */
+    public DispatchSource sourceOf(String dispatching) {
+        if (!dispatching.startsWith(DISPATCH_PREFIX)) {
+            return mOther;
+        }
+        int start = DISPATCH_PREFIX.length();
+        int end = dispatching.lastIndexOf(WHAT_SEPARATOR);
+        if (end < start) {
+            end = dispatching.length();
+        }
+
+        int handlerStart;
+        int handlerEnd;
+        int callbackStart;
+        if (dispatching.startsWith(HANDLER_PREFIX, start)) {
+            handlerStart = start + HANDLER_PREFIX.length();
+            handlerEnd = dispatching.indexOf(')', handlerStart);
+            int brace = handlerEnd < 0 ? -1 : dispatching.indexOf("} ", handlerEnd);
+            if (brace < 0 || brace >= end) {
+                return mOther;
+            }
+            callbackStart = brace + 2;
+        } else {
+            // Handler overrides toString(), take everything before the callback.
+            callbackStart = dispatching.lastIndexOf(' ', end - 1) + 1;
+            handlerStart = start;
+            handlerEnd = callbackStart - 1;
+            if (handlerEnd <= handlerStart) {
+                return mOther;
+            }
+        }
+        int at = dispatching.indexOf('@', callbackStart);
+        int callbackEnd = at >= 0 && at < end ? at : end;
+
+        int hash = hash(dispatching, callbackStart, callbackEnd,
+                hash(dispatching, handlerStart, handlerEnd, 17) * 31 + ' ');
+        int index = hash & (CAPACITY - 1);
+        DispatchSource source;
+        while ((source = mTable[index]) != null) {
+            if (source.mHash == hash
+                    && matches(dispatching, handlerStart, handlerEnd, source.getHandlerClass())
+                    && matches(dispatching, callbackStart, callbackEnd,
+                    source.getCallbackClass())) {
+                return source;
+            }
+            index = (index + 1) & (CAPACITY - 1);
+        }
+        return intern(index, dispatching.substring(handlerStart, handlerEnd),
+                dispatching.substring(callbackStart, callbackEnd), hash);
+    }
+
+    /**
+     * Same as {@link #sourceOf(String)} for a message at hand, used when no dispatch string is
+     * built.
+     */
+    public DispatchSource sourceOf(Message message) {
+        String handler = message.getTarget() == null
+                ? "null" : message.getTarget().getClass().getName();
+        String callback = message.getCallback() == null
+                ? "null" : message.getCallback().getClass().getName();
+        int hash = hash(callback, 0, callback.length(),
+                hash(handler, 0, handler.length(), 17) * 31 + ' ');
+        int index = hash & (CAPACITY - 1);
+        DispatchSource source;
+        while ((source = mTable[index]) != null) {
+            if (source.mHash == hash && handler.equals(source.getHandlerClass())
+                    && callback.equals(source.getCallbackClass())) {
+                return source;
+            }
+            index = (index + 1) & (CAPACITY - 1);
+        }
+        return intern(index, handler, callback, hash);
+    }
+
+    /**
+     * Record dispatch duration of given source, on the same thread as lookups.
+     */
+    public void record(DispatchSource source, long nanos) {
+        source.record(nanos);
+    }
+
+    /**
+     * @param count max number of sources
+     * @return copies of most expensive sources by cumulative time, most expensive first
+     */
+    public List<DispatchSource> getTopSources(int count) {
+        List<DispatchSource> sources = new ArrayList<>();
+        for (DispatchSource source : mTable) {
+            if (source != null) {
+                sources.add(source.copy());
+            }
+        }
+        if (mOther.getCount() > 0) {
+            sources.add(mOther.copy());
+        }
+        Collections.sort(sources, new Comparator<DispatchSource>() {
+            @Override
+            public int compare(DispatchSource lhs, DispatchSource rhs) {
+                return Long.valueOf(rhs.getTotalNanos()).compareTo(lhs.getTotalNanos());
+            }
+        });
+        return sources.size() > count ? sources.subList(0, count) : sources;
+    }
+
+    private DispatchSource intern(int index, String handler, String callback, int hash) {
+        if (mSize >= MAX_SOURCES) {
+            return mOther;
+        }
+        DispatchSource source = new DispatchSource(handler, callback, hash);
+        mTable[index] = source;
+        mSize++;
+        return source;
+    }
+
+    private static int hash(String s, int start, int end, int hash) {
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(String s, int start, int end, String interned) {
+        return interned.length() == end - start
+                && s.regionMatches(start, interned, 0, interned.length());
+    }
+}
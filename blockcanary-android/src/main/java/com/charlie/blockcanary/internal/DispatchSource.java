@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Cumulative dispatch cost of one message source, a target Handler class plus callback class.
+ * <p>
+ * Live instances are updated by the looper thread only, use {@link #copy()} to read a consistent
+ * set of numbers.
+ * </p>
+ */
+public final class DispatchSource {
+
+    private final String mHandlerClass;
+    private final String mCallbackClass;
+    final int mHash;
+
+    private volatile long mCount;
+    private volatile long mTotalNanos;
+    private volatile long mMaxNanos;
+
+    DispatchSource(String handlerClass, String callbackClass, int hash) {
+        mHandlerClass = handlerClass;
+        mCallbackClass = callbackClass;
+        mHash = hash;
+    }
+
+    /**
+     * Add one dispatch, must always be called from the same thread.
+     */
+    void record(long nanos) {
+        mCount = mCount + 1;
+        mTotalNanos = mTotalNanos + nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    public DispatchSource copy() {
+        DispatchSource copy = new DispatchSource(mHandlerClass, mCallbackClass, mHash);
+        copy.mCount = mCount;
+        copy.mTotalNanos = mTotalNanos;
+        copy.mMaxNanos = mMaxNanos;
+        return copy;
+    }
+
+    public String getHandlerClass() {
+        return mHandlerClass;
+    }
+
+    /**
+     * @return class of the posted Runnable, "null" for plain messages
+     */
+    public String getCallbackClass() {
+        return mCallbackClass;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @return handler and callback class only
+     */
+    public String getName() {
+        return mHandlerClass + ' ' + mCallbackClass;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s count=%d total=%dms max=%dms",
+                getName(), mCount, mTotalNanos / 1000000L, mMaxNanos / 1000000L);
+    }
+}
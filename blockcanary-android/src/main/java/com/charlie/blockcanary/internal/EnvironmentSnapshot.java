@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.nf.blockcanary.BlockCanaryContext;
+import com.nf.blockcanary.BlockCanaryInternals;
+
+/**
+ * Device and app facts shared by blocks, captured once and replaced only when something changes.
+ * <p>
+ * Capturing makes binder calls and runs app callbacks, so it is done on the writer thread, never
+ * while a block is assembled. Blocks keep a reference to the snapshot current when they are
+ * created.
+ * </p>
+ */
+public final class EnvironmentSnapshot {
+
+    private static final String TAG = "EnvironmentSnapshot";
+    private static final String EMPTY_IMEI = "empty_imei";
+
+    private static final Object sLock = new Object();
+    private static volatile EnvironmentSnapshot sCurrent;
+    private static int sNextId = 1;
+
+    private final int mId;
+    private final long mTime;
+    private final String mQualifier;
+    private final String mModel;
+    private final String mApiLevel;
+    private final String mImei;
+    private final int mCpuCoreNum;
+    private final String mVersionName;
+    private final int mVersionCode;
+    private final String mProcessName;
+    private final String mUid;
+    private final String mNetwork;
+    private final long mFreeMemory;
+    private final long mTotalMemory;
+
+    private EnvironmentSnapshot(int id, EnvironmentSnapshot previous) {
+        BlockCanaryContext context = BlockCanaryInternals.getContext();
+        mId = id;
+        mTime = System.currentTimeMillis();
+        mQualifier = context.provideQualifier();
+        mModel = Build.MODEL;
+        mApiLevel = Build.VERSION.SDK_INT + " " + Build.VERSION.RELEASE;
+        mCpuCoreNum = PerformanceUtils.getNumCores();
+        mProcessName = ProcessUtils.myProcessName();
+        mTotalMemory = PerformanceUtils.getTotalMemory();
+        if (previous != null) {
+            // Fixed for the life of the process.
+            mImei = previous.mImei;
+            mVersionName = previous.mVersionName;
+            mVersionCode = previous.mVersionCode;
+        } else {
+            mImei = readImei(context.provideContext());
+            PackageInfo info = readPackageInfo(context.provideContext());
+            mVersionName = info != null ? info.versionName : "";
+            mVersionCode = info != null ? info.versionCode : 0;
+        }
+        mUid = context.provideUid();
+        mNetwork = context.provideNetworkType();
+        long freeMemory;
+        try {
+            freeMemory = PerformanceUtils.getFreeMemory();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "getFreeMemory", e);
+            freeMemory = -1;
+        }
+        mFreeMemory = freeMemory;
+    }
+
+    /**
+     * @return latest snapshot, captured on the calling thread if there is none yet
+     */
+    public static EnvironmentSnapshot current() {
+        EnvironmentSnapshot current = sCurrent;
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Capture a new snapshot on the calling thread and make it current. Call it off the main
+     * thread when uid, network or memory may have changed.
+     *
+     * @return new snapshot
+     */
+    public static EnvironmentSnapshot refresh() {
+        synchronized (sLock) {
+            sCurrent = new EnvironmentSnapshot(sNextId++, sCurrent);
+            return sCurrent;
+        }
+    }
+
+    private static String readImei(Context context) {
+        try {
+            TelephonyManager telephonyManager =
+                    (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+            return telephonyManager.getDeviceId();
+        } catch (Exception exception) {
+            Log.e(TAG, "readImei", exception);
+            return EMPTY_IMEI;
+        }
+    }
+
+    private static PackageInfo readPackageInfo(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        } catch (Throwable e) {
+            Log.e(TAG, "readPackageInfo", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return id unique within the process, increasing with every refresh
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return wall time it was captured at
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    public String getQualifier() {
+        return mQualifier;
+    }
+
+    public String getModel() {
+        return mModel;
+    }
+
+    public String getApiLevel() {
+        return mApiLevel;
+    }
+
+    public String getImei() {
+        return mImei;
+    }
+
+    public int getCpuCoreNum() {
+        return mCpuCoreNum;
+    }
+
+    public String getVersionName() {
+        return mVersionName;
+    }
+
+    public int getVersionCode() {
+        return mVersionCode;
+    }
+
+    public String getProcessName() {
+        return mProcessName;
+    }
+
+    public String getUid() {
+        return mUid;
+    }
+
+    public String getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * @return available system memory in KB when captured, -1 if unknown
+     */
+    public long getFreeMemory() {
+        return mFreeMemory;
+    }
+
+    /**
+     * @return total system memory in KB
+     */
+    public long getTotalMemory() {
+        return mTotalMemory;
+    }
+}
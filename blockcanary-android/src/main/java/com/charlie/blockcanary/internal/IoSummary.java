@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Storage I/O of the app, and of the blocked looper thread where known, during a block window.
+ * Values are -1 when unknown.
+ */
+public final class IoSummary {
+
+    public static final IoSummary EMPTY = new IoSummary(-1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1);
+
+    private final long mSpanMillis;
+    private final long mReadBytes;
+    private final long mWriteBytes;
+    private final long mReadCalls;
+    private final long mWriteCalls;
+    private final long mReadChars;
+    private final long mWriteChars;
+    private final long mThreadReadBytes;
+    private final long mThreadWriteBytes;
+    private final long mThreadReadCalls;
+    private final long mThreadWriteCalls;
+
+    /**
+     * @param spanMillis part of the window the counters cover
+     * @param readBytes  bytes fetched from storage, reads served by the page cache excluded
+     * @param readChars  bytes passed to read calls, page cache hits included
+     */
+    public IoSummary(long spanMillis, long readBytes, long writeBytes, long readCalls,
+                     long writeCalls, long readChars, long writeChars, long threadReadBytes,
+                     long threadWriteBytes, long threadReadCalls, long threadWriteCalls) {
+        mSpanMillis = spanMillis;
+        mReadBytes = readBytes;
+        mWriteBytes = writeBytes;
+        mReadCalls = readCalls;
+        mWriteCalls = writeCalls;
+        mReadChars = readChars;
+        mWriteChars = writeChars;
+        mThreadReadBytes = threadReadBytes;
+        mThreadWriteBytes = threadWriteBytes;
+        mThreadReadCalls = threadReadCalls;
+        mThreadWriteCalls = threadWriteCalls;
+    }
+
+    public long getSpanMillis() {
+        return mSpanMillis;
+    }
+
+    public long getReadBytes() {
+        return mReadBytes;
+    }
+
+    public long getWriteBytes() {
+        return mWriteBytes;
+    }
+
+    public long getReadCalls() {
+        return mReadCalls;
+    }
+
+    public long getWriteCalls() {
+        return mWriteCalls;
+    }
+
+    public long getReadChars() {
+        return mReadChars;
+    }
+
+    public long getWriteChars() {
+        return mWriteChars;
+    }
+
+    public long getThreadReadBytes() {
+        return mThreadReadBytes;
+    }
+
+    public long getThreadWriteBytes() {
+        return mThreadWriteBytes;
+    }
+
+    public long getThreadReadCalls() {
+        return mThreadReadCalls;
+    }
+
+    public long getThreadWriteCalls() {
+        return mThreadWriteCalls;
+    }
+
+    /**
+     * @return bytes read from and written to storage by the app, to rank blocks by I/O volume
+     */
+    public long getTotalBytes() {
+        return mReadBytes < 0 || mWriteBytes < 0 ? -1 : mReadBytes + mWriteBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "read:%dB/%d write:%dB/%d thread read:%dB/%d write:%dB/%d in %dms",
+                mReadBytes, mReadCalls, mWriteBytes, mWriteCalls, mThreadReadBytes,
+                mThreadReadCalls, mThreadWriteBytes, mThreadWriteCalls, mSpanMillis);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, log-linear histogram of durations in nanoseconds, in the manner of HdrHistogram.
+ * <p>
+ * Values below {@code 2^SUB_BUCKET_BITS} ns get a bucket each, above that every power of two is
+ * split into {@code 2^SUB_BUCKET_BITS} linear sub-buckets, so any recorded value is off by less
+ * than 1.6%. Values over {@link #MAX_TRACKABLE_NANOS} (about 18 minutes) go to the last bucket.
+ * </p>
+ * <p>
+ * Recording is lock-free and allocation-free but expects a single writer thread, snapshots may be
+ * taken from any thread.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+            + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    public static final long MAX_TRACKABLE_NANOS = (1L << MAX_EXPONENT) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final long mStartTime = System.currentTimeMillis();
+
+    // Guarded by this, only touched by window readers.
+    private long[] mWindowCounts = new long[BUCKET_COUNT];
+    private long mWindowStartTime = mStartTime;
+
+    /**
+     * Record one duration, must always be called from the same thread.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int index = indexOf(nanos);
+        mCounts.lazySet(index, mCounts.get(index) + 1);
+    }
+
+    /**
+     * @return everything recorded since this histogram was created
+     */
+    public LatencySnapshot snapshot() {
+        return new LatencySnapshot(copyCounts(), mStartTime, System.currentTimeMillis());
+    }
+
+    /**
+     * @return everything recorded since the previous call, or since creation for the first call
+     */
+    public synchronized LatencySnapshot windowSnapshot() {
+        long now = System.currentTimeMillis();
+        long[] counts = copyCounts();
+        long[] window = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            window[i] = counts[i] - mWindowCounts[i];
+        }
+        LatencySnapshot snapshot = new LatencySnapshot(window, mWindowStartTime, now);
+        mWindowCounts = counts;
+        mWindowStartTime = now;
+        return snapshot;
+    }
+
+    private long[] copyCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        if (nanos > MAX_TRACKABLE_NANOS) {
+            return BUCKET_COUNT - 1;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (nanos >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return largest value which falls into bucket of given index
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram} over a time window. All values are in nanoseconds
+ * and are the highest value of their bucket, so they never understate a latency.
+ */
+public final class LatencySnapshot {
+
+    private final long[] mCounts;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final long mTotalCount;
+
+    LatencySnapshot(long[] counts, long startTime, long endTime) {
+        mCounts = counts;
+        mStartTime = startTime;
+        mEndTime = endTime;
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        mTotalCount = total;
+    }
+
+    /**
+     * @return window start, wall time in millis
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return window end, wall time in millis
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * @return count of recorded dispatches in the window
+     */
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @param nanos duration in nanoseconds
+     * @return count of recorded dispatches longer than given duration
+     */
+    public long getCountAbove(long nanos) {
+        long count = 0;
+        for (int i = LatencyHistogram.indexOf(nanos) + 1; i < mCounts.length; i++) {
+            count += mCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile in range [0, 100]
+     * @return value at given percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.min(Math.max(percentile, 0), 100);
+        long target = Math.max(1, (long) Math.ceil(clamped / 100 * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return LatencyHistogram.highestValueOf(i);
+            }
+        }
+        return getMax();
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP90() {
+        return getValueAtPercentile(90);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    public long getMax() {
+        for (int i = mCounts.length - 1; i >= 0; i--) {
+            if (mCounts[i] != 0) {
+                return LatencyHistogram.highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "count=%d p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                mTotalCount, toMillis(getP50()), toMillis(getP90()), toMillis(getP99()),
+                toMillis(getP999()), toMillis(getMax()));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Other threads of the app captured once while a looper thread was blocked on a lock or waiting,
+ * with the lock holder where it could be identified.
+ */
+public final class LockContention {
+
+    private final long mTime;
+    private final Thread.State mState;
+    private final String mBlocker;
+    private final String mHolder;
+    private final List<ThreadDump> mThreads;
+
+    /**
+     * @param state   state of the looper thread
+     * @param blocker what the looper thread waited on, null if unknown
+     * @param holder  name of the thread holding it, null if unknown
+     * @param threads other threads, holder and suspects first
+     */
+    public LockContention(long time, Thread.State state, String blocker, String holder,
+                          List<ThreadDump> threads) {
+        mTime = time;
+        mState = state;
+        mBlocker = blocker;
+        mHolder = holder;
+        mThreads = Collections.unmodifiableList(threads);
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public Thread.State getState() {
+        return mState;
+    }
+
+    public String getBlocker() {
+        return mBlocker;
+    }
+
+    public String getHolder() {
+        return mHolder;
+    }
+
+    public List<ThreadDump> getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * @return lines written to block logs, without blank lines
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        BlockInfo.TIME_FORMATTER.format(mTime, sb).append(' ').append(mState);
+        if (mBlocker != null) {
+            sb.append(" on ").append(mBlocker);
+        }
+        sb.append(" held by ").append(mHolder == null ? "unknown" : mHolder)
+                .append(BlockInfo.SEPARATOR);
+        for (ThreadDump thread : mThreads) {
+            sb.append(thread);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stack of one thread, innermost frames first.
+     */
+    public static final class ThreadDump {
+
+        private final String mName;
+        private final Thread.State mState;
+        private final String mRole;
+        private final StackTraceElement[] mFrames;
+
+        /**
+         * @param role "holder", "suspect" if it runs code of the contended class, or null
+         */
+        public ThreadDump(String name, Thread.State state, String role,
+                          StackTraceElement[] frames) {
+            mName = name;
+            mState = state;
+            mRole = role;
+            mFrames = frames;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Thread.State getState() {
+            return mState;
+        }
+
+        public String getRole() {
+            return mRole;
+        }
+
+        public StackTraceElement[] getFrames() {
+            return mFrames;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('"').append(mName).append("\" ").append(mState);
+            if (mRole != null) {
+                sb.append(' ').append(mRole);
+            }
+            sb.append(BlockInfo.SEPARATOR);
+            for (StackTraceElement frame : mFrames) {
+                sb.append("  at ").append(frame).append(BlockInfo.SEPARATOR);
+            }
+            return sb.toString();
+        }
+    }
+}
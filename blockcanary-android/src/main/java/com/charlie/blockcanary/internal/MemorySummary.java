@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Garbage collections which completed during a block window and heap usage sampled in it. Values
+ * are -1 when unknown, GC counters need API 23.
+ */
+public final class MemorySummary {
+
+    public static final MemorySummary EMPTY = new MemorySummary(-1, -1, -1, -1, -1, -1, -1, -1);
+
+    private final long mSpanMillis;
+    private final long mGcCount;
+    private final long mGcTimeMillis;
+    private final long mBlockingGcCount;
+    private final long mBlockingGcTimeMillis;
+    private final long mHeapUsedKb;
+    private final long mHeapMaxKb;
+    private final long mNativeHeapKb;
+
+    /**
+     * @param spanMillis  part of the window GC counters cover, from the first sample to its end
+     * @param heapUsedKb  highest java heap usage sampled
+     * @param nativeHeapKb highest native heap allocation sampled
+     */
+    public MemorySummary(long spanMillis, long gcCount, long gcTimeMillis, long blockingGcCount,
+                         long blockingGcTimeMillis, long heapUsedKb, long heapMaxKb,
+                         long nativeHeapKb) {
+        mSpanMillis = spanMillis;
+        mGcCount = gcCount;
+        mGcTimeMillis = gcTimeMillis;
+        mBlockingGcCount = blockingGcCount;
+        mBlockingGcTimeMillis = blockingGcTimeMillis;
+        mHeapUsedKb = heapUsedKb;
+        mHeapMaxKb = heapMaxKb;
+        mNativeHeapKb = nativeHeapKb;
+    }
+
+    public long getSpanMillis() {
+        return mSpanMillis;
+    }
+
+    public long getGcCount() {
+        return mGcCount;
+    }
+
+    /**
+     * @return time spent in those collections, partly concurrent with the app
+     */
+    public long getGcTimeMillis() {
+        return mGcTimeMillis;
+    }
+
+    /**
+     * @return collections which suspended the allocating thread until they were done
+     */
+    public long getBlockingGcCount() {
+        return mBlockingGcCount;
+    }
+
+    public long getBlockingGcTimeMillis() {
+        return mBlockingGcTimeMillis;
+    }
+
+    public long getHeapUsedKb() {
+        return mHeapUsedKb;
+    }
+
+    public long getHeapMaxKb() {
+        return mHeapMaxKb;
+    }
+
+    public long getNativeHeapKb() {
+        return mNativeHeapKb;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "gc:%d/%dms blocking:%d/%dms in %dms heap:%dKB/%dKB native:%dKB",
+                mGcCount, mGcTimeMillis, mBlockingGcCount, mBlockingGcTimeMillis, mSpanMillis,
+                mHeapUsedKb, mHeapMaxKb, mNativeHeapKb);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable report of BlockCanary's own cost, totals of each {@link Probe} plus overhead as a
+ * share of main thread time and of one core for the sampler and writer threads.
+ */
+public final class OverheadSnapshot {
+
+    private final List<Entry> mEntries;
+    private final long mElapsedNanos;
+    private final long mMainThreadNanos;
+    private final long mMainOverheadNanos;
+
+    OverheadSnapshot(List<Entry> entries, long elapsedNanos, long mainThreadNanos,
+                     long mainOverheadNanos) {
+        mEntries = Collections.unmodifiableList(entries);
+        mElapsedNanos = elapsedNanos;
+        mMainThreadNanos = mainThreadNanos;
+        mMainOverheadNanos = mainOverheadNanos;
+    }
+
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * @return wall time covered by this report
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * @return time the main thread ran, wall time if that is unreadable
+     */
+    public long getMainThreadNanos() {
+        return mMainThreadNanos;
+    }
+
+    /**
+     * @return time spent monitoring the main looper, on the main thread
+     */
+    public long getMainOverheadNanos() {
+        return mMainOverheadNanos;
+    }
+
+    /**
+     * @return total time of probes running on given kind of thread
+     */
+    public long getTotalNanos(int threadKind) {
+        long total = 0;
+        for (Entry entry : mEntries) {
+            if (entry.getThreadKind() == threadKind) {
+                total += entry.getTotalNanos();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return times the sampler thread woke up to take samples
+     */
+    public long getSamplerWakeups() {
+        for (Entry entry : mEntries) {
+            if (entry.getName().equals(SelfStats.TICK.getName())) {
+                return entry.getCount();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return monitoring cost in percent of main thread time
+     */
+    public double getMainThreadPercent() {
+        return percent(mMainOverheadNanos, mMainThreadNanos);
+    }
+
+    /**
+     * @return sampling cost in percent of one core
+     */
+    public double getSamplerThreadPercent() {
+        return percent(getTotalNanos(SelfStats.THREAD_SAMPLER), mElapsedNanos);
+    }
+
+    /**
+     * @return block formatting and writing cost in percent of one core
+     */
+    public double getWriterThreadPercent() {
+        return percent(getTotalNanos(SelfStats.THREAD_WRITER), mElapsedNanos);
+    }
+
+    /**
+     * @param earlier snapshot taken before this one
+     * @return report of what happened between given snapshot and this one
+     */
+    public OverheadSnapshot since(OverheadSnapshot earlier) {
+        List<Entry> entries = new ArrayList<>(mEntries.size());
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry now = mEntries.get(i);
+            Entry then = earlier.mEntries.get(i);
+            entries.add(new Entry(now.mName, now.mThreadKind, now.mCount - then.mCount,
+                    now.mTotalNanos - then.mTotalNanos, now.mMaxNanos));
+        }
+        return new OverheadSnapshot(entries, mElapsedNanos - earlier.mElapsedNanos,
+                mMainThreadNanos - earlier.mMainThreadNanos,
+                mMainOverheadNanos - earlier.mMainOverheadNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US,
+                "main thread %.3f%%, sampler thread %.3f%% (%d wakeups), writer thread %.3f%%"
+                        + " over %dms",
+                getMainThreadPercent(), getSamplerThreadPercent(), getSamplerWakeups(),
+                getWriterThreadPercent(), mElapsedNanos / 1000000L));
+        for (Entry entry : mEntries) {
+            sb.append('\n').append(entry);
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole <= 0 ? 0 : part * 100d / whole;
+    }
+
+    /**
+     * Totals of one probe.
+     */
+    public static final class Entry {
+
+        private final String mName;
+        private final int mThreadKind;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+
+        Entry(String name, int threadKind, long count, long totalNanos, long maxNanos) {
+            mName = name;
+            mThreadKind = threadKind;
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mMaxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getThreadKind() {
+            return mThreadKind;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * @return max of a single call since the probe was created
+         */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s count=%d total=%.3fms mean=%.3fus max=%.3fms",
+                    mName, mCount, mTotalNanos / 1000000d, getMeanNanos() / 1000d,
+                    mMaxNanos / 1000000d);
+        }
+    }
+}
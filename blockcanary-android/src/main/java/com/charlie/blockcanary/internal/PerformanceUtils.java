@@ -48,7 +48,7 @@ class PerformanceUtils {
         class CpuFilter implements FileFilter {
             @Override
             public boolean accept(File pathname) {
-                return Pattern.matches("cpu[0-9]", pathname.getName());
+                return Pattern.matches("cpu[0-9]+", pathname.getName());
             }
         }
 
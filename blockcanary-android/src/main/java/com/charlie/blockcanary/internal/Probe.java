@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Counter and timer of one of BlockCanary's own code paths.
+ * <p>
+ * Every thread records into its own {@link Cell}, so recording takes no lock and never contends.
+ * Hot paths on a fixed thread should keep the cell from {@link #newCell(Thread)} instead of
+ * looking it up through {@link #record(long)}.
+ * </p>
+ */
+public final class Probe {
+
+    private final String mName;
+    private final int mThreadKind;
+    private final CopyOnWriteArrayList<Cell> mCells = new CopyOnWriteArrayList<>();
+    // Counts of removed cells, written only under lock of the probe.
+    private final Cell mRemoved = new Cell(null);
+    private final ThreadLocal<Cell> mLocalCell = new ThreadLocal<Cell>() {
+        @Override
+        protected Cell initialValue() {
+            return newCell(Thread.currentThread());
+        }
+    };
+
+    Probe(String name, int threadKind) {
+        mName = name;
+        mThreadKind = threadKind;
+        mCells.add(mRemoved);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return one of {@link SelfStats#THREAD_LOOPER}, {@link SelfStats#THREAD_SAMPLER} or
+     * {@link SelfStats#THREAD_WRITER}
+     */
+    public int getThreadKind() {
+        return mThreadKind;
+    }
+
+    /**
+     * @param thread only thread which will record into the cell
+     * @return new cell counted in this probe
+     */
+    public Cell newCell(Thread thread) {
+        Cell cell = new Cell(thread);
+        mCells.add(cell);
+        return cell;
+    }
+
+    /**
+     * Stop listing a cell from {@link #newCell(Thread)} once its thread no longer records, its
+     * counts are kept in the totals of the probe.
+     */
+    public synchronized void removeCell(Cell cell) {
+        if (cell == mRemoved || !mCells.remove(cell)) {
+            return;
+        }
+        mRemoved.mCount += cell.mCount;
+        mRemoved.mTotalNanos += cell.mTotalNanos;
+        mRemoved.mMaxNanos = Math.max(mRemoved.mMaxNanos, cell.mMaxNanos);
+    }
+
+    /**
+     * Record one call into the cell of current thread.
+     *
+     * @param nanos duration of the call
+     */
+    public void record(long nanos) {
+        mLocalCell.get().record(nanos);
+    }
+
+    Iterable<Cell> cells() {
+        return mCells;
+    }
+
+    /**
+     * Counts of one thread, written by that thread only.
+     */
+    public static final class Cell {
+
+        final Thread mThread;
+        volatile long mCount;
+        volatile long mTotalNanos;
+        volatile long mMaxNanos;
+
+        Cell(Thread thread) {
+            mThread = thread;
+        }
+
+        public void record(long nanos) {
+            mCount = mCount + 1;
+            mTotalNanos = mTotalNanos + nanos;
+            if (nanos > mMaxNanos) {
+                mMaxNanos = nanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BlockCanary's own probes, see {@link OverheadSnapshot} for the report.
+ */
+public final class SelfStats {
+
+    public static final int THREAD_LOOPER = 0;
+    public static final int THREAD_SAMPLER = 1;
+    public static final int THREAD_WRITER = 2;
+
+    public static final Probe PRINTLN = new Probe("LooperMonitor.println", THREAD_LOOPER);
+    public static final Probe STACK_TRACE = new Probe("StackSampler.getStackTrace", THREAD_SAMPLER);
+    public static final Probe STACK_INTERN = new Probe("StackSampler.intern", THREAD_SAMPLER);
+    public static final Probe STACK_FORMAT = new Probe("StackSampler.format", THREAD_WRITER);
+    public static final Probe CPU_READ = new Probe("CpuSampler.read", THREAD_SAMPLER);
+    public static final Probe CPU_PARSE = new Probe("CpuSampler.parse", THREAD_SAMPLER);
+    public static final Probe FLUSH_STRING = new Probe("BlockInfo.flushString", THREAD_WRITER);
+    /**
+     * Cost of writing queued blocks, its count is the number of batches.
+     */
+    public static final Probe BLOCK_WRITE = new Probe("BlockWriteQueue.drain", THREAD_WRITER);
+    /**
+     * Scheduling cost of the sampler thread, its count is the number of sampling wakeups.
+     */
+    public static final Probe TICK = new Probe("SampleTicker.tick", THREAD_SAMPLER);
+
+    private static final Probe[] PROBES = {
+            PRINTLN, STACK_TRACE, STACK_INTERN, STACK_FORMAT, CPU_READ, CPU_PARSE, FLUSH_STRING,
+            BLOCK_WRITE, TICK
+    };
+
+    private SelfStats() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * @param mainThread      thread whose {@link #PRINTLN} time counts as main thread overhead
+     * @param elapsedNanos    wall time covered by the report
+     * @param mainThreadNanos time the main thread ran in that period, -1 if unknown
+     * @return totals of every probe
+     */
+    public static OverheadSnapshot snapshot(Thread mainThread, long elapsedNanos,
+                                            long mainThreadNanos) {
+        List<OverheadSnapshot.Entry> entries = new ArrayList<>(PROBES.length);
+        long mainOverhead = 0;
+        for (Probe probe : PROBES) {
+            long count = 0;
+            long total = 0;
+            long max = 0;
+            for (Probe.Cell cell : probe.cells()) {
+                long cellTotal = cell.mTotalNanos;
+                count += cell.mCount;
+                total += cellTotal;
+                max = Math.max(max, cell.mMaxNanos);
+                if (probe.getThreadKind() == THREAD_LOOPER && cell.mThread == mainThread) {
+                    mainOverhead += cellTotal;
+                }
+            }
+            entries.add(new OverheadSnapshot.Entry(probe.getName(), probe.getThreadKind(),
+                    count, total, max));
+        }
+        return new OverheadSnapshot(entries, elapsedNanos,
+                mainThreadNanos >= 0 ? mainThreadNanos : elapsedNanos, mainOverhead);
+    }
+}
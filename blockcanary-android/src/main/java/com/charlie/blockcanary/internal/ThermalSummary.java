@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cpu frequency of each cluster and device temperature over a block window, to tell blocks caused
+ * by thermal throttling or slow cores from those caused by the app itself.
+ */
+public final class ThermalSummary {
+
+    public static final ThermalSummary EMPTY =
+            new ThermalSummary(Collections.<Cluster>emptyList(), -1, null, -1);
+
+    private final List<Cluster> mClusters;
+    private final long mMaxTempMilli;
+    private final String mHottestZone;
+    private final long mMaxCpuTempMilli;
+
+    /**
+     * @param maxTempMilli    highest temperature of any zone in millidegrees Celsius, -1 if unknown
+     * @param hottestZone     type of the zone which reported it
+     * @param maxCpuTempMilli highest temperature of cpu zones, -1 if unknown
+     */
+    public ThermalSummary(List<Cluster> clusters, long maxTempMilli, String hottestZone,
+                          long maxCpuTempMilli) {
+        mClusters = clusters;
+        mMaxTempMilli = maxTempMilli;
+        mHottestZone = hottestZone;
+        mMaxCpuTempMilli = maxCpuTempMilli;
+    }
+
+    public List<Cluster> getClusters() {
+        return mClusters;
+    }
+
+    public long getMaxTempMilli() {
+        return mMaxTempMilli;
+    }
+
+    public String getHottestZone() {
+        return mHottestZone;
+    }
+
+    public long getMaxCpuTempMilli() {
+        return mMaxCpuTempMilli;
+    }
+
+    /**
+     * @return temperatures as written to block logs, empty if unknown
+     */
+    public String getTemperatureString() {
+        if (mMaxTempMilli < 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("max:").append(formatTemp(mMaxTempMilli));
+        if (mHottestZone != null) {
+            sb.append(" (").append(mHottestZone).append(')');
+        }
+        if (mMaxCpuTempMilli >= 0) {
+            sb.append(" cpu:").append(formatTemp(mMaxCpuTempMilli));
+        }
+        return sb.toString();
+    }
+
+    private static String formatTemp(long milli) {
+        return String.format(Locale.US, "%.1fC", milli / 1000f);
+    }
+
+    /**
+     * Frequencies in kHz of cpus sharing a frequency policy, -1 when unknown.
+     */
+    public static final class Cluster {
+
+        private final String mCpus;
+        private final long mHardwareMaxKhz;
+        private final long mMinKhz;
+        private final long mAverageKhz;
+        private final long mMaxKhz;
+        private final long mCapKhz;
+
+        /**
+         * @param cpus           cpus of the cluster, like "4-7"
+         * @param hardwareMaxKhz highest frequency the cluster supports
+         * @param capKhz         lowest frequency limit seen, below hardware max when throttled
+         */
+        public Cluster(String cpus, long hardwareMaxKhz, long minKhz, long averageKhz,
+                       long maxKhz, long capKhz) {
+            mCpus = cpus;
+            mHardwareMaxKhz = hardwareMaxKhz;
+            mMinKhz = minKhz;
+            mAverageKhz = averageKhz;
+            mMaxKhz = maxKhz;
+            mCapKhz = capKhz;
+        }
+
+        public String getCpus() {
+            return mCpus;
+        }
+
+        public long getHardwareMaxKhz() {
+            return mHardwareMaxKhz;
+        }
+
+        public long getMinKhz() {
+            return mMinKhz;
+        }
+
+        public long getAverageKhz() {
+            return mAverageKhz;
+        }
+
+        public long getMaxKhz() {
+            return mMaxKhz;
+        }
+
+        public long getCapKhz() {
+            return mCapKhz;
+        }
+
+        /**
+         * @return whether the frequency limit was lowered below what the hardware supports
+         */
+        public boolean isThrottled() {
+            return mCapKhz > 0 && mHardwareMaxKhz > 0 && mCapKhz < mHardwareMaxKhz;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "cpu%s avg:%dMHz min:%dMHz max:%dMHz cap:%d/%dMHz%s",
+                    mCpus, mAverageKhz / 1000, mMinKhz / 1000, mMaxKhz / 1000, mCapKhz / 1000,
+                    mHardwareMaxKhz / 1000, isThrottled() ? " throttled" : "");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * CPU one thread of the app used while a block was sampled, read from
+ * {@code /proc/self/task/<tid>/stat}.
+ */
+public final class ThreadCpu {
+
+    private final int mTid;
+    private final String mName;
+    private final long mCpuMillis;
+    private final char mState;
+    private final int mProcessor;
+
+    public ThreadCpu(int tid, String name, long cpuMillis, char state, int processor) {
+        mTid = tid;
+        mName = name;
+        mCpuMillis = cpuMillis;
+        mState = state;
+        mProcessor = processor;
+    }
+
+    public int getTid() {
+        return mTid;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return user plus system time in the sampled window, in 10ms steps
+     */
+    public long getCpuMillis() {
+        return mCpuMillis;
+    }
+
+    /**
+     * @return scheduler state at the last sample, like 'R' running or 'S' sleeping
+     */
+    public char getState() {
+        return mState;
+    }
+
+    /**
+     * @return core the thread last ran on
+     */
+    public int getProcessor() {
+        return mProcessor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s(%d) cpu=%dms state=%c core=%d",
+                mName, mTid, mCpuMillis, mState, mProcessor);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Where a blocked looper thread spent its time, from its schedstat and context switch counts
+ * read when the dispatch was flagged slow and when it ended.
+ * <p>
+ * Time on cpu points at work done by the dispatch, runnable time at cpu starvation, sleeping
+ * time at locks, I/O or binder calls.
+ * </p>
+ */
+public final class ThreadSched {
+
+    private final long mSpanMillis;
+    private final long mOnCpuMillis;
+    private final long mRunnableMillis;
+    private final long mTimeslices;
+    private final long mVoluntarySwitches;
+    private final long mInvoluntarySwitches;
+
+    /**
+     * @param spanMillis          wall time measured
+     * @param voluntarySwitches   -1 if unknown
+     * @param involuntarySwitches -1 if unknown
+     */
+    public ThreadSched(long spanMillis, long onCpuMillis, long runnableMillis, long timeslices,
+                       long voluntarySwitches, long involuntarySwitches) {
+        mSpanMillis = spanMillis;
+        mOnCpuMillis = onCpuMillis;
+        mRunnableMillis = runnableMillis;
+        mTimeslices = timeslices;
+        mVoluntarySwitches = voluntarySwitches;
+        mInvoluntarySwitches = involuntarySwitches;
+    }
+
+    /**
+     * @return wall time the breakdown covers, from when the dispatch was flagged slow to its end
+     */
+    public long getSpanMillis() {
+        return mSpanMillis;
+    }
+
+    public long getOnCpuMillis() {
+        return mOnCpuMillis;
+    }
+
+    /**
+     * @return time runnable but waiting for a cpu
+     */
+    public long getRunnableMillis() {
+        return mRunnableMillis;
+    }
+
+    /**
+     * @return time neither running nor runnable: sleeping, blocked on a lock, I/O or binder
+     */
+    public long getSleepingMillis() {
+        return Math.max(0, mSpanMillis - mOnCpuMillis - mRunnableMillis);
+    }
+
+    public long getTimeslices() {
+        return mTimeslices;
+    }
+
+    public long getVoluntarySwitches() {
+        return mVoluntarySwitches;
+    }
+
+    public long getInvoluntarySwitches() {
+        return mInvoluntarySwitches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "span=%dms on-cpu=%dms runnable=%dms sleeping=%dms slices=%d switches=%d/%d",
+                mSpanMillis, mOnCpuMillis, mRunnableMillis, getSleepingMillis(), mTimeslices,
+                mVoluntarySwitches, mInvoluntarySwitches);
+    }
+}
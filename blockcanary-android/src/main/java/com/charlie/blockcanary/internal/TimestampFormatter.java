@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats wall times like {@link java.text.SimpleDateFormat}, safe to share between threads.
+ * <p>
+ * Fields down to the hour are formatted once per hour and cached, later times of the same hour
+ * only fill in minute, second and millisecond digits, into a per thread buffer. Patterns may use
+ * {@code yyyy}, {@code MM}, {@code dd}, {@code HH}, {@code mm}, {@code ss}, {@code SSS} and
+ * characters other than letters, which are copied as is. Times use the default time zone at
+ * construction.
+ * </p>
+ */
+public final class TimestampFormatter {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private final String mPattern;
+    private final TimeZone mTimeZone;
+    private final char[] mLiterals;
+    private final int[] mFields;
+    private final int[] mPositions;
+    private final int mMinutePos;
+    private final int mSecondPos;
+    private final int mMillisPos;
+    private volatile Hour mHour = new Hour(0, 0, null);
+
+    private final ThreadLocal<char[]> mBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[mLiterals.length];
+        }
+    };
+
+    /**
+     * @throws IllegalArgumentException if pattern uses a letter or width not listed above
+     */
+    public TimestampFormatter(String pattern) {
+        mPattern = pattern;
+        mTimeZone = TimeZone.getDefault();
+        mLiterals = pattern.toCharArray();
+        int count = 0;
+        int[] fields = new int[mLiterals.length];
+        int[] positions = new int[mLiterals.length];
+        int minutePos = -1;
+        int secondPos = -1;
+        int millisPos = -1;
+        for (int i = 0; i < mLiterals.length; ) {
+            char c = mLiterals[i];
+            if (!Character.isLetter(c)) {
+                i++;
+                continue;
+            }
+            int width = 1;
+            while (i + width < mLiterals.length && mLiterals[i + width] == c) {
+                width++;
+            }
+            int field = fieldOf(c, width, pattern);
+            if (field == Calendar.MINUTE) {
+                minutePos = i;
+            } else if (field == Calendar.SECOND) {
+                secondPos = i;
+            } else if (field == Calendar.MILLISECOND) {
+                millisPos = i;
+            } else {
+                fields[count] = field;
+                positions[count] = i;
+                count++;
+            }
+            i += width;
+        }
+        mFields = Arrays.copyOf(fields, count);
+        mPositions = Arrays.copyOf(positions, count);
+        mMinutePos = minutePos;
+        mSecondPos = secondPos;
+        mMillisPos = millisPos;
+    }
+
+    private static int fieldOf(char c, int width, String pattern) {
+        int expected;
+        int field;
+        switch (c) {
+            case 'y':
+                expected = 4;
+                field = Calendar.YEAR;
+                break;
+            case 'M':
+                expected = 2;
+                field = Calendar.MONTH;
+                break;
+            case 'd':
+                expected = 2;
+                field = Calendar.DAY_OF_MONTH;
+                break;
+            case 'H':
+                expected = 2;
+                field = Calendar.HOUR_OF_DAY;
+                break;
+            case 'm':
+                expected = 2;
+                field = Calendar.MINUTE;
+                break;
+            case 's':
+                expected = 2;
+                field = Calendar.SECOND;
+                break;
+            case 'S':
+                expected = 3;
+                field = Calendar.MILLISECOND;
+                break;
+            default:
+                expected = -1;
+                field = -1;
+                break;
+        }
+        if (width != expected) {
+            throw new IllegalArgumentException("Unsupported field in " + pattern);
+        }
+        return field;
+    }
+
+    public String getPattern() {
+        return mPattern;
+    }
+
+    public String format(long time) {
+        char[] buffer = mBuffer.get();
+        fill(time, buffer);
+        return new String(buffer);
+    }
+
+    /**
+     * Append formatted time without allocating, unless the hour is not cached.
+     *
+     * @return given builder
+     */
+    public StringBuilder format(long time, StringBuilder sb) {
+        char[] buffer = mBuffer.get();
+        fill(time, buffer);
+        return sb.append(buffer);
+    }
+
+    private void fill(long time, char[] buffer) {
+        Hour hour = mHour;
+        if (time < hour.mStart || time >= hour.mEnd) {
+            hour = newHour(time);
+            if (hour == null) {
+                fillSlowly(time, buffer);
+                return;
+            }
+            mHour = hour;
+        }
+        System.arraycopy(hour.mChars, 0, buffer, 0, buffer.length);
+        int offset = (int) (time - hour.mStart);
+        if (mMinutePos >= 0) {
+            putDigits(buffer, mMinutePos, offset / 60000, 2);
+        }
+        if (mSecondPos >= 0) {
+            putDigits(buffer, mSecondPos, offset / 1000 % 60, 2);
+        }
+        if (mMillisPos >= 0) {
+            putDigits(buffer, mMillisPos, offset % 1000, 3);
+        }
+    }
+
+    /**
+     * @return hour containing given time, null if its utc offset changes within it
+     */
+    private Hour newHour(long time) {
+        Calendar calendar = new GregorianCalendar(mTimeZone, Locale.US);
+        calendar.setTimeInMillis(time);
+        long start = time - calendar.get(Calendar.MINUTE) * 60000L
+                - calendar.get(Calendar.SECOND) * 1000L - calendar.get(Calendar.MILLISECOND);
+        long end = start + HOUR_MILLIS;
+        if (mTimeZone.getOffset(start) != mTimeZone.getOffset(end - 1)) {
+            return null;
+        }
+        char[] chars = mLiterals.clone();
+        putFields(calendar, chars);
+        return new Hour(start, end, chars);
+    }
+
+    private void fillSlowly(long time, char[] buffer) {
+        Calendar calendar = new GregorianCalendar(mTimeZone, Locale.US);
+        calendar.setTimeInMillis(time);
+        System.arraycopy(mLiterals, 0, buffer, 0, buffer.length);
+        putFields(calendar, buffer);
+        if (mMinutePos >= 0) {
+            putDigits(buffer, mMinutePos, calendar.get(Calendar.MINUTE), 2);
+        }
+        if (mSecondPos >= 0) {
+            putDigits(buffer, mSecondPos, calendar.get(Calendar.SECOND), 2);
+        }
+        if (mMillisPos >= 0) {
+            putDigits(buffer, mMillisPos, calendar.get(Calendar.MILLISECOND), 3);
+        }
+    }
+
+    private void putFields(Calendar calendar, char[] chars) {
+        for (int i = 0; i < mFields.length; i++) {
+            int field = mFields[i];
+            int value = calendar.get(field);
+            if (field == Calendar.MONTH) {
+                value++;
+            }
+            putDigits(chars, mPositions[i], value, field == Calendar.YEAR ? 4 : 2);
+        }
+    }
+
+    private static void putDigits(char[] chars, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Formatted fields of one hour, immutable once published.
+     */
+    private static final class Hour {
+
+        final long mStart;
+        final long mEnd;
+        final char[] mChars;
+
+        Hour(long start, long end, char[] chars) {
+            mStart = start;
+            mEnd = end;
+            mChars = chars;
+        }
+    }
+}
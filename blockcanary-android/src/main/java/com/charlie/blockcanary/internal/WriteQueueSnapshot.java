@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 MarkZhai (http://zhaiyifan.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nf.blockcanary.internal;
+
+import java.util.Locale;
+
+/**
+ * Immutable counters of the queue blocks wait in to be written, since it was created.
+ */
+public final class WriteQueueSnapshot {
+
+    private final int mCapacity;
+    private final int mDepth;
+    private final int mMaxDepth;
+    private final long mQueued;
+    private final long mWritten;
+    private final long mFailed;
+    private final long mBatches;
+    private final int mMaxBatchSize;
+    private final long mDropped;
+    private final long mAggregated;
+
+    public WriteQueueSnapshot(int capacity, int depth, int maxDepth, long queued, long written,
+                              long failed, long batches, int maxBatchSize, long dropped,
+                              long aggregated) {
+        mCapacity = capacity;
+        mDepth = depth;
+        mMaxDepth = maxDepth;
+        mQueued = queued;
+        mWritten = written;
+        mFailed = failed;
+        mBatches = batches;
+        mMaxBatchSize = maxBatchSize;
+        mDropped = dropped;
+        mAggregated = aggregated;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return blocks waiting to be written now
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return blocks queued, including ones dropped later to make room
+     */
+    public long getQueued() {
+        return mQueued;
+    }
+
+    public long getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * @return blocks lost to write errors
+     */
+    public long getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return batches written, each one burst of writes and one flush
+     */
+    public long getBatches() {
+        return mBatches;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public double getMeanBatchSize() {
+        return mBatches == 0 ? 0 : (double) (mWritten + mFailed) / mBatches;
+    }
+
+    /**
+     * @return blocks dropped by {@link com.nf.blockcanary.BlockOverflowPolicy#DROP_OLDEST} or
+     * {@link com.nf.blockcanary.BlockOverflowPolicy#DROP_NEWEST}
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return blocks only counted by {@link com.nf.blockcanary.BlockOverflowPolicy#AGGREGATE}
+     */
+    public long getAggregated() {
+        return mAggregated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "depth=%d/%d maxDepth=%d queued=%d written=%d failed=%d batches=%d"
+                        + " meanBatch=%.1f maxBatch=%d dropped=%d aggregated=%d",
+                mDepth, mCapacity, mMaxDepth, mQueued, mWritten, mFailed, mBatches,
+                getMeanBatchSize(), mMaxBatchSize, mDropped, mAggregated);
+    }
+}
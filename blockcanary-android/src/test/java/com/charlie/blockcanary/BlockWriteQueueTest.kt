@@ -0,0 +1,172 @@
+package com.nf.blockcanary
+
+import com.nf.blockcanary.internal.BlockInfo
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+/**
+ * Overflow policies, counters and batch drain of [BlockWriteQueue], drained by hand into a store
+ * in a temporary directory.
+ */
+class BlockWriteQueueTest {
+
+  private lateinit var dir: File
+  private lateinit var store: BlockStore
+
+  @Before
+  fun setUp() {
+    dir = Files.createTempDirectory("blocks").toFile()
+    store = BlockStore(dir, 1L shl 20, Long.MAX_VALUE)
+  }
+
+  @After
+  fun tearDown() {
+    store.deleteAll()
+    dir.deleteRecursively()
+  }
+
+  private fun queue(capacity: Int, policy: BlockOverflowPolicy) =
+      BlockWriteQueue(null, store, capacity, policy)
+
+  private fun block(name: String, timeCost: Long = 100): BlockInfo {
+    val info = BlockInfo()
+    info.qualifier = name
+    info.timeCost = timeCost
+    info.timeStart = "start"
+    info.timeEnd = "end"
+    return info
+  }
+
+  private fun stored(): List<String> {
+    val names = ArrayList<String>()
+    val cursor = store.query()
+    try {
+      while (true) {
+        val info = BlockInfo()
+        if (!cursor.next(info)) {
+          break
+        }
+        names.add(info.qualifier)
+      }
+    } finally {
+      cursor.close()
+    }
+    return names
+  }
+
+  @Test
+  fun dropOldest_keepsNewestBlocks() {
+    val queue = queue(4, BlockOverflowPolicy.DROP_OLDEST)
+    for (i in 0 until 10) {
+      assertTrue(queue.offer(block("b$i"), "stack"))
+    }
+    var snapshot = queue.snapshot()
+    assertEquals(4, snapshot.depth)
+    assertEquals(4, snapshot.maxDepth)
+    assertEquals(10L, snapshot.queued)
+    assertEquals(6L, snapshot.dropped)
+    assertEquals(0L, snapshot.aggregated)
+
+    queue.drain()
+    snapshot = queue.snapshot()
+    assertEquals(0, snapshot.depth)
+    assertEquals(4L, snapshot.written)
+    assertEquals(listOf("b6", "b7", "b8", "b9"), stored())
+  }
+
+  @Test
+  fun dropNewest_keepsOldestBlocks() {
+    val queue = queue(4, BlockOverflowPolicy.DROP_NEWEST)
+    for (i in 0 until 10) {
+      assertEquals(i < 4, queue.offer(block("b$i"), "stack"))
+    }
+    val snapshot = queue.snapshot()
+    assertEquals(4, snapshot.depth)
+    assertEquals(4L, snapshot.queued)
+    assertEquals(6L, snapshot.dropped)
+
+    queue.drain()
+    assertEquals(listOf("b0", "b1", "b2", "b3"), stored())
+  }
+
+  @Test
+  fun aggregate_countsOverflowByConcernStack() {
+    val queue = queue(2, BlockOverflowPolicy.AGGREGATE)
+    assertTrue(queue.offer(block("b0"), "stackA"))
+    assertTrue(queue.offer(block("b1"), "stackA"))
+    assertFalse(queue.offer(block("b2", 100), "stackA"))
+    assertFalse(queue.offer(block("b3", 300), "stackA"))
+    assertFalse(queue.offer(block("b4", 50), "stackB"))
+    var snapshot = queue.snapshot()
+    assertEquals(2, snapshot.depth)
+    assertEquals(3L, snapshot.aggregated)
+    assertEquals(0L, snapshot.dropped)
+    // A block offered now would not be queued, it keeps the counts.
+    assertNull(queue.takeOverflow())
+
+    queue.drain()
+    assertEquals("2 blocks, 400ms total, 300ms max: stackA" + BlockInfo.SEPARATOR +
+        "1 blocks, 50ms total, 50ms max: stackB", queue.takeOverflow())
+    assertNull(queue.takeOverflow())
+    snapshot = queue.snapshot()
+    assertEquals(2L, snapshot.written)
+    assertEquals(listOf("b0", "b1"), stored())
+  }
+
+  @Test
+  fun aggregate_capsConcernStacks() {
+    val queue = queue(1, BlockOverflowPolicy.AGGREGATE)
+    assertTrue(queue.offer(block("b"), "queued"))
+    for (i in 0 until 20) {
+      assertFalse(queue.offer(block("o$i", 10), "stack$i"))
+    }
+    queue.drain()
+    val lines = queue.takeOverflow()!!.split(BlockInfo.SEPARATOR)
+    assertEquals(17, lines.size)
+    assertEquals("1 blocks, 10ms total, 10ms max: stack0", lines[0])
+    assertEquals("4 blocks, 40ms total, 10ms max: other", lines[16])
+  }
+
+  @Test
+  fun drain_writesEverythingQueuedAsOneBatch() {
+    val queue = queue(8, BlockOverflowPolicy.DROP_OLDEST)
+    queue.drain()
+    assertEquals(0L, queue.snapshot().batches)
+
+    for (i in 0 until 3) {
+      queue.offer(block("b$i"), "stack")
+    }
+    queue.drain()
+    var snapshot = queue.snapshot()
+    assertEquals(1L, snapshot.batches)
+    assertEquals(3, snapshot.maxBatchSize)
+    assertEquals(3.0, snapshot.meanBatchSize, 0.0)
+
+    for (i in 3 until 5) {
+      queue.offer(block("b$i"), "stack")
+    }
+    queue.drain()
+    snapshot = queue.snapshot()
+    assertEquals(2L, snapshot.batches)
+    assertEquals(3, snapshot.maxBatchSize)
+    assertEquals(5L, snapshot.written)
+    assertEquals(0L, snapshot.failed)
+    assertEquals(0, snapshot.depth)
+    assertEquals(listOf("b0", "b1", "b2", "b3", "b4"), stored())
+  }
+
+  @Test
+  fun capacity_atLeastOne() {
+    val queue = queue(0, BlockOverflowPolicy.DROP_NEWEST)
+    assertTrue(queue.offer(block("b0"), "stack"))
+    assertFalse(queue.offer(block("b1"), "stack"))
+    assertEquals(1, queue.snapshot().capacity)
+  }
+}
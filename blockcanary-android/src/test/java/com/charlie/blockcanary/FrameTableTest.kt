@@ -0,0 +1,63 @@
+package com.nf.blockcanary
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Interning of [FrameTable] and ids handed out before it started over.
+ */
+class FrameTableTest {
+
+  private fun frame(line: Int) = StackTraceElement("com.example.Foo", "bar", "Foo.java", line)
+
+  @Test
+  fun intern_sameFrameSameId() {
+    val table = FrameTable()
+    val id = table.intern(frame(1))
+    assertEquals(id, table.intern(frame(1)))
+    assertNotEquals(id, table.intern(frame(2)))
+    assertEquals(frame(1).toString(), FrameTable.textOf(table.frames(), id))
+  }
+
+  @Test
+  fun intern_idsStayValidWhileGrowing() {
+    val table = FrameTable()
+    val ids = IntArray(1000) { table.intern(frame(it)) }
+    val frames = table.frames()
+    for (i in ids.indices) {
+      assertEquals(frame(i).toString(), FrameTable.textOf(frames, ids[i]))
+    }
+  }
+
+  @Test
+  fun ensureCapacity_startsOverOnlyWhenAboutToFill() {
+    val table = FrameTable()
+    var line = 0
+    while (!table.ensureCapacity(64)) {
+      table.intern(frame(line++))
+    }
+    assertEquals(65536 - 63, line)
+    assertFalse(table.ensureCapacity(64))
+  }
+
+  @Test
+  fun ensureCapacity_oldIdsResolveAgainstOldArray() {
+    val table = FrameTable()
+    for (i in 0 until 65536) {
+      table.intern(frame(i))
+    }
+    val old = table.frames()
+    val oldId = table.intern(frame(7))
+    assertEquals(FrameTable.OVERFLOW, table.intern(frame(65536)))
+    assertTrue(table.ensureCapacity(1))
+
+    val newId = table.intern(frame(65536))
+    assertEquals(0, newId)
+    assertEquals(frame(65536).toString(), FrameTable.textOf(table.frames(), newId))
+    assertEquals(frame(7).toString(), FrameTable.textOf(old, oldId))
+    assertEquals("<frame table full>", FrameTable.textOf(old, FrameTable.OVERFLOW))
+  }
+}
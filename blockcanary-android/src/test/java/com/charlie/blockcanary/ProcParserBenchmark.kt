@@ -0,0 +1,92 @@
+package com.nf.blockcanary
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStreamReader
+
+/**
+ * Cost of one cpu sample, [ProcParser] on reused buffers vs. the former readLine and split
+ * parsing, on the fixtures and, where the host has it, on the live /proc/stat.
+ */
+class ProcParserBenchmark {
+
+  @Test
+  fun parseFixtures() {
+    val (cpuBuffer, cpuLength) =
+        ProcParserTest.fixture("stat-android-8cpu.txt", ProcParserTest.CPU_STAT_BUFFER_SIZE)
+    val (pidBuffer, pidLength) =
+        ProcParserTest.fixture("pid-stat-android-app.txt", ProcParserTest.PID_STAT_BUFFER_SIZE)
+    val cpuLine = String(cpuBuffer, 0, cpuLength).lineSequence().first()
+    val pidLine = String(pidBuffer, 0, pidLength).lineSequence().first()
+    val cpu = LongArray(ProcParser.CPU_VALUE_COUNT)
+    val pid = LongArray(ProcParser.STAT_CSTIME + 1)
+
+    assertEquals(splitTotal(cpuLine, pidLine), bytesTotal(cpuBuffer, cpuLength, pidBuffer,
+        pidLength, cpu, pid))
+
+    val bytesNanos = measure(PARSE_ITERATIONS) {
+      bytesTotal(cpuBuffer, cpuLength, pidBuffer, pidLength, cpu, pid)
+    }
+    val splitNanos = measure(PARSE_ITERATIONS) { splitTotal(cpuLine, pidLine) }
+    println("parse per sample: bytes ${bytesNanos}ns, split ${splitNanos}ns")
+  }
+
+  @Test
+  fun readLiveProc() {
+    if (!File("/proc/stat").canRead()) {
+      return
+    }
+    val procFile = ProcFile("/proc/stat", ProcParserTest.CPU_STAT_BUFFER_SIZE)
+    val cpu = LongArray(ProcParser.CPU_VALUE_COUNT)
+    val reusedNanos = measure(READ_ITERATIONS) {
+      ProcParser.parseCpuTotals(procFile.buffer(), procFile.read(), cpu).toLong()
+    }
+    procFile.close()
+    val reopenedNanos = measure(READ_ITERATIONS) {
+      BufferedReader(InputStreamReader(FileInputStream("/proc/stat")), 1000).use {
+        it.readLine().split(" ").size.toLong()
+      }
+    }
+    println("read /proc/stat per sample: reused ${reusedNanos}ns, reopened ${reopenedNanos}ns")
+  }
+
+  private fun bytesTotal(cpuBuffer: ByteArray, cpuLength: Int, pidBuffer: ByteArray,
+      pidLength: Int, cpu: LongArray, pid: LongArray): Long {
+    ProcParser.parseCpuTotals(cpuBuffer, cpuLength, cpu)
+    ProcParser.parseStat(pidBuffer, pidLength, pid)
+    return (0..ProcParser.CPU_SOFTIRQ).sumOf { cpu[it] } +
+        pid[ProcParser.STAT_UTIME] + pid[ProcParser.STAT_STIME] +
+        pid[ProcParser.STAT_CUTIME] + pid[ProcParser.STAT_CSTIME]
+  }
+
+  private fun splitTotal(cpuLine: String, pidLine: String): Long {
+    val cpu = cpuLine.split(" ")
+    val pid = pidLine.split(" ")
+    return (2..8).sumOf { cpu[it].toLong() } + (13..16).sumOf { pid[it].toLong() }
+  }
+
+  private inline fun measure(iterations: Int, block: () -> Long): Long {
+    var sink = 0L
+    for (i in 0 until iterations / 10) {
+      sink += block()
+    }
+    val start = System.nanoTime()
+    for (i in 0 until iterations) {
+      sink += block()
+    }
+    val nanos = (System.nanoTime() - start) / iterations
+    // Keep the work observable.
+    if (sink == Long.MIN_VALUE) {
+      println(sink)
+    }
+    return nanos
+  }
+
+  companion object {
+    private const val PARSE_ITERATIONS = 200_000
+    private const val READ_ITERATIONS = 20_000
+  }
+}
@@ -0,0 +1,125 @@
+package com.nf.blockcanary
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * [ProcParser] against /proc contents from devices and Linux hosts, see src/test/resources/proc.
+ */
+class ProcParserTest {
+
+  @Test
+  fun parseCpuTotals_device() {
+    val values = LongArray(ProcParser.CPU_VALUE_COUNT)
+    val (buffer, length) = fixture("stat-android-8cpu.txt", CPU_STAT_BUFFER_SIZE)
+    assertEquals(8, ProcParser.parseCpuTotals(buffer, length, values))
+    assertArrayEquals(longArrayOf(2255923, 286424, 1557346, 26740427, 44395, 292113, 131226, 0),
+        values)
+  }
+
+  @Test
+  fun parseCpuTotals_host() {
+    val values = LongArray(ProcParser.CPU_VALUE_COUNT)
+    val (buffer, length) = fixture("stat-linux-1cpu.txt", CPU_STAT_BUFFER_SIZE)
+    assertEquals(8, ProcParser.parseCpuTotals(buffer, length, values))
+    assertArrayEquals(longArrayOf(8339, 0, 969, 140268, 93, 0, 3, 1082), values)
+  }
+
+  @Test
+  fun parseCpuTotals_rejectsOtherLines() {
+    val values = LongArray(ProcParser.CPU_VALUE_COUNT)
+    val cpu0 = "cpu0 1 2 3 4 5 6 7\n".toByteArray()
+    assertEquals(0, ProcParser.parseCpuTotals(cpu0, cpu0.size, values))
+    val empty = ByteArray(0)
+    assertEquals(0, ProcParser.parseCpuTotals(empty, 0, values))
+  }
+
+  @Test
+  fun parseCpuTotals_dropsTruncatedNumber() {
+    val values = LongArray(ProcParser.CPU_VALUE_COUNT)
+    // Buffer full in the middle of the third number.
+    val buffer = "cpu  11 22 3".toByteArray()
+    assertEquals(2, ProcParser.parseCpuTotals(buffer, buffer.size, values))
+    assertEquals(11, values[ProcParser.CPU_USER])
+    assertEquals(22, values[ProcParser.CPU_NICE])
+  }
+
+  @Test
+  fun parseStat_app() {
+    val values = LongArray(ProcParser.STAT_PROCESSOR + 1)
+    val (buffer, length) = fixture("pid-stat-android-app.txt", PID_STAT_BUFFER_SIZE)
+    assertEquals(values.size, ProcParser.parseStat(buffer, length, values))
+    assertEquals('S'.toLong(), values[ProcParser.STAT_STATE])
+    assertEquals(8631, values[ProcParser.STAT_UTIME])
+    assertEquals(1722, values[ProcParser.STAT_STIME])
+    assertEquals(0, values[ProcParser.STAT_CUTIME])
+    assertEquals(0, values[ProcParser.STAT_CSTIME])
+    // Field 19, nice, is negative.
+    assertEquals(-10, values[16])
+    assertEquals(6, values[ProcParser.STAT_PROCESSOR])
+  }
+
+  @Test
+  fun parseStat_host() {
+    val values = LongArray(ProcParser.STAT_CSTIME + 1)
+    val (buffer, length) = fixture("pid-stat-linux.txt", PID_STAT_BUFFER_SIZE)
+    assertEquals(values.size, ProcParser.parseStat(buffer, length, values))
+    assertEquals(128, values[ProcParser.STAT_UTIME])
+    assertEquals(267, values[ProcParser.STAT_STIME])
+    assertEquals(893, values[ProcParser.STAT_CUTIME])
+    assertEquals(108, values[ProcParser.STAT_CSTIME])
+  }
+
+  @Test
+  fun parseStat_thread() {
+    val values = LongArray(ProcParser.STAT_PROCESSOR + 1)
+    val (buffer, length) = fixture("task-stat-android-binder.txt", PID_STAT_BUFFER_SIZE)
+    assertEquals(values.size, ProcParser.parseStat(buffer, length, values))
+    assertEquals(97, values[ProcParser.STAT_UTIME])
+    assertEquals(113, values[ProcParser.STAT_STIME])
+    assertEquals(3, values[ProcParser.STAT_PROCESSOR])
+    assertEquals("Binder:12345_2", name(buffer, length))
+  }
+
+  @Test
+  fun parseStat_nameWithSpacesAndParentheses() {
+    val values = LongArray(ProcParser.STAT_PROCESSOR + 1)
+    val (buffer, length) = fixture("task-stat-odd-name.txt", PID_STAT_BUFFER_SIZE)
+    assertEquals(values.size, ProcParser.parseStat(buffer, length, values))
+    assertEquals('R'.toLong(), values[ProcParser.STAT_STATE])
+    assertEquals(5, values[ProcParser.STAT_UTIME])
+    assertEquals(2, values[ProcParser.STAT_STIME])
+    assertEquals(7, values[ProcParser.STAT_PROCESSOR])
+    assertEquals("my (odd) name", name(buffer, length))
+  }
+
+  @Test
+  fun parseStat_malformed() {
+    val values = LongArray(ProcParser.STAT_CSTIME + 1)
+    val buffer = "12345 no name".toByteArray()
+    assertEquals(0, ProcParser.parseStat(buffer, buffer.size, values))
+  }
+
+  private fun name(buffer: ByteArray, length: Int): String {
+    val start = ProcParser.nameStart(buffer, length)
+    return String(buffer, start, ProcParser.nameEnd(buffer, length) - start)
+  }
+
+  companion object {
+    const val CPU_STAT_BUFFER_SIZE = 256
+    const val PID_STAT_BUFFER_SIZE = 512
+
+    /**
+     * @return fixture read into a buffer of given size, as [ProcFile] would, and its length
+     */
+    fun fixture(name: String, bufferSize: Int): Pair<ByteArray, Int> {
+      val bytes = ProcParserTest::class.java.getResourceAsStream("/proc/$name")!!
+          .use { it.readBytes() }
+      val buffer = ByteArray(bufferSize)
+      val length = minOf(bytes.size, bufferSize)
+      System.arraycopy(bytes, 0, buffer, 0, length)
+      return Pair(buffer, length)
+    }
+  }
+}
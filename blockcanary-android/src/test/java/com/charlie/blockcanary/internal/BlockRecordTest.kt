@@ -0,0 +1,259 @@
+package com.nf.blockcanary.internal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.BufferedReader
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.StringReader
+
+/**
+ * Round trips of [BlockRecordWriter] and [BlockRecordReader], and of the text layout they render.
+ */
+class BlockRecordTest {
+
+  // Sampled stack entries end with a separator, text logs split them at blank lines.
+  private fun block(
+    stack: String = "at com.example.Foo.bar(Foo.java:1)${BlockInfo.SEPARATOR}"
+  ): BlockInfo {
+    val info = BlockInfo()
+    info.qualifier = "qua"
+    info.versionName = "1.0"
+    info.versionCode = 7
+    info.imei = "000000"
+    info.uid = "10001"
+    info.network = "wifi"
+    info.model = "model"
+    info.apiLevel = "28 9"
+    info.cpuCoreNum = 8
+    info.processName = "com.example"
+    info.looperName = "main"
+    info.freeMemory = "1024"
+    info.totalMemory = "4096"
+    info.timeCost = 1200
+    info.threadTimeCost = 300
+    info.timeStart = "01-02 03:04:05.006"
+    info.timeEnd = "01-02 03:04:06.206"
+    info.cpuRateInfo = "cpu 1 2 3"
+    info.threadStackEntries = arrayListOf(stack, stack)
+    return info
+  }
+
+  private fun write(vararg blocks: Pair<BlockInfo, Long>): ByteArray {
+    val out = ByteArrayOutputStream()
+    val writer = BlockRecordWriter(out)
+    for ((info, writeTime) in blocks) {
+      writer.write(info, writeTime)
+    }
+    return out.toByteArray()
+  }
+
+  private fun reader(bytes: ByteArray) = BlockRecordReader(ByteArrayInputStream(bytes))
+
+  @Test
+  fun roundTrip_edgeValues() {
+    val info = block()
+    info.timeCost = Long.MAX_VALUE
+    info.threadTimeCost = Long.MIN_VALUE
+    info.versionCode = -1
+    info.cpuCoreNum = Int.MIN_VALUE
+    info.schedSpan = 0
+    info.schedOnCpu = Long.MAX_VALUE
+    info.schedRunnable = -1
+    info.schedSleeping = 127
+    info.schedSlices = 128
+    info.schedVoluntary = Long.MIN_VALUE
+    info.schedInvoluntary = -64
+    info.ioSpan = 0
+    info.ioReadBytes = Long.MAX_VALUE
+    info.ioWriteBytes = Long.MIN_VALUE
+
+    // Second write time is earlier, its delta is negative.
+    val reader = reader(write(info to 1_700_000_000_000L, block() to 1_000L))
+    val read = BlockInfo()
+    assertTrue(reader.read(read))
+    assertEquals(1_700_000_000_000L, reader.writeTime)
+    assertEquals(Long.MAX_VALUE, read.timeCost)
+    assertEquals(Long.MIN_VALUE, read.threadTimeCost)
+    assertEquals(-1, read.versionCode)
+    assertEquals(Int.MIN_VALUE, read.cpuCoreNum)
+    assertEquals(0L, read.schedSpan)
+    assertEquals(Long.MAX_VALUE, read.schedOnCpu)
+    assertEquals(-1L, read.schedRunnable)
+    assertEquals(127L, read.schedSleeping)
+    assertEquals(128L, read.schedSlices)
+    assertEquals(Long.MIN_VALUE, read.schedVoluntary)
+    assertEquals(-64L, read.schedInvoluntary)
+    assertEquals(0L, read.ioSpan)
+    assertEquals(Long.MAX_VALUE, read.ioReadBytes)
+    assertEquals(Long.MIN_VALUE, read.ioWriteBytes)
+    assertEquals(-1L, read.gcSpan)
+    assertEquals("01-02 03:04:05.006", read.timeStart)
+
+    val second = BlockInfo()
+    assertTrue(reader.read(second))
+    assertEquals(1_000L, reader.writeTime)
+    assertEquals(1200L, second.timeCost)
+    assertEquals(-1L, second.schedSpan)
+    assertFalse(reader.read(BlockInfo()))
+  }
+
+  @Test
+  fun roundTrip_stringsAndNulls() {
+    val info = block("at a${BlockInfo.SEPARATOR}at b${BlockInfo.SEPARATOR}")
+    info.network = null
+    info.topThreadsInfo = null
+    info.thermalInfo = ""
+    info.sections["lock"] = "holder${BlockInfo.SEPARATOR}waiter"
+
+    val read = BlockInfo()
+    assertTrue(reader(write(info to 5L)).read(read))
+    assertNull(read.network)
+    assertNull(read.topThreadsInfo)
+    assertEquals("", read.thermalInfo)
+    assertEquals("holder${BlockInfo.SEPARATOR}waiter", read.sections["lock"])
+    assertEquals(info.threadStackEntries, read.threadStackEntries)
+    assertEquals("cpu 1 2 3", read.cpuRateInfo)
+  }
+
+  @Test
+  fun stringTable_repeatedStringsAreReferenced() {
+    val stack = (0 until 20).joinToString(BlockInfo.SEPARATOR) { "at com.example.Foo.frame$it" }
+    val out = ByteArrayOutputStream()
+    val writer = BlockRecordWriter(out)
+    val first = writer.write(block(stack), 1L)
+    val second = writer.write(block(stack), 2L)
+    // Second record refers to every string defined by the first.
+    assertTrue("$second of $first bytes", second * 4 < first)
+
+    val reader = reader(out.toByteArray())
+    val a = BlockInfo()
+    val b = BlockInfo()
+    assertTrue(reader.read(a))
+    assertTrue(reader.read(b))
+    assertEquals(stack, b.threadStackEntries[0])
+    assertEquals(a.threadStackEntries, b.threadStackEntries)
+    assertEquals(a.processName, b.processName)
+  }
+
+  @Test
+  fun read_truncatedLastRecordEndsRecords() {
+    val bytes = write(block() to 1L, block() to 2L)
+    for (cut in intArrayOf(1, 8, 20)) {
+      val reader = reader(bytes.copyOf(bytes.size - cut))
+      assertTrue(reader.read(BlockInfo()))
+      assertFalse("cut $cut", reader.read(BlockInfo()))
+    }
+  }
+
+  @Test
+  fun read_finishedFileStopsAtIndex() {
+    val out = ByteArrayOutputStream()
+    val writer = BlockRecordWriter(out)
+    writer.write(block(), 1L)
+    writer.finish()
+    val reader = reader(out.toByteArray())
+    assertTrue(reader.read(BlockInfo()))
+    assertFalse(reader.read(BlockInfo()))
+  }
+
+  @Test
+  fun isBlockRecordFile_checksMagic() {
+    val bytes = write(block() to 1L)
+    assertTrue(BlockRecordReader.isBlockRecordFile(bytes, bytes.size))
+    assertFalse(BlockRecordReader.isBlockRecordFile(bytes, 3))
+    val text = "qua = x".toByteArray()
+    assertFalse(BlockRecordReader.isBlockRecordFile(text, text.size))
+  }
+
+  @Test
+  fun readText_parsesRenderedLegacyLayout() {
+    val read = BlockInfo()
+    assertTrue(reader(write(block() to 1_000L)).read(read))
+    read.flushString()
+    val text = StringBuilder()
+    BlockRecordReader.render(read, 1_000L, text)
+
+    val parsed = BlockInfo().readText(BufferedReader(StringReader(text.toString())))
+    assertEquals("qua", parsed.qualifier)
+    assertEquals("1.0", parsed.versionName)
+    assertEquals(7, parsed.versionCode)
+    assertEquals("28 9", parsed.apiLevel)
+    assertEquals(8, parsed.cpuCoreNum)
+    assertEquals("main", parsed.looperName)
+    assertEquals(1200L, parsed.timeCost)
+    assertEquals(300L, parsed.threadTimeCost)
+    assertEquals("01-02 03:04:05.006", parsed.timeStart)
+    assertEquals("01-02 03:04:06.206", parsed.timeEnd)
+    assertEquals(2, parsed.threadStackEntries.size)
+    assertTrue(parsed.threadStackEntries[0].startsWith("at com.example.Foo.bar(Foo.java:1)"))
+  }
+
+  private fun readAll(bytes: ByteArray) {
+    val reader = reader(bytes)
+    while (reader.read(BlockInfo())) {
+    }
+  }
+
+  private fun assertCorrupt(bytes: ByteArray) {
+    try {
+      readAll(bytes)
+    } catch (expected: java.io.IOException) {
+      return
+    }
+    throw AssertionError("corrupt record accepted")
+  }
+
+  @Test
+  fun read_rejectsHugeRecordLength() {
+    val header = write().copyOf(5)
+    // Varint of 2^31 - 1, then a few body bytes.
+    assertCorrupt(header + byteArrayOf(-1, -1, -1, -1, 7, 1, 2, 3))
+    // Varint which decodes to a negative length.
+    assertCorrupt(header + byteArrayOf(-2) + ByteArray(8) { -1 } + byteArrayOf(1, 1, 2, 3))
+  }
+
+  @Test
+  fun read_rejectsNegativeStringLengthAndReference() {
+    // Flags without raw time, write time, time cost, thread time, then a time start string
+    // whose varint is negative, with bit 0 set for a length.
+    val body = byteArrayOf(0, 0, 0, 0, -1) + ByteArray(8) { -1 } + byteArrayOf(1)
+    // Same with bit 0 clear, a negative reference.
+    val ref = byteArrayOf(0, 0, 0, 0, -2) + ByteArray(8) { -1 } + byteArrayOf(1)
+    val header = write().copyOf(5)
+    assertCorrupt(header + byteArrayOf(body.size.toByte()) + body)
+    assertCorrupt(header + byteArrayOf(ref.size.toByte()) + ref)
+  }
+
+  @Test
+  fun read_corruptBytesOnlyThrowIOException() {
+    val bytes = write(block() to 1L, block() to 2L)
+    // Negative varints with bit 0 set or clear, and single flipped bytes.
+    val patches = listOf(byteArrayOf(-1) + ByteArray(8) { -1 } + byteArrayOf(1),
+        byteArrayOf(-2) + ByteArray(8) { -1 } + byteArrayOf(1),
+        byteArrayOf(0), byteArrayOf(0x7f), byteArrayOf(-128), byteArrayOf(-1))
+    for (i in 5 until bytes.size) {
+      for (patch in patches) {
+        val corrupt = bytes.copyOf()
+        patch.copyInto(corrupt, i, 0, minOf(patch.size, corrupt.size - i))
+        try {
+          readAll(corrupt)
+        } catch (expected: java.io.IOException) {
+        }
+      }
+    }
+  }
+
+  @Test
+  fun constructor_rejectsText() {
+    try {
+      reader("qua = x\r\n".toByteArray())
+    } catch (expected: java.io.IOException) {
+      return
+    }
+    throw AssertionError("text accepted as block record file")
+  }
+}
@@ -0,0 +1,118 @@
+package com.nf.blockcanary.internal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Bucket boundaries of [LatencyHistogram] and percentiles of [LatencySnapshot].
+ */
+class LatencyHistogramTest {
+
+  @Test
+  fun indexOf_linearBelowSubBucketCount() {
+    assertEquals(0, LatencyHistogram.indexOf(-5))
+    assertEquals(0, LatencyHistogram.indexOf(0))
+    assertEquals(1, LatencyHistogram.indexOf(1))
+    assertEquals(63, LatencyHistogram.indexOf(63))
+  }
+
+  @Test
+  fun indexOf_subBucketBoundaries() {
+    // 64..127 still have a bucket each, from 128 on two values share one.
+    assertEquals(64, LatencyHistogram.indexOf(64))
+    assertEquals(127, LatencyHistogram.indexOf(127))
+    assertEquals(128, LatencyHistogram.indexOf(128))
+    assertEquals(128, LatencyHistogram.indexOf(129))
+    assertEquals(129, LatencyHistogram.indexOf(130))
+    assertEquals(191, LatencyHistogram.indexOf(255))
+    assertEquals(192, LatencyHistogram.indexOf(256))
+    assertEquals(192, LatencyHistogram.indexOf(259))
+    assertEquals(193, LatencyHistogram.indexOf(260))
+  }
+
+  @Test
+  fun indexOf_clampsToLastBucket() {
+    val last = LatencyHistogram.BUCKET_COUNT - 1
+    assertEquals(last, LatencyHistogram.indexOf(LatencyHistogram.MAX_TRACKABLE_NANOS))
+    assertEquals(last, LatencyHistogram.indexOf(LatencyHistogram.MAX_TRACKABLE_NANOS + 1))
+    assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE))
+  }
+
+  @Test
+  fun highestValueOf_bucketsAreContiguous() {
+    for (index in 0 until LatencyHistogram.BUCKET_COUNT - 1) {
+      val highest = LatencyHistogram.highestValueOf(index)
+      assertEquals(index, LatencyHistogram.indexOf(highest))
+      assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1))
+    }
+    assertEquals(LatencyHistogram.MAX_TRACKABLE_NANOS,
+        LatencyHistogram.highestValueOf(LatencyHistogram.BUCKET_COUNT - 1))
+  }
+
+  @Test
+  fun highestValueOf_withinRelativeError() {
+    var value = 1L
+    while (value < LatencyHistogram.MAX_TRACKABLE_NANOS) {
+      val highest = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value))
+      assertTrue("$value -> $highest", highest >= value)
+      assertTrue("$value -> $highest", highest - value <= value / LatencyHistogram.SUB_BUCKET_COUNT)
+      value = value * 3 / 2 + 1
+    }
+  }
+
+  @Test
+  fun percentiles_exactForSmallValues() {
+    val histogram = LatencyHistogram()
+    for (nanos in 1L..50L) {
+      histogram.record(nanos)
+    }
+    val snapshot = histogram.snapshot()
+    assertEquals(50, snapshot.totalCount)
+    assertEquals(1, snapshot.getValueAtPercentile(0.0))
+    assertEquals(25, snapshot.p50)
+    assertEquals(45, snapshot.p90)
+    assertEquals(50, snapshot.p99)
+    assertEquals(50, snapshot.getValueAtPercentile(100.0))
+    assertEquals(50, snapshot.getValueAtPercentile(150.0))
+    assertEquals(50, snapshot.max)
+    assertEquals(10, snapshot.getCountAbove(40))
+  }
+
+  @Test
+  fun percentiles_neverUnderstate() {
+    val histogram = LatencyHistogram()
+    for (i in 0 until 99) {
+      histogram.record(1_000_000)
+    }
+    histogram.record(250_000_000)
+    val snapshot = histogram.snapshot()
+    assertTrue(snapshot.p50 >= 1_000_000 && snapshot.p50 < 1_016_000)
+    assertEquals(snapshot.p50, snapshot.p99)
+    assertTrue(snapshot.p999 >= 250_000_000 && snapshot.p999 < 254_000_000)
+    assertEquals(snapshot.p999, snapshot.max)
+    assertEquals(1, snapshot.getCountAbove(1_016_000))
+  }
+
+  @Test
+  fun percentiles_emptySnapshot() {
+    val snapshot = LatencyHistogram().snapshot()
+    assertEquals(0, snapshot.totalCount)
+    assertEquals(0, snapshot.p50)
+    assertEquals(0, snapshot.max)
+  }
+
+  @Test
+  fun windowSnapshot_onlyCountsSincePreviousCall() {
+    val histogram = LatencyHistogram()
+    histogram.record(10)
+    histogram.record(20)
+    assertEquals(2, histogram.windowSnapshot().totalCount)
+    histogram.record(30)
+    val window = histogram.windowSnapshot()
+    assertEquals(1, window.totalCount)
+    assertEquals(30, window.p50)
+    assertEquals(0, histogram.windowSnapshot().totalCount)
+    assertEquals(3, histogram.snapshot().totalCount)
+  }
+}